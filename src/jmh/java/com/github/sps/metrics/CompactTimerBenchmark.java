@@ -0,0 +1,101 @@
+package com.github.sps.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link TaggedCompactTimer} against a regular {@link TaggedTimer}: the cost of one update, from one
+ * and from 8 threads, and the heap retained per series once it has seen a few thousand updates,
+ * reported as the {@code retainedBytesPerSeries} counter of {@code retainedSize}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class CompactTimerBenchmark {
+
+	private static final int SERIES = 10000;
+	private static final int UPDATES_PER_SERIES = 2000;
+	private static final Map<String, String> TAGS = Collections.singletonMap("endpoint", "/search");
+
+	@Param({"compact", "timer"})
+	public String type;
+
+	private TaggedTimer timer;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+		public long retainedBytesPerSeries;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		timer = create();
+	}
+
+	private TaggedTimer create() {
+		return "compact".equals(type) ? new TaggedCompactTimer(TAGS) : new TaggedTimer(TAGS);
+	}
+
+	private static long nextDuration() {
+		// 10µs to 100ms
+		return 10000 + ThreadLocalRandom.current().nextLong(100000000);
+	}
+
+	@Benchmark
+	public void update() {
+		timer.update(nextDuration(), TimeUnit.NANOSECONDS);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void updateContended() {
+		timer.update(nextDuration(), TimeUnit.NANOSECONDS);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 1)
+	public Object retainedSize(Footprint footprint) {
+		final long before = usedHeap();
+		final TaggedTimer[] series = new TaggedTimer[SERIES];
+		for (int i = 0; i < SERIES; i++) {
+			series[i] = create();
+			for (int j = 0; j < UPDATES_PER_SERIES; j++) {
+				series[i].update(nextDuration(), TimeUnit.NANOSECONDS);
+			}
+		}
+		footprint.retainedBytesPerSeries = (usedHeap() - before) / SERIES;
+		return series;
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
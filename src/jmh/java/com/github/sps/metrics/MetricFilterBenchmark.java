@@ -0,0 +1,74 @@
+package com.github.sps.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Filtering a whole registry, as a report does, with regex filters and with a {@link CompiledMetricFilter}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricFilterBenchmark {
+
+	private static final String[] GROUPS = {"http", "jvm", "db", "cache", "queue"};
+
+	@Param({"10000", "200000"})
+	public int series;
+
+	private MetricRegistry registry;
+	private MetricFilter regexFilter;
+	private CompiledMetricFilter compiledFilter;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		registry = new MetricRegistry();
+		for (int i = 0; i < series; i++) {
+			registry.counter(GROUPS[i % GROUPS.length] + ".series" + i + (i % 10 == 0 ? ".debug" : ""));
+		}
+		final Pattern include = Pattern.compile("(http|jvm|db)\\..*");
+		final Pattern exclude = Pattern.compile(".*\\.debug");
+		regexFilter = new MetricFilter() {
+			@Override
+			public boolean matches(String name, Metric metric) {
+				return include.matcher(name).matches() && !exclude.matcher(name).matches();
+			}
+		};
+		compiledFilter = CompiledMetricFilter.builder()
+				.includePrefix("http.")
+				.includePrefix("jvm.")
+				.includePrefix("db.")
+				.excludeMatching(".*\\.debug")
+				.build();
+		registry.addListener(compiledFilter);
+	}
+
+	@Benchmark
+	public Object regexFilter() {
+		return registry.getCounters(regexFilter);
+	}
+
+	@Benchmark
+	public Object compiledFilter() {
+		return registry.getCounters(compiledFilter);
+	}
+}
@@ -0,0 +1,72 @@
+package com.github.sps.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Tagged get-or-create from many threads, and the linear {@code getTaggedMetric} lookup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TaggedMetricRegistryBenchmark {
+
+	@Param({"1000", "10000", "100000"})
+	public int series;
+
+	private TaggedMetricRegistry registry;
+	private Map<String, String>[] tags;
+
+	@SuppressWarnings("unchecked")
+	@Setup(Level.Trial)
+	public void setUp() {
+		registry = new TaggedMetricRegistry();
+		tags = new Map[series];
+		for (int i = 0; i < series; i++) {
+			tags[i] = new HashMap<String, String>();
+			tags[i].put("shard", Integer.toString(i % 64));
+			tags[i].put("series", Integer.toString(i));
+			registry.taggedCounter("bench.requests", tags[i]);
+		}
+	}
+
+	private Map<String, String> randomTags() {
+		return tags[ThreadLocalRandom.current().nextInt(series)];
+	}
+
+	@Benchmark
+	@Threads(8)
+	public TaggedCounter getOrCreateContended() {
+		return registry.taggedCounter("bench.requests", randomTags());
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void getOrCreateAndIncrementContended() {
+		registry.taggedCounter("bench.requests", randomTags()).inc();
+	}
+
+	@Benchmark
+	public TaggedMetric getTaggedMetric() {
+		return registry.getTaggedMetric("bench.requests", randomTags());
+	}
+}
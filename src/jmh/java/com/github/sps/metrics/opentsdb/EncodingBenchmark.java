@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.sps.metrics.ReportFixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Points encoded per second by the HTTP (JSON) and telnet clients, for a batch of 1000 points with
+ * half long and half double values.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncodingBenchmark {
+
+    private static final int POINTS = 1000;
+
+    // configured like the mapper of the HTTP client
+    private final ObjectMapper mapper = new ObjectMapper(JsonFactory.builder()
+            .enable(StreamWriteFeature.USE_FAST_DOUBLE_WRITER)
+            .build());
+    private final Writer writer = Writer.nullWriter();
+    private final OpenTsdbTelnet telnet = OpenTsdbTelnet.forWriter(writer).create();
+    private Set<OpenTsdbMetric> metrics;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        metrics = ReportFixtures.points("bench", POINTS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public byte[] json() throws IOException {
+        return mapper.writeValueAsBytes(metrics);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void telnet() throws IOException {
+        telnet.write(metrics, writer);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TagCodec} against the regex, {@link Scanner} and {@code String.format} based methods it
+ * replaced, which are copied here as the {@code legacy} benchmarks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TagCodecBenchmark {
+
+    private final String validName = "http.server.requests.count";
+    private final String invalidName = "http server:requests{count}";
+    private final String tagString = "host=web01 dc=lga service=api path=/v1/users";
+    private final Map<String, String> tags = TagCodec.decodeTags(tagString);
+    private final String encodedName = TagCodec.encodeName(validName, tags);
+
+    @Benchmark
+    public String sanitizeValidLegacy() {
+        return legacySanitize(validName);
+    }
+
+    @Benchmark
+    public String sanitizeValid() {
+        return TagCodec.sanitize(validName);
+    }
+
+    @Benchmark
+    public String sanitizeInvalidLegacy() {
+        return legacySanitize(invalidName);
+    }
+
+    @Benchmark
+    public String sanitizeInvalid() {
+        return TagCodec.sanitize(invalidName);
+    }
+
+    @Benchmark
+    public Map<String, String> parseTagsLegacy() {
+        return legacyParseTags(tagString);
+    }
+
+    @Benchmark
+    public Map<String, String> parseTags() {
+        return TagCodec.decodeTags(tagString);
+    }
+
+    @Benchmark
+    public String encodeNameLegacy() {
+        return String.format("TAG(%s)%s", legacyFormatTags(tags), legacySanitize(validName));
+    }
+
+    @Benchmark
+    public String encodeName() {
+        return TagCodec.encodeName(validName, tags);
+    }
+
+    @Benchmark
+    public OpenTsdbMetric namedLegacy() {
+        final int tagEnd = encodedName.lastIndexOf(')');
+        return OpenTsdbMetric.named(encodedName.substring(tagEnd + 1))
+                .withTags(legacyParseTags(encodedName.substring(4, tagEnd)))
+                .build();
+    }
+
+    @Benchmark
+    public OpenTsdbMetric named() {
+        return OpenTsdbMetric.named(encodedName).build();
+    }
+
+    private static String legacySanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9\\-\\_\\.\\/]", "-");
+    }
+
+    private static Map<String, String> legacyParseTags(String tagString) {
+        final Scanner scanner = new Scanner(tagString).useDelimiter("\\s+|=");
+        final Map<String, String> tagMap = new HashMap<String, String>();
+        try {
+            while (scanner.hasNext()) {
+                tagMap.put(scanner.next(), scanner.next());
+            }
+        } catch (NoSuchElementException e) {
+            throw new IllegalArgumentException("Invalid tag string '" + tagString + "'");
+        } finally {
+            scanner.close();
+        }
+        return tagMap;
+    }
+
+    private static String legacyFormatTags(Map<String, String> tagMap) {
+        final StringBuilder builder = new StringBuilder();
+        String delimiter = "";
+        for (Map.Entry<String, String> tag : tagMap.entrySet()) {
+            builder.append(delimiter).append(legacySanitize(tag.getKey())).append("=").append(legacySanitize(tag.getValue()));
+            delimiter = " ";
+        }
+        return builder.toString();
+    }
+}
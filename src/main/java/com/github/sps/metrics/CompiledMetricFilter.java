@@ -0,0 +1,340 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link MetricFilter} of include and exclude rules on metric names, compiled once: name prefixes
+ * into a prefix trie, regular expressions into one alternation per kind. A metric is reported if
+ * it matches an include rule, or there are none, and no exclude rule. Rules apply to the base name
+ * of {@link TaggedMetric}s.
+ *
+ * The decision is cached per metric name. As a {@link MetricRegistryListener} of the reported
+ * registry the filter decides when a metric is registered and forgets it when it is removed, so
+ * filtering a report is a hash lookup per metric. {@link OpenTsdbReporter.Builder#filter(MetricFilter)}
+ * registers it, and {@link OpenTsdbReporter#stop()} unregisters it. The cache holds the names of a
+ * single registry: reporters of the same registry may share a filter, reporters of different
+ * registries need one each.
+ *
+ * <pre><code>
+ * CompiledMetricFilter.builder()
+ *         .includePrefix("http.")
+ *         .includePrefix("jvm.")
+ *         .excludeMatching(".*\\.debug\\..*")
+ *         .build()
+ * </code></pre>
+ */
+public class CompiledMetricFilter implements MetricFilter, MetricRegistryListener {
+
+    /**
+     * The number of decisions cached. The cache is emptied when it fills up, which only happens
+     * when the filter is used without being registered as a listener.
+     */
+    public static final int MAX_CACHED = 1 << 20;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private final List<String> includePrefixes = new ArrayList<String>();
+        private final List<String> excludePrefixes = new ArrayList<String>();
+        private final List<String> includeRegexes = new ArrayList<String>();
+        private final List<String> excludeRegexes = new ArrayList<String>();
+
+        private Builder() {
+        }
+
+        public Builder includePrefix(String prefix) {
+            includePrefixes.add(prefix);
+            return this;
+        }
+
+        public Builder excludePrefix(String prefix) {
+            excludePrefixes.add(prefix);
+            return this;
+        }
+
+        /**
+         * @param regex a pattern matching whole names
+         * @return {@code this}
+         */
+        public Builder includeMatching(String regex) {
+            includeRegexes.add(regex);
+            return this;
+        }
+
+        /**
+         * @param regex a pattern matching whole names
+         * @return {@code this}
+         */
+        public Builder excludeMatching(String regex) {
+            excludeRegexes.add(regex);
+            return this;
+        }
+
+        /**
+         * @return the compiled filter
+         * @throws java.util.regex.PatternSyntaxException if a pattern is invalid
+         */
+        public CompiledMetricFilter build() {
+            return new CompiledMetricFilter(PrefixTrie.of(includePrefixes), compile(includeRegexes),
+                    PrefixTrie.of(excludePrefixes), compile(excludeRegexes));
+        }
+
+        private static Pattern compile(List<String> regexes) {
+            if (regexes.isEmpty()) {
+                return null;
+            }
+            final StringBuilder alternation = new StringBuilder();
+            for (String regex : regexes) {
+                // checks each pattern on its own for a clear error
+                Pattern.compile(regex);
+                if (alternation.length() > 0) {
+                    alternation.append('|');
+                }
+                alternation.append("(?:").append(regex).append(')');
+            }
+            return Pattern.compile(alternation.toString());
+        }
+    }
+
+    /**
+     * A set of prefixes, matched in one pass over a name.
+     */
+    static final class PrefixTrie {
+        private static final PrefixTrie EMPTY = new PrefixTrie();
+
+        private char[] labels = new char[0];
+        private PrefixTrie[] children = new PrefixTrie[0];
+        private boolean terminal;
+
+        static PrefixTrie of(List<String> prefixes) {
+            if (prefixes.isEmpty()) {
+                return EMPTY;
+            }
+            final PrefixTrie root = new PrefixTrie();
+            for (String prefix : prefixes) {
+                root.add(prefix);
+            }
+            return root;
+        }
+
+        private void add(String prefix) {
+            PrefixTrie node = this;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.child(prefix.charAt(i));
+            }
+            node.terminal = true;
+        }
+
+        private PrefixTrie child(char c) {
+            int index = Arrays.binarySearch(labels, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            index = -index - 1;
+            final PrefixTrie child = new PrefixTrie();
+            final char[] newLabels = new char[labels.length + 1];
+            final PrefixTrie[] newChildren = new PrefixTrie[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            newLabels[index] = c;
+            newChildren[index] = child;
+            System.arraycopy(labels, index, newLabels, index + 1, labels.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            labels = newLabels;
+            children = newChildren;
+            return child;
+        }
+
+        boolean isEmpty() {
+            return this == EMPTY;
+        }
+
+        /**
+         * @return {@code true} if one of the prefixes starts {@code name}
+         */
+        boolean matchesPrefixOf(String name) {
+            PrefixTrie node = this;
+            for (int i = 0; ; i++) {
+                if (node.terminal) {
+                    return true;
+                }
+                if (i == name.length()) {
+                    return false;
+                }
+                final int index = Arrays.binarySearch(node.labels, name.charAt(i));
+                if (index < 0) {
+                    return false;
+                }
+                node = node.children[index];
+            }
+        }
+    }
+
+    private final PrefixTrie includePrefixes;
+    private final Pattern includePattern;
+    private final PrefixTrie excludePrefixes;
+    private final Pattern excludePattern;
+    private final ConcurrentHashMap<String, Boolean> decisions = new ConcurrentHashMap<String, Boolean>();
+    // the registry listened to, and the number of reporters using the filter on it
+    private MetricRegistry registry;
+    private int attachments;
+
+    private CompiledMetricFilter(PrefixTrie includePrefixes, Pattern includePattern, PrefixTrie excludePrefixes, Pattern excludePattern) {
+        this.includePrefixes = includePrefixes;
+        this.includePattern = includePattern;
+        this.excludePrefixes = excludePrefixes;
+        this.excludePattern = excludePattern;
+    }
+
+    @Override
+    public boolean matches(String name, Metric metric) {
+        final Boolean cached = decisions.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        return decide(name, metric);
+    }
+
+    private boolean decide(String name, Metric metric) {
+        final boolean decision = evaluate(metric instanceof TaggedMetric ? TaggedMetricRegistry.getBaseName(name) : name);
+        if (decisions.size() >= MAX_CACHED) {
+            decisions.clear();
+        }
+        decisions.put(name, decision);
+        return decision;
+    }
+
+    /**
+     * @param name a metric name, the base name for tagged metrics
+     * @return the decision of the rules, uncached
+     */
+    boolean evaluate(String name) {
+        final boolean noIncludes = includePrefixes.isEmpty() && includePattern == null;
+        final boolean included = noIncludes
+                || includePrefixes.matchesPrefixOf(name)
+                || (includePattern != null && includePattern.matcher(name).matches());
+        if (!included) {
+            return false;
+        }
+        return !excludePrefixes.matchesPrefixOf(name)
+                && (excludePattern == null || !excludePattern.matcher(name).matches());
+    }
+
+    /**
+     * Listens to {@code registry}, once for all the reporters of the registry using this filter.
+     *
+     * @throws IllegalStateException if the filter already listens to another registry
+     */
+    synchronized void attach(MetricRegistry registry) {
+        if (this.registry != null && this.registry != registry) {
+            throw new IllegalStateException("a CompiledMetricFilter caches the names of one registry, build one per registry");
+        }
+        if (attachments++ == 0) {
+            this.registry = registry;
+            registry.addListener(this);
+        }
+    }
+
+    /**
+     * Stops listening to {@code registry} once the last reporter using the filter on it detached,
+     * and forgets the decisions.
+     */
+    synchronized void detach(MetricRegistry registry) {
+        if (this.registry != registry || attachments == 0) {
+            return;
+        }
+        if (--attachments == 0) {
+            registry.removeListener(this);
+            this.registry = null;
+            decisions.clear();
+        }
+    }
+
+    /**
+     * @return the number of cached decisions
+     */
+    int getCachedCount() {
+        return decisions.size();
+    }
+
+    @Override
+    public void onGaugeAdded(String name, Gauge<?> gauge) {
+        decide(name, gauge);
+    }
+
+    @Override
+    public void onGaugeRemoved(String name) {
+        decisions.remove(name);
+    }
+
+    @Override
+    public void onCounterAdded(String name, Counter counter) {
+        decide(name, counter);
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+        decisions.remove(name);
+    }
+
+    @Override
+    public void onHistogramAdded(String name, Histogram histogram) {
+        decide(name, histogram);
+    }
+
+    @Override
+    public void onHistogramRemoved(String name) {
+        decisions.remove(name);
+    }
+
+    @Override
+    public void onMeterAdded(String name, Meter meter) {
+        decide(name, meter);
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+        decisions.remove(name);
+    }
+
+    @Override
+    public void onTimerAdded(String name, Timer timer) {
+        decide(name, timer);
+    }
+
+    @Override
+    public void onTimerRemoved(String name) {
+        decisions.remove(name);
+    }
+}
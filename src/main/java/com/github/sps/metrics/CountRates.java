@@ -0,0 +1,88 @@
+package com.github.sps.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Clock;
+
+/**
+ * The mean and exponentially weighted rates of a count kept elsewhere, for timers that do not
+ * mark a {@link com.codahale.metrics.Meter} when recording. The rates are weighted like a Meter's,
+ * but caught up with the count only when they are read.
+ */
+final class CountRates {
+
+	private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+	private static final double M1_ALPHA = 1 - Math.exp(-5 / 60.0);
+	private static final double M5_ALPHA = 1 - Math.exp(-5 / 60.0 / 5);
+	private static final double M15_ALPHA = 1 - Math.exp(-5 / 60.0 / 15);
+
+	private final Clock clock;
+	private final long startTick;
+	private long lastTick;
+	private long lastTickCount;
+	private boolean ratesInitialized;
+	private double m1Rate;
+	private double m5Rate;
+	private double m15Rate;
+
+	CountRates(Clock clock) {
+		this.clock = clock;
+		this.startTick = clock.getTick();
+		this.lastTick = startTick;
+	}
+
+	double getMeanRate(long count) {
+		if (count == 0) {
+			return 0;
+		}
+		final double elapsed = clock.getTick() - startTick;
+		return count / elapsed * TimeUnit.SECONDS.toNanos(1);
+	}
+
+	synchronized double getOneMinuteRate(long count) {
+		tickIfNecessary(count);
+		return ratePerSecond(m1Rate);
+	}
+
+	synchronized double getFiveMinuteRate(long count) {
+		tickIfNecessary(count);
+		return ratePerSecond(m5Rate);
+	}
+
+	synchronized double getFifteenMinuteRate(long count) {
+		tickIfNecessary(count);
+		return ratePerSecond(m15Rate);
+	}
+
+	private static double ratePerSecond(double ratePerTick) {
+		return ratePerTick * TimeUnit.SECONDS.toNanos(1) / TICK_INTERVAL;
+	}
+
+	/**
+	 * Catches the rates up with the 5 second ticks that passed since they were last read. As with
+	 * a Meter, all events since then count towards the first of those ticks.
+	 */
+	private void tickIfNecessary(long count) {
+		final long age = clock.getTick() - lastTick;
+		if (age < TICK_INTERVAL) {
+			return;
+		}
+		final long ticks = age / TICK_INTERVAL;
+		lastTick += ticks * TICK_INTERVAL;
+		double uncounted = count - lastTickCount;
+		lastTickCount = count;
+		for (long i = 0; i < ticks; i++) {
+			if (!ratesInitialized) {
+				m1Rate = uncounted;
+				m5Rate = uncounted;
+				m15Rate = uncounted;
+				ratesInitialized = true;
+			} else {
+				m1Rate += M1_ALPHA * (uncounted - m1Rate);
+				m5Rate += M5_ALPHA * (uncounted - m5Rate);
+				m15Rate += M15_ALPHA * (uncounted - m15Rate);
+			}
+			uncounted = 0;
+		}
+	}
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricRegistryListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls selected numeric gauges at a short interval so spiky values are not lost between reports.
+ *
+ * Every gauge gets a fixed size ring of {@code double} samples; when more samples than its
+ * capacity arrive within one report interval the oldest are overwritten. A reporter configured with
+ * {@link OpenTsdbReporter.Builder#withGaugeSampler(GaugeSampler)} drains the rings and sends the
+ * {@code min}, {@code max}, {@code avg} and {@code last} of each interval instead of the gauge value.
+ *
+ * The sampler keeps its own index of the selected gauges, filled by listening to the registry from
+ * the first sample or {@link #start(long, TimeUnit)} until {@link #stop()}, so a sample doesn't
+ * filter the whole registry.
+ */
+public class GaugeSampler {
+
+    private static final Logger logger = LoggerFactory.getLogger(GaugeSampler.class);
+
+    /**
+     * The samples of one gauge over one report interval.
+     */
+    public static final class Summary {
+        private final double min;
+        private final double max;
+        private final double avg;
+        private final double last;
+        private final int count;
+
+        /**
+         * @return the summary of a single reading, for an interval without samples
+         */
+        static Summary of(double value) {
+            return new Summary(value, value, value, value, 1);
+        }
+
+        Summary(double min, double max, double avg, double last, int count) {
+            this.min = min;
+            this.max = max;
+            this.avg = avg;
+            this.last = last;
+            this.count = count;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getAvg() {
+            return avg;
+        }
+
+        public double getLast() {
+            return last;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+
+    private static final class Ring {
+        private final double[] values;
+        private int next;
+        private int size;
+        private boolean retired;
+
+        private Ring(int capacity) {
+            this.values = new double[capacity];
+        }
+
+        /**
+         * @return {@code false} if the ring was retired by a drain and a new one is needed
+         */
+        private synchronized boolean add(double value) {
+            if (retired) {
+                return false;
+            }
+            values[next] = value;
+            next = (next + 1) % values.length;
+            if (size < values.length) {
+                size++;
+            }
+            return true;
+        }
+
+        /**
+         * @return the summary of the samples, or {@code null} if there are none, in which case the
+         * ring is retired and takes no more samples
+         */
+        private synchronized Summary drain() {
+            if (size == 0) {
+                retired = true;
+                return null;
+            }
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            for (int i = 0, index = next - size + values.length; i < size; i++, index++) {
+                final double value = values[index % values.length];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+                sum += value;
+            }
+            final Summary summary = new Summary(min, max, sum / size, values[(next - 1 + values.length) % values.length], size);
+            size = 0;
+            return summary;
+        }
+    }
+
+    private final MetricRegistry registry;
+    private final MetricFilter filter;
+    private final int capacity;
+    private final ScheduledExecutorService executor;
+    private final ConcurrentHashMap<String, Ring> rings = new ConcurrentHashMap<String, Ring>();
+    private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+    private final MetricRegistryListener index = new MetricRegistryListener.Base() {
+        @Override
+        public void onGaugeAdded(String name, Gauge<?> gauge) {
+            if (filter.matches(name, gauge)) {
+                gauges.put(name, gauge);
+            }
+        }
+
+        @Override
+        public void onGaugeRemoved(String name) {
+            gauges.remove(name);
+        }
+    };
+    private volatile boolean attached;
+    private ScheduledFuture<?> schedule;
+
+    /**
+     * @param registry the registry holding the gauges
+     * @param filter   selects the gauges to sample
+     * @param capacity the number of samples kept per gauge and report interval, e.g. the report
+     *                 period divided by the sample interval
+     */
+    public GaugeSampler(MetricRegistry registry, MetricFilter filter, int capacity) {
+        this(registry, filter, capacity, Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "opentsdb-gauge-sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    }
+
+    public GaugeSampler(MetricRegistry registry, MetricFilter filter, int capacity, ScheduledExecutorService executor) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.registry = registry;
+        this.filter = filter;
+        this.capacity = capacity;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts sampling every {@code interval}.
+     */
+    public synchronized void start(long interval, TimeUnit unit) {
+        if (schedule != null) {
+            throw new IllegalStateException("sampler already started");
+        }
+        attach();
+        schedule = executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sample();
+                } catch (RuntimeException e) {
+                    logger.warn("sampling gauges failed", e);
+                }
+            }
+        }, interval, interval, unit);
+    }
+
+    /**
+     * Stops sampling and listening to the registry.
+     */
+    public synchronized void stop() {
+        if (schedule != null) {
+            schedule.cancel(false);
+            schedule = null;
+        }
+        if (attached) {
+            registry.removeListener(index);
+            gauges.clear();
+            attached = false;
+        }
+    }
+
+    /**
+     * Starts indexing the selected gauges, the registry replays the ones already registered.
+     */
+    private synchronized void attach() {
+        if (!attached) {
+            registry.addListener(index);
+            attached = true;
+        }
+    }
+
+    /**
+     * Takes one sample of every selected gauge with a numeric value.
+     */
+    public void sample() {
+        if (!attached) {
+            attach();
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            final Object value;
+            try {
+                value = entry.getValue().getValue();
+            } catch (RuntimeException e) {
+                logger.debug("sampling gauge {} failed", entry.getKey(), e);
+                continue;
+            }
+            if (!(value instanceof Number)) {
+                continue;
+            }
+            final double sample = ((Number) value).doubleValue();
+            while (true) {
+                Ring ring = rings.get(entry.getKey());
+                if (ring == null) {
+                    final Ring created = new Ring(capacity);
+                    ring = rings.putIfAbsent(entry.getKey(), created);
+                    if (ring == null) {
+                        ring = created;
+                    }
+                }
+                if (ring.add(sample)) {
+                    break;
+                }
+                // retired by a concurrent drain, which removes it
+                rings.remove(entry.getKey(), ring);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the sampler selects the gauge; the reporter sends the summary shape
+     * for it even in an interval without samples
+     */
+    boolean isSampled(String name, Gauge gauge) {
+        return filter.matches(name, gauge);
+    }
+
+    /**
+     * Summarizes and clears the samples taken since the last call. The rings of gauges that were
+     * not sampled since the previous drain, e.g. because they were removed, are retired; a sample
+     * arriving at the same time goes to a new ring, so it is not lost.
+     *
+     * @return the summaries keyed by registry name
+     */
+    public Map<String, Summary> drain() {
+        final Map<String, Summary> summaries = new HashMap<String, Summary>();
+        for (Map.Entry<String, Ring> entry : rings.entrySet()) {
+            final Ring ring = entry.getValue();
+            final Summary summary = ring.drain();
+            if (summary != null) {
+                summaries.put(entry.getKey(), summary);
+            } else {
+                rings.remove(entry.getKey(), ring);
+            }
+        }
+        return summaries;
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.sps.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformSnapshot;
+
+/**
+ * A reservoir holding the values of the current report interval only.
+ *
+ * Values go into a plain {@code long[]} buffer. {@link #getSnapshotAndReset()} swaps in a second,
+ * cleared buffer and waits for the writers still holding the old one, so every value lands in
+ * exactly one interval. The two buffers are reused, a reset copies only the values of the interval.
+ * A snapshot sorts only the values of its interval.
+ *
+ * Once more values than the capacity arrive in one interval, the buffer keeps a uniform sample of
+ * them.
+ */
+public class IntervalReservoir implements Reservoir {
+
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/**
+	 * The values of one interval, with the number of updates it saw.
+	 */
+	public static class IntervalSnapshot extends UniformSnapshot {
+		private final long count;
+
+		private IntervalSnapshot(long[] values, long count) {
+			super(values);
+			this.count = count;
+		}
+
+		/**
+		 * @return the number of updates in the interval, which can exceed {@link #size()}
+		 */
+		public long getCount() {
+			return count;
+		}
+	}
+
+	private static final class Buffer {
+		private final long[] values;
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicInteger writers = new AtomicInteger();
+
+		private Buffer(int capacity) {
+			this.values = new long[capacity];
+		}
+
+		private void add(long value) {
+			final long index = count.getAndIncrement();
+			if (index < values.length) {
+				values[(int) index] = value;
+			} else {
+				// reservoir sampling keeps a uniform sample of the interval
+				final long slot = ThreadLocalRandom.current().nextLong(index + 1);
+				if (slot < values.length) {
+					values[(int) slot] = value;
+				}
+			}
+		}
+
+		private long[] copyValues() {
+			return Arrays.copyOf(values, (int) Math.min(count.get(), values.length));
+		}
+
+		private void clear() {
+			// values past the count are never read, no need to zero them
+			count.set(0);
+		}
+	}
+
+	private final int capacity;
+	private volatile Buffer active;
+	// the buffer of the previous interval, cleared, becomes active at the next reset
+	private Buffer spare;
+
+	public IntervalReservoir() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public IntervalReservoir(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.capacity = capacity;
+		this.active = new Buffer(capacity);
+		this.spare = new Buffer(capacity);
+	}
+
+	@Override
+	public int size() {
+		return (int) Math.min(active.count.get(), capacity);
+	}
+
+	@Override
+	public void update(long value) {
+		while (true) {
+			final Buffer buffer = active;
+			buffer.writers.incrementAndGet();
+			try {
+				// a swap after this check waits for this writer
+				if (buffer == active) {
+					buffer.add(value);
+					return;
+				}
+			} finally {
+				buffer.writers.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @return the values of the current interval, without ending it
+	 */
+	@Override
+	public Snapshot getSnapshot() {
+		final Buffer buffer = active;
+		return new IntervalSnapshot(buffer.copyValues(), buffer.count.get());
+	}
+
+	/**
+	 * Ends the current interval and starts a new one.
+	 *
+	 * @return the values of the interval that ended
+	 */
+	public synchronized IntervalSnapshot getSnapshotAndReset() {
+		final Buffer ended = active;
+		active = spare;
+		while (ended.writers.get() != 0) {
+			Thread.onSpinWait();
+		}
+		// writers that still hold the ended buffer see it is no longer active and retry
+		final IntervalSnapshot snapshot = new IntervalSnapshot(ended.copyValues(), ended.count.get());
+		ended.clear();
+		spare = ended;
+		return snapshot;
+	}
+}
@@ -0,0 +1,215 @@
+package com.github.sps.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Clock;
+
+/**
+ * Reads MBean attributes in batches for {@link TaggedJmxAttributeGauge}s.
+ *
+ * Every attribute registered for an {@link ObjectName} is fetched with one
+ * {@link MBeanServer#getAttributes} call and the values are kept for {@code ttl}, so the gauges of
+ * one MBean cost a single call per report. An MBean whose read fails is not asked again for
+ * {@code failureTtl}. Attributes are counted per registration and dropped once every gauge reading
+ * them is unregistered.
+ */
+public class JmxAttributeCache {
+
+	public static final long DEFAULT_TTL_MS = 1000;
+	public static final long DEFAULT_FAILURE_TTL_MS = 60000;
+
+	private static final Logger logger = LoggerFactory.getLogger(JmxAttributeCache.class);
+	// the cache references its server, so the value is held weakly too; the gauges keep it alive
+	private static final Map<MBeanServer, WeakReference<JmxAttributeCache>> shared = new WeakHashMap<MBeanServer, WeakReference<JmxAttributeCache>>();
+
+	/**
+	 * @param mBeanServer
+	 * @return the cache shared by all gauges reading from {@code mBeanServer}
+	 */
+	public static JmxAttributeCache forServer(MBeanServer mBeanServer) {
+		synchronized (shared) {
+			final WeakReference<JmxAttributeCache> reference = shared.get(mBeanServer);
+			JmxAttributeCache cache = reference == null ? null : reference.get();
+			if (cache == null) {
+				cache = new JmxAttributeCache(mBeanServer, DEFAULT_TTL_MS, DEFAULT_FAILURE_TTL_MS,
+						TimeUnit.MILLISECONDS, Clock.defaultClock());
+				shared.put(mBeanServer, new WeakReference<JmxAttributeCache>(cache));
+			}
+			return cache;
+		}
+	}
+
+	private final MBeanServer mBeanServer;
+	private final long ttlNanos;
+	private final long failureTtlNanos;
+	private final Clock clock;
+	private final ConcurrentHashMap<ObjectName, MBeanAttributes> mBeans = new ConcurrentHashMap<ObjectName, MBeanAttributes>();
+
+	/**
+	 * @param mBeanServer the server to read from
+	 * @param ttl         how long fetched values are served, should be shorter than the report period
+	 * @param failureTtl  how long an MBean that failed to read is skipped
+	 * @param unit        the unit of {@code ttl} and {@code failureTtl}
+	 * @param clock       the clock used to expire values
+	 */
+	public JmxAttributeCache(MBeanServer mBeanServer, long ttl, long failureTtl, TimeUnit unit, Clock clock) {
+		this.mBeanServer = mBeanServer;
+		this.ttlNanos = unit.toNanos(ttl);
+		this.failureTtlNanos = unit.toNanos(failureTtl);
+		this.clock = clock;
+	}
+
+	public MBeanServer getMBeanServer() {
+		return mBeanServer;
+	}
+
+	/**
+	 * Adds {@code attributeName} to the attributes fetched for {@code objectName}. Each call must be
+	 * matched by an {@link #unregister} once the reader is gone.
+	 */
+	public void register(ObjectName objectName, String attributeName) {
+		while (true) {
+			MBeanAttributes attributes = mBeans.get(objectName);
+			if (attributes == null) {
+				final MBeanAttributes created = new MBeanAttributes(objectName);
+				attributes = mBeans.putIfAbsent(objectName, created);
+				if (attributes == null) {
+					attributes = created;
+				}
+			}
+			if (attributes.add(attributeName)) {
+				return;
+			}
+			// lost a race with the last unregister of the MBean, which removed it
+		}
+	}
+
+	/**
+	 * Releases a {@link #register} of {@code attributeName}; the attribute is no longer fetched once
+	 * every registration is released, and the MBean is forgotten once none of its attributes is.
+	 */
+	public void unregister(ObjectName objectName, String attributeName) {
+		final MBeanAttributes attributes = mBeans.get(objectName);
+		if (attributes != null && attributes.release(attributeName)) {
+			mBeans.remove(objectName, attributes);
+		}
+	}
+
+	/**
+	 * Stops fetching attributes of {@code objectName}, e.g. after it was unregistered.
+	 */
+	public void remove(ObjectName objectName) {
+		mBeans.remove(objectName);
+	}
+
+	public Set<ObjectName> getObjectNames() {
+		return mBeans.keySet();
+	}
+
+	/**
+	 * @return the value of the attribute, or {@code null} if it could not be read
+	 */
+	public Object getValue(ObjectName objectName, String attributeName) {
+		final MBeanAttributes attributes = mBeans.get(objectName);
+		if (attributes == null) {
+			return null;
+		}
+		return attributes.get(attributeName);
+	}
+
+	private class MBeanAttributes {
+		private final ObjectName objectName;
+		private final Map<String, Integer> names = new HashMap<String, Integer>();
+		private Map<String, Object> values = new HashMap<String, Object>();
+		private boolean loaded;
+		private boolean removed;
+		private long expiresAt;
+
+		private MBeanAttributes(ObjectName objectName) {
+			this.objectName = objectName;
+		}
+
+		/**
+		 * @return {@code false} if this MBean was already removed from the cache
+		 */
+		private synchronized boolean add(String attributeName) {
+			if (removed) {
+				return false;
+			}
+			final Integer count = names.get(attributeName);
+			names.put(attributeName, count == null ? 1 : count + 1);
+			if (count == null) {
+				// fetch the new attribute with the others on the next read
+				loaded = false;
+			}
+			return true;
+		}
+
+		/**
+		 * @return {@code true} if no attribute is left and the MBean should be removed
+		 */
+		private synchronized boolean release(String attributeName) {
+			final Integer count = names.get(attributeName);
+			if (count == null) {
+				return false;
+			}
+			if (count > 1) {
+				names.put(attributeName, count - 1);
+			} else {
+				names.remove(attributeName);
+				values.remove(attributeName);
+			}
+			removed = names.isEmpty();
+			return removed;
+		}
+
+		private synchronized Object get(String attributeName) {
+			final long now = clock.getTick();
+			if (!loaded || now - expiresAt >= 0) {
+				load(now);
+			}
+			return values.get(attributeName);
+		}
+
+		private void load(long now) {
+			loaded = true;
+			try {
+				final AttributeList list = mBeanServer.getAttributes(objectName, names.keySet().toArray(new String[0]));
+				final Map<String, Object> fetched = new HashMap<String, Object>();
+				for (Attribute attribute : asAttributes(list)) {
+					fetched.put(attribute.getName(), attribute.getValue());
+				}
+				values = fetched;
+				expiresAt = now + ttlNanos;
+			} catch (Exception e) {
+				logger.debug("reading attributes of {} failed, retrying in {}ms", objectName,
+						TimeUnit.NANOSECONDS.toMillis(failureTtlNanos), e);
+				values = new HashMap<String, Object>();
+				expiresAt = now + failureTtlNanos;
+			}
+		}
+	}
+
+	private static Collection<Attribute> asAttributes(AttributeList list) {
+		if (list == null) {
+			return Collections.emptyList();
+		}
+		return list.asList();
+	}
+}
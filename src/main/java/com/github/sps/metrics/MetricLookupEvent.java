@@ -0,0 +1,34 @@
+package com.github.sps.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for a {@link TaggedMetricRegistry} lookup, either a get-or-create or a search by
+ * tags. Lookups are frequent, the event is disabled unless turned on in the recording settings.
+ */
+@Name("com.github.sps.metrics.MetricLookup")
+@Label("Tagged Metric Lookup")
+@Category({"Metrics", "Registry"})
+@Enabled(false)
+@StackTrace(false)
+final class MetricLookupEvent extends jdk.jfr.Event {
+
+	static final String GET_OR_REGISTER = "getOrRegister";
+	static final String SEARCH = "search";
+
+	@Label("Name")
+	String name;
+
+	@Label("Lookup")
+	String lookup;
+
+	@Label("Found")
+	boolean found;
+
+	@Label("Registered")
+	boolean registered;
+}
@@ -17,11 +17,29 @@ package com.github.sps.metrics;
 
 import com.codahale.metrics.*;
 import com.codahale.metrics.Timer;
+import com.github.sps.metrics.opentsdb.ClientStats;
+import com.github.sps.metrics.opentsdb.ConsistentHashRing;
 import com.github.sps.metrics.opentsdb.OpenTsdb;
+import com.github.sps.metrics.opentsdb.OpenTsdbHistogram;
 import com.github.sps.metrics.opentsdb.OpenTsdbMetric;
+import com.github.sps.metrics.opentsdb.TagSet;
+import com.github.sps.metrics.opentsdb.Throttle;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A reporter which publishes metric values to a OpenTSDB server.
@@ -32,15 +50,182 @@ import java.util.concurrent.TimeUnit;
  */
 public class OpenTsdbReporter extends ScheduledReporter {
 
+    /**
+     * The timer of report build times the reporter registers in the reported registry.
+     *
+     * @deprecated use the {@code report-build-*} gauges of {@link #getStats()}; the timer will no
+     * longer be registered in the next release
+     */
+    @Deprecated
+    public static final String TIME_TO_BUILD_REPORT = "open-tsdb-reporter-time-to-build-report";
+
+    /**
+     * The timer of report send times the reporter registers in the reported registry.
+     *
+     * @deprecated use the {@code report-send-*} gauges of {@link #getStats()}; the timer will no
+     * longer be registered in the next release
+     */
+    @Deprecated
+    public static final String TIME_TO_SEND_REPORT = "open-tsdb-reporter-time-to-send-report";
+
+    public static final long DEFAULT_DRAIN_TIMEOUT_MS = 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenTsdbReporter.class);
+    private static final Object SKIPPED = new Object();
+
+    private final MetricRegistry registry;
     private final OpenTsdb opentsdb;
     private final Clock clock;
     private final String prefix;
-    private final Map<String, String> tags;
-    private final Timer timeToBuildReport;
-    private final Timer timeToSendReport;
+    private final TagSet tags;
+    private final ReporterStats stats = new ReporterStats();
+    private Set<Metric> selfMetrics = Collections.emptySet();
 
     private boolean decorateCounters = true;
     private boolean decorateGauges = true;
+    private boolean alignedSchedule = false;
+    private double jitterFraction = 0;
+    private double[] histogramBounds;
+    private double[] timerBounds;
+    private ExecutorService gaugeExecutor;
+    private long gaugeDeadlineNanos;
+    private GaugeSampler gaugeSampler;
+    private Rollups rollups;
+    private boolean intervalReporting;
+    private final TierState defaultState = new TierState(-1);
+    private List<ReportingTier> tiers = Collections.emptyList();
+    private TierState[] tierStates;
+    private TierIndex tierIndex;
+    // whether the tiers were scheduled and get a final report when the reporter stops
+    private boolean tiersStarted;
+    private CompiledMetricFilter compiledFilter;
+    private final List<AlignedSchedule> alignedSchedules = new ArrayList<AlignedSchedule>();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private ScheduledExecutorService executor;
+    private OverlapPolicy overlapPolicy;
+    private int maxBacklog;
+    private ExecutorService sender;
+    private long drainTimeoutMillis = DEFAULT_DRAIN_TIMEOUT_MS;
+    private final Deque<PendingReport> backlog = new ArrayDeque<PendingReport>();
+    // whether the sender thread is draining the backlog
+    private boolean sending;
+    // set when stop() gave up waiting for the backlog, no catch-up reports are collected after
+    private volatile boolean abandoned;
+
+    /**
+     * What to do when a report is due while the previous one is still being sent, see
+     * {@link Builder#withOverlapPolicy(OverlapPolicy, int)}.
+     */
+    public enum OverlapPolicy {
+        /**
+         * Skip the cycle, the next scheduled report covers it.
+         */
+        SKIP,
+        /**
+         * Skip the cycle and collect one report as soon as the send completes, covering every
+         * cycle skipped meanwhile.
+         */
+        COALESCE,
+        /**
+         * Collect the report and queue it behind the one being sent, up to the maximum backlog.
+         */
+        QUEUE
+    }
+
+    /**
+     * The schedule of the series reported together, what their next report needs from the
+     * previous one, and whether their previous report is still being sent.
+     */
+    private static final class TierState {
+        // the index of the tier, -1 for the series of no tier
+        private final int tier;
+        private volatile long periodMillis;
+        private volatile long jitterOffsetMillis;
+        private Map<String, Long> lastCounts = new HashMap<String, Long>();
+        private Map<Metric, TagSet> seriesTags = new IdentityHashMap<Metric, TagSet>();
+        // guarded by the backlog: reports of this tier queued or being sent, and whether cycles
+        // were coalesced meanwhile
+        private int inFlight;
+        private boolean catchUp;
+
+        private TierState(int tier) {
+            this.tier = tier;
+        }
+    }
+
+    /**
+     * Runs the reports of a tier at every period boundary plus its jitter offset. Each run is
+     * scheduled from the boundary of the previous one, not from when it finished, so the time a
+     * report takes doesn't add up into a drift of the phase.
+     */
+    private final class AlignedSchedule implements Runnable {
+        private final TierState state;
+        private long nextRunMillis;
+        private ScheduledFuture<?> future;
+        private boolean cancelled;
+
+        private AlignedSchedule(TierState state) {
+            this.state = state;
+        }
+
+        private synchronized void start() {
+            final long now = clock.getTime();
+            nextRunMillis = now + getAlignedInitialDelayMillis(now, state.periodMillis, state.jitterOffsetMillis);
+            future = executor.schedule(this, nextRunMillis - now, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (state.tier < 0) {
+                    report();
+                } else {
+                    reportTier(state.tier);
+                }
+            } catch (Throwable t) {
+                logger.error("Exception thrown from {}#report. Exception was suppressed.", OpenTsdbReporter.class.getSimpleName(), t);
+            }
+            scheduleNext();
+        }
+
+        private synchronized void scheduleNext() {
+            if (cancelled) {
+                return;
+            }
+            final long now = clock.getTime();
+            nextRunMillis += state.periodMillis;
+            if (nextRunMillis <= now) {
+                // the report took more than a period, resume at the next boundary
+                nextRunMillis = now + getAlignedInitialDelayMillis(now, state.periodMillis, state.jitterOffsetMillis);
+            }
+            try {
+                future = executor.schedule(this, nextRunMillis - now, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // the reporter is stopping
+            }
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * The points of one report, built and waiting to be sent.
+     */
+    private static final class PendingReport {
+        private final Set<OpenTsdbMetric> points;
+        private final Set<OpenTsdbHistogram> histograms;
+        private TierState state;
+
+        private PendingReport(Set<OpenTsdbMetric> points, Set<OpenTsdbHistogram> histograms) {
+            this.points = points;
+            this.histograms = histograms;
+        }
+    }
 
     /**
      * Returns a new {@link Builder} for {@link OpenTsdbReporter}.
@@ -68,6 +253,22 @@ public class OpenTsdbReporter extends ScheduledReporter {
         private int batchSize;
         private boolean decorateCounters;
         private boolean decorateGauges;
+        private boolean alignedSchedule;
+        private double jitterFraction;
+        private double[] histogramBounds;
+        private double[] timerBounds;
+        private ExecutorService gaugeExecutor;
+        private long gaugeDeadlineNanos;
+        private GaugeSampler gaugeSampler;
+        private final List<RollupRule> rollupRules = new ArrayList<RollupRule>();
+        private boolean intervalReporting;
+        private boolean selfMetricsReported;
+        private boolean legacyTimers = true;
+        private OverlapPolicy overlapPolicy;
+        private int maxBacklog;
+        private long drainTimeoutMillis = DEFAULT_DRAIN_TIMEOUT_MS;
+        private final List<ReportingTier> tiers = new ArrayList<ReportingTier>();
+        private ScheduledExecutorService executor;
 
         private Builder(MetricRegistry registry) {
             this.registry = registry;
@@ -126,7 +327,9 @@ public class OpenTsdbReporter extends ScheduledReporter {
         }
 
         /**
-         * Only report metrics which match the given filter.
+         * Only report metrics which match the given filter. A {@link CompiledMetricFilter} is
+         * registered as a listener of the registry until the reporter stops, so its decisions are
+         * made once per metric. It can't be shared with reporters of another registry.
          *
          * @param filter a {@link MetricFilter}
          * @return {@code this}
@@ -171,6 +374,196 @@ public class OpenTsdbReporter extends ScheduledReporter {
             return this;
         }
 
+        /**
+         * Align point timestamps to multiples of the reporting period, so points from different
+         * hosts line up for aggregation. Reports run at every period boundary plus a
+         * deterministic per-host offset, derived from a hash of the prefix and the tags given to
+         * {@link #withTags(Map)}, of up to {@code jitterFraction} of the period. Hosts with
+         * different tags therefore spread their writes over the interval instead of all sending
+         * in the same second. The time a report takes doesn't shift the next one.
+         *
+         * The initial delay passed to {@code start} is ignored in this mode.
+         *
+         * @param jitterFraction the share of the period to spread reports over, from 0 to 1
+         * @return {@code this}
+         */
+        public Builder withAlignedSchedule(double jitterFraction) {
+            if (jitterFraction < 0 || jitterFraction >= 1) {
+                throw new IllegalArgumentException("jitterFraction must be in [0, 1)");
+            }
+            this.alignedSchedule = true;
+            this.jitterFraction = jitterFraction;
+            return this;
+        }
+
+        /**
+         * Send histogram and timer distributions as bucketed histograms to the OpenTSDB 2.4
+         * {@code /api/histogram} endpoint instead of as separate min/max/mean/percentile series.
+         * Histograms sent this way can be merged across hosts at query time. Histograms report
+         * their {@code count} and timers their {@code count} and rates as regular series alongside.
+         *
+         * Buckets are filled from the values of the metric's snapshot, i.e. its reservoir sample.
+         * Clients which don't support histograms, such as the telnet client, keep the flattened series.
+         *
+         * @param histogramBounds ascending bucket bounds for histogram values
+         * @param timerBounds     ascending bucket bounds for timer durations, in the duration unit
+         * @return {@code this}
+         * @see OpenTsdbHistogram#exponentialBounds(double, double, int)
+         */
+        public Builder withNativeHistograms(double[] histogramBounds, double[] timerBounds) {
+            if (histogramBounds == null || timerBounds == null) {
+                throw new IllegalArgumentException("bucket bounds are required for histograms and timers");
+            }
+            this.histogramBounds = histogramBounds;
+            this.timerBounds = timerBounds;
+            return this;
+        }
+
+        /**
+         * Evaluate gauges concurrently on {@code executor}, e.g. a bounded pool or
+         * {@code Executors.newVirtualThreadPerTaskExecutor()}, instead of one after another on the
+         * reporter thread. Gauges which have not returned within {@code deadline} of the start of
+         * the report, or which throw, are left out of the report and counted, see
+         * {@link OpenTsdbReporter#getSkippedGaugeCount()}.
+         *
+         * @param executor the executor evaluating the gauges, not shut down by the reporter
+         * @param deadline the time all gauges of one report have to finish in
+         * @param unit     the unit of {@code deadline}
+         * @return {@code this}
+         */
+        public Builder withParallelGauges(ExecutorService executor, long deadline, TimeUnit unit) {
+            this.gaugeExecutor = executor;
+            this.gaugeDeadlineNanos = unit.toNanos(deadline);
+            return this;
+        }
+
+        /**
+         * Report the gauges sampled by {@code sampler} as {@code .min}, {@code .max}, {@code .avg}
+         * and {@code .last} of the samples taken since the previous report, instead of their
+         * current value. The sampler has to be started separately.
+         *
+         * @param sampler a {@link GaugeSampler} on the reported registry
+         * @return {@code this}
+         */
+        public Builder withGaugeSampler(GaugeSampler sampler) {
+            this.gaugeSampler = sampler;
+            return this;
+        }
+
+        /**
+         * Aggregate series over some of their tags before sending, see {@link RollupRule}.
+         *
+         * @param rules the rollup rules
+         * @return {@code this}
+         */
+        public Builder withRollups(RollupRule... rules) {
+            this.rollupRules.addAll(Arrays.asList(rules));
+            return this;
+        }
+
+        /**
+         * Report what happened during each interval instead of since start. Counters are sent as
+         * the change since the previous report; {@link TaggedIntervalCounter}s are reset at each
+         * report, other counters are diffed against their previous count. Histograms and their
+         * {@code count} cover exactly the last interval if they are {@link TaggedIntervalHistogram}s;
+         * other histograms send the change of their count and their regular snapshot. Meters and
+         * timers send the change of their {@code count}; their rates are the meter's own.
+         *
+         * @return {@code this}
+         */
+        public Builder withIntervalReporting() {
+            this.intervalReporting = true;
+            return this;
+        }
+
+        /**
+         * Report some series at their own intervals. Each tier is scheduled on the reporter thread
+         * when the reporter starts and reads only its own series, indexed as they are registered;
+         * the series matching no tier are reported at the period the reporter is started with. All
+         * tiers share the client and its connections.
+         *
+         * @param tiers the tiers, a series belongs to the first one it matches
+         * @return {@code this}
+         */
+        public Builder withTiers(ReportingTier... tiers) {
+            this.tiers.addAll(Arrays.asList(tiers));
+            return this;
+        }
+
+        /**
+         * Runs the reports on {@code executor} instead of a thread of the reporter's own. It is
+         * shut down when the reporter stops.
+         */
+        Builder scheduleOn(ScheduledExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Send reports from a separate thread, so a slow TSD doesn't hold up collection, and decide
+         * what happens to a report due while the previous one of the same tier is still queued or
+         * being sent. Overruns are counted in {@link OpenTsdbReporter#getStats()}. Without this, each
+         * report is sent on the reporter thread and the next one waits for it.
+         *
+         * @param overlapPolicy skip, coalesce or queue overlapping reports
+         * @param maxBacklog    the most reports queued behind the one being sent with
+         *                      {@link OverlapPolicy#QUEUE}, the oldest is dropped beyond it
+         * @return {@code this}
+         */
+        public Builder withOverlapPolicy(OverlapPolicy overlapPolicy, int maxBacklog) {
+            if (maxBacklog < 1) {
+                throw new IllegalArgumentException("maxBacklog must be positive");
+            }
+            this.overlapPolicy = overlapPolicy;
+            this.maxBacklog = maxBacklog;
+            return this;
+        }
+
+        /**
+         * How long {@link OpenTsdbReporter#stop()} waits for the reports queued with
+         * {@link #withOverlapPolicy(OverlapPolicy, int)} to be sent. Reports still queued after
+         * that are counted as dropped in {@link OpenTsdbReporter#getStats()}, and the report being
+         * sent is interrupted. Defaults to one second.
+         *
+         * @param timeout the time to wait, {@code 0} to not wait
+         * @param unit    the unit of {@code timeout}
+         * @return {@code this}
+         */
+        public Builder withDrainTimeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout must not be negative");
+            }
+            this.drainTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Whether to report the gauges of {@link OpenTsdbReporter#getStats()} and of the stats and
+         * throttle of the client when they are registered in the reported registry. By default they
+         * are left out, so they don't inflate the reports they measure; registering them in a
+         * separate registry keeps them out as well.
+         *
+         * @param selfMetricsReported {@code true} to report them like any other gauge
+         * @return {@code this}
+         */
+        public Builder withSelfMetricsReported(boolean selfMetricsReported) {
+            this.selfMetricsReported = selfMetricsReported;
+            return this;
+        }
+
+        /**
+         * Whether to register the deprecated {@link OpenTsdbReporter#TIME_TO_BUILD_REPORT} and
+         * {@link OpenTsdbReporter#TIME_TO_SEND_REPORT} timers in the reported registry, fed from
+         * {@link OpenTsdbReporter#getStats()}. They are registered by default for this release.
+         *
+         * @param legacyTimers {@code false} to leave them out
+         * @return {@code this}
+         */
+        public Builder withLegacyTimers(boolean legacyTimers) {
+            this.legacyTimers = legacyTimers;
+            return this;
+        }
+
         /**
          * Builds a {@link OpenTsdbReporter} with the given properties, sending metrics using the
          * given {@link com.github.sps.metrics.opentsdb.OpenTsdb} client.
@@ -180,20 +573,74 @@ public class OpenTsdbReporter extends ScheduledReporter {
          */
         public OpenTsdbReporter build(OpenTsdb opentsdb) {
             opentsdb.setBatchSizeLimit(batchSize);
-            return new OpenTsdbReporter(registry,
+            final OpenTsdbReporter reporter = new OpenTsdbReporter(registry,
                     opentsdb,
                     clock,
                     prefix,
                     rateUnit,
                     durationUnit,
-                    filter, tags, decorateCounters, decorateGauges);
+                    filter, tags, decorateCounters, decorateGauges,
+                    executor != null ? executor : newExecutor());
+            reporter.alignedSchedule = alignedSchedule;
+            reporter.jitterFraction = jitterFraction;
+            reporter.histogramBounds = histogramBounds;
+            reporter.timerBounds = timerBounds;
+            reporter.gaugeExecutor = gaugeExecutor;
+            reporter.gaugeDeadlineNanos = gaugeDeadlineNanos;
+            reporter.gaugeSampler = gaugeSampler;
+            reporter.rollups = rollupRules.isEmpty() ? null : new Rollups(rollupRules);
+            reporter.intervalReporting = intervalReporting;
+            if (overlapPolicy != null) {
+                reporter.overlapPolicy = overlapPolicy;
+                reporter.maxBacklog = maxBacklog;
+                reporter.drainTimeoutMillis = drainTimeoutMillis;
+                reporter.sender = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "opentsdb-reporter-sender");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            if (filter instanceof CompiledMetricFilter) {
+                reporter.compiledFilter = (CompiledMetricFilter) filter;
+                reporter.compiledFilter.attach(registry);
+            }
+            if (!tiers.isEmpty()) {
+                reporter.tiers = new ArrayList<ReportingTier>(tiers);
+                reporter.tierStates = new TierState[tiers.size()];
+                for (int i = 0; i < tiers.size(); i++) {
+                    reporter.tierStates[i] = new TierState(i);
+                }
+                reporter.tierIndex = new TierIndex(filter, reporter.tiers);
+                registry.addListener(reporter.tierIndex);
+            }
+            if (legacyTimers) {
+                reporter.stats.feedTimers(registry.timer(TIME_TO_BUILD_REPORT), registry.timer(TIME_TO_SEND_REPORT));
+            }
+            if (!selfMetricsReported) {
+                final Set<Metric> selfMetrics = Collections.newSetFromMap(new IdentityHashMap<Metric, Boolean>());
+                selfMetrics.addAll(reporter.stats.getMetrics().values());
+                // subclasses and mocks of the client may have neither
+                final ClientStats clientStats = opentsdb.getStats();
+                if (clientStats != null) {
+                    selfMetrics.addAll(clientStats.getMetrics().values());
+                }
+                final Throttle throttle = opentsdb.getThrottle();
+                if (throttle != null) {
+                    selfMetrics.addAll(throttle.getMetrics().values());
+                }
+                reporter.selfMetrics = selfMetrics;
+            }
+            return reporter;
         }
     }
 
     private static class MetricsCollector {
         private final String prefix;
         private final Map<String, String> tags;
-        private final long timestamp;
+        private final Long timestamp;
         private final Set<OpenTsdbMetric> metrics = new HashSet<OpenTsdbMetric>();
 
         private MetricsCollector(String prefix, Map<String, String> tags, long timestamp) {
@@ -206,119 +653,648 @@ public class OpenTsdbReporter extends ScheduledReporter {
             return new MetricsCollector(prefix, tags, timestamp);
         }
 
-        public MetricsCollector addMetric(String metricName, Object value) {
-            this.metrics.add(OpenTsdbMetric.named(MetricRegistry.name(prefix, metricName))
-                    .withTimestamp(timestamp)
-                    .withValue(value)
-                    .withTags(tags).build());
+        public MetricsCollector addMetric(String metricName, long value) {
+            this.metrics.add(named(metricName).withValue(value).build());
             return this;
         }
 
+        public MetricsCollector addMetric(String metricName, double value) {
+            this.metrics.add(named(metricName).withValue(value).build());
+            return this;
+        }
+
+        private OpenTsdbMetric.Builder named(String metricName) {
+            return OpenTsdbMetric.named(MetricRegistry.name(prefix, metricName))
+                    .withTimestamp(timestamp)
+                    .withTags(tags);
+        }
+
         public Set<OpenTsdbMetric> build() {
             return metrics;
         }
     }
 
-    private OpenTsdbReporter(MetricRegistry registry, OpenTsdb opentsdb, Clock clock, String prefix, TimeUnit rateUnit, TimeUnit durationUnit, MetricFilter filter, Map<String, String> tags, boolean decorateCounters, boolean decorateGauges) {
-        super(registry, "opentsdb-reporter", filter, rateUnit, durationUnit);
+    private static ScheduledExecutorService newExecutor() {
+        return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "opentsdb-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private OpenTsdbReporter(MetricRegistry registry, OpenTsdb opentsdb, Clock clock, String prefix, TimeUnit rateUnit, TimeUnit durationUnit, MetricFilter filter, Map<String, String> tags, boolean decorateCounters, boolean decorateGauges, ScheduledExecutorService executor) {
+        super(registry, "opentsdb-reporter", filter, rateUnit, durationUnit, executor, true);
+        this.registry = registry;
+        this.executor = executor;
         this.opentsdb = opentsdb;
         this.clock = clock;
         this.prefix = prefix;
-        this.tags = tags;
-        this.timeToSendReport = registry.timer("open-tsdb-reporter-time-to-send-report");
-        this.timeToBuildReport = registry.timer("open-tsdb-reporter-time-to-build-report");
+        this.tags = TagSet.of(tags);
         this.decorateCounters = decorateCounters;
         this.decorateGauges = decorateGauges;
     }
 
+    /**
+     * Starts the reporter. With {@link Builder#withAlignedSchedule(double)} the first report runs
+     * at the next period boundary plus this host's jitter offset, {@code initialDelay} is ignored.
+     * {@link Builder#withTiers(ReportingTier...) Tiers} start along with it.
+     */
+    @Override
+    public synchronized void start(long initialDelay, long period, TimeUnit unit) {
+        if (!alignedSchedule) {
+            super.start(initialDelay, period, unit);
+        } else {
+            if (!alignedSchedules.isEmpty()) {
+                throw new IllegalArgumentException("Reporter already started");
+            }
+            final long periodMs = unit.toMillis(period);
+            defaultState.jitterOffsetMillis = getJitterOffsetMillis(periodMs);
+            defaultState.periodMillis = periodMs;
+            startAligned(defaultState);
+        }
+        for (int i = 0; i < tiers.size(); i++) {
+            startTier(i, unit.toMillis(initialDelay));
+        }
+        tiersStarted = !tiers.isEmpty();
+    }
+
+    private void startTier(final int index, long initialDelayMs) {
+        final TierState state = tierStates[index];
+        final long periodMs = tiers.get(index).getPeriodMillis();
+        // a tier doesn't wait longer than its own period for its first report
+        long delayMs = Math.min(initialDelayMs, periodMs);
+        if (alignedSchedule) {
+            state.jitterOffsetMillis = getJitterOffsetMillis(periodMs);
+            state.periodMillis = periodMs;
+            startAligned(state);
+            return;
+        }
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reportTier(index);
+                } catch (Throwable t) {
+                    logger.error("Exception thrown from {}#report. Exception was suppressed.", OpenTsdbReporter.class.getSimpleName(), t);
+                }
+            }
+        }, delayMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void startAligned(TierState state) {
+        final AlignedSchedule schedule = new AlignedSchedule(state);
+        alignedSchedules.add(schedule);
+        schedule.start();
+    }
+
+    /**
+     * Reports the series of the tier at {@code index}.
+     */
+    void reportTier(int index) {
+        final TierIndex.Bucket bucket = tierIndex.getBucket(index);
+        synchronized (this) {
+            report(bucket.gauges, bucket.counters, bucket.histograms, bucket.meters, bucket.timers, tierStates[index], false);
+        }
+    }
+
+    /**
+     * Reports the series matching no {@link Builder#withTiers(ReportingTier...) tier}, or the whole
+     * registry without tiers.
+     */
+    @Override
+    public void report() {
+        if (tierIndex == null) {
+            super.report();
+            return;
+        }
+        final TierIndex.Bucket bucket = tierIndex.getDefaultBucket();
+        synchronized (this) {
+            report(bucket.gauges, bucket.counters, bucket.histograms, bucket.meters, bucket.timers);
+        }
+    }
+
+    long getAlignedInitialDelayMillis(long now, long periodMs) {
+        return getAlignedInitialDelayMillis(now, periodMs, defaultState.jitterOffsetMillis);
+    }
+
+    private static long getAlignedInitialDelayMillis(long now, long periodMs, long jitterOffsetMillis) {
+        final long nextBoundary = (now / periodMs + 1) * periodMs;
+        long delay = nextBoundary + jitterOffsetMillis - now;
+        if (delay > periodMs) {
+            delay -= periodMs;
+        }
+        return delay;
+    }
+
+    long getJitterOffsetMillis(long periodMs) {
+        final long window = (long) (periodMs * jitterFraction);
+        if (window <= 0) {
+            return 0;
+        }
+        final StringBuilder key = new StringBuilder(prefix);
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            key.append(' ').append(tag.getKey()).append('=').append(tag.getValue());
+        }
+        return Math.floorMod(ConsistentHashRing.hash(key), window);
+    }
+
+    /**
+     * @return the timestamp, in seconds, of the points of a report running now
+     */
+    private long getReportTimestamp(TierState state) {
+        final long now = clock.getTime();
+        final long periodMs = state.periodMillis;
+        if (periodMs <= 0) {
+            return now / 1000;
+        }
+        // a report runs at boundary + jitter, give or take scheduling delay; round to that boundary
+        final long shifted = now - state.jitterOffsetMillis;
+        return Math.round((double) shifted / periodMs) * periodMs / 1000;
+    }
+
     @Override
     public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters, SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers) {
-    	final Timer.Context context = timeToBuildReport.time();
-        final long timestamp = clock.getTime() / 1000;
+        report(gauges, counters, histograms, meters, timers, defaultState, true);
+    }
+
+    private void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters, SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers,
+                        TierState state, boolean drainSamples) {
+        if (overlapPolicy != null && !startCycle(state)) {
+            return;
+        }
+        final ReportEvent event = new ReportEvent();
+        event.begin();
+        try {
+            final PendingReport report = build(gauges, counters, histograms, meters, timers, state, drainSamples, event);
+            if (overlapPolicy == null) {
+                send(report);
+            } else {
+                report.state = state;
+                dispatch(report);
+            }
+            event.success = true;
+        } catch (RuntimeException e) {
+            stats.recordFailure();
+            throw e;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.series = gauges.size() + counters.size() + histograms.size() + meters.size() + timers.size();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} to collect now, {@code false} if the cycle is skipped or coalesced
+     * because the previous report of the same tier is still queued or being sent
+     */
+    private boolean startCycle(TierState state) {
+        synchronized (backlog) {
+            if (state.inFlight == 0) {
+                return true;
+            }
+            stats.recordOverrun();
+            switch (overlapPolicy) {
+                case SKIP:
+                    stats.recordSkippedReport();
+                    return false;
+                case COALESCE:
+                    state.catchUp = true;
+                    stats.recordCoalescedReport();
+                    return false;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * Queues a report for the sender thread, dropping the oldest queued report if the backlog is full.
+     */
+    private void dispatch(PendingReport report) {
+        synchronized (backlog) {
+            if (backlog.size() >= maxBacklog) {
+                backlog.pollFirst().state.inFlight--;
+                stats.recordDroppedReport();
+            }
+            report.state.inFlight++;
+            backlog.addLast(report);
+            stats.setQueueDepth(backlog.size());
+            if (sending) {
+                return;
+            }
+            sending = true;
+        }
+        sender.execute(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        });
+    }
+
+    private void drain() {
+        while (true) {
+            final PendingReport next;
+            synchronized (backlog) {
+                next = backlog.pollFirst();
+                stats.setQueueDepth(backlog.size());
+                if (next == null) {
+                    sending = false;
+                    return;
+                }
+            }
+            try {
+                send(next);
+            } catch (RuntimeException e) {
+                stats.recordFailure();
+                logger.warn("Error sending report to opentsdb", e);
+            }
+            final TierState state = next.state;
+            final boolean collect;
+            synchronized (backlog) {
+                state.inFlight--;
+                collect = state.inFlight == 0 && state.catchUp;
+                if (collect) {
+                    state.catchUp = false;
+                }
+            }
+            if (collect && !abandoned) {
+                catchUp(state);
+            }
+        }
+    }
+
+    /**
+     * Collects one report of the tier of {@code state} covering the cycles it coalesced while its
+     * previous report was sent. The report is queued behind the backlog being drained.
+     */
+    private void catchUp(TierState state) {
+        try {
+            if (state.tier < 0) {
+                report();
+            } else {
+                reportTier(state.tier);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Error collecting catch-up report", e);
+        }
+    }
+
+    /**
+     * @param drainSamples whether the {@link GaugeSampler} summaries are taken by this report,
+     *                     reports of other tiers evaluate their gauges directly
+     */
+    private PendingReport build(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters, SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers,
+                                TierState state, boolean drainSamples, ReportEvent event) {
+        final long buildStart = System.nanoTime();
+        ReportPhaseEvent phase = ReportPhaseEvent.start(ReportPhaseEvent.GAUGES);
+        final long timestamp = getReportTimestamp(state);
 
         final Set<OpenTsdbMetric> metrics = new HashSet<OpenTsdbMetric>();
+        final Map<Metric, TagSet> previousSeriesTags = state.seriesTags;
+        final Map<Metric, TagSet> currentSeriesTags = new IdentityHashMap<Metric, TagSet>(previousSeriesTags.size());
+        final Set<OpenTsdbHistogram> distributions = new HashSet<OpenTsdbHistogram>();
+        final boolean nativeHistograms = histogramBounds != null && opentsdb.supportsHistograms();
         
+        final Map<String, GaugeSampler.Summary> samples = gaugeSampler == null || !drainSamples
+                ? Collections.<String, GaugeSampler.Summary>emptyMap() : gaugeSampler.drain();
+        final List<Gauge> unsampled = new ArrayList<Gauge>(gauges.size());
         for (Map.Entry<String, Gauge> g : gauges.entrySet()) {
-            if(g.getValue().getValue() instanceof Collection && ((Collection)g.getValue().getValue()).isEmpty()) {
+            if (!samples.containsKey(g.getKey()) && !selfMetrics.contains(g.getValue())) {
+                unsampled.add(g.getValue());
+            }
+        }
+        final Object[] gaugeValues = getGaugeValues(unsampled);
+        int gaugeIndex = 0;
+        for (Map.Entry<String, Gauge> g : gauges.entrySet()) {
+            GaugeSampler.Summary summary = samples.get(g.getKey());
+            if (summary == null && selfMetrics.contains(g.getValue())) {
+                continue;
+            }
+            final Object value = summary == null ? gaugeValues[gaugeIndex++] : summary;
+            if (value == SKIPPED || (value instanceof Collection && ((Collection) value).isEmpty())) {
                 continue;
             }
+            if (summary == null && drainSamples && gaugeSampler != null && value instanceof Number
+                    && gaugeSampler.isSampled(g.getKey(), g.getValue())) {
+                // no samples this interval, keep the series shape of a sampled gauge
+                summary = GaugeSampler.Summary.of(((Number) value).doubleValue());
+            }
             
-            Map<String, String> tagsToUse = new HashMap<String, String>(tags);
+            final TagSet tagsToUse = getSeriesTags(g.getValue(), previousSeriesTags, currentSeriesTags);
             String key = g.getKey();
         	if(g.getValue() instanceof TaggedMetric ) {
         		key = TaggedMetricRegistry.getBaseName(key);
-        		Map<String, String> objectTags = ((TaggedMetric) g.getValue()).getTags();
-        		if(objectTags != null) {
-        			tagsToUse.putAll(objectTags);
-        		}
         	}
-            metrics.add(buildGauge(key, g.getValue(), timestamp, tagsToUse));
+            if (summary != null) {
+                metrics.addAll(buildSampledGauge(key, summary, timestamp, tagsToUse));
+            } else {
+                metrics.add(buildGauge(key, value, timestamp, tagsToUse));
+            }
         }
 
+        phase.finish(gauges.size(), metrics.size());
+
+        phase = ReportPhaseEvent.start(ReportPhaseEvent.SNAPSHOT);
+        final Map<String, Long> lastCounts = state.lastCounts;
+        final Map<String, Long> currentCounts = intervalReporting
+                ? new HashMap<String, Long>(lastCounts.size()) : lastCounts;
         for (Map.Entry<String, Counter> entry : counters.entrySet()) {
-        	Map<String, String> tagsToUse = new HashMap<String, String>(tags);
+        	final TagSet tagsToUse = getSeriesTags(entry.getValue(), previousSeriesTags, currentSeriesTags);
         	String key = entry.getKey();
         	if(entry.getValue() instanceof TaggedCounter) {
         		key = TaggedMetricRegistry.getBaseName(key);
-        		Map<String, String> objectTags = ((TaggedCounter) entry.getValue()).getTags();
-        		if(objectTags != null) {
-        			tagsToUse.putAll(objectTags);
-        		}
         	}
-            metrics.add(buildCounter(key, entry.getValue(), timestamp, tagsToUse));
+            final long count = intervalReporting
+                    ? getIntervalCount(entry.getKey(), entry.getValue(), lastCounts, currentCounts)
+                    : entry.getValue().getCount();
+            metrics.add(buildCounter(key, count, timestamp, tagsToUse));
         }
 
         for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
-        	Map<String, String> tagsToUse = new HashMap<String, String>(tags);
+        	final TagSet tagsToUse = getSeriesTags(entry.getValue(), previousSeriesTags, currentSeriesTags);
         	String key = entry.getKey();
         	if(entry.getValue() instanceof TaggedHistogram) {
         		key = TaggedMetricRegistry.getBaseName(key);
-        		Map<String, String> objectTags = ((TaggedHistogram) entry.getValue()).getTags();
-        		if(objectTags != null) {
-        			tagsToUse.putAll(objectTags);
-        		}
         	}
-            metrics.addAll(buildHistograms(key, entry.getValue(), timestamp, tagsToUse));
+            final Histogram histogram = entry.getValue();
+            final long count;
+            final Snapshot snapshot;
+            if (intervalReporting && histogram instanceof TaggedIntervalHistogram) {
+                final IntervalReservoir.IntervalSnapshot interval = ((TaggedIntervalHistogram) histogram).getSnapshotAndReset();
+                count = interval.getCount();
+                snapshot = interval;
+            } else {
+                count = intervalReporting
+                        ? getIntervalCount(entry.getKey(), histogram, lastCounts, currentCounts)
+                        : histogram.getCount();
+                snapshot = histogram.getSnapshot();
+            }
+            if (nativeHistograms) {
+                metrics.add(buildCount(key, count, timestamp, tagsToUse));
+                distributions.add(buildDistribution(key, count, snapshot, false, timestamp, tagsToUse));
+            } else {
+                metrics.addAll(buildHistograms(key, count, snapshot, timestamp, tagsToUse));
+            }
         }
-
         for (Map.Entry<String, Meter> entry : meters.entrySet()) {
-        	Map<String, String> tagsToUse = new HashMap<String, String>(tags);
+        	final TagSet tagsToUse = getSeriesTags(entry.getValue(), previousSeriesTags, currentSeriesTags);
         	String key = entry.getKey();
         	if(entry.getValue() instanceof TaggedMeter) {
         		key = TaggedMetricRegistry.getBaseName(key);
-        		Map<String, String> objectTags = ((TaggedMeter) entry.getValue()).getTags();
-        		if(objectTags != null) {
-        			tagsToUse.putAll(objectTags);
-        		}
         	}
-            metrics.addAll(buildMeters(key, entry.getValue(), timestamp, tagsToUse));
+            final long count = intervalReporting
+                    ? getIntervalCount(entry.getKey(), entry.getValue(), lastCounts, currentCounts)
+                    : entry.getValue().getCount();
+            metrics.addAll(buildMeters(key, count, entry.getValue(), timestamp, tagsToUse));
         }
 
         for (Map.Entry<String, Timer> entry : timers.entrySet()) {
-        	Map<String, String> tagsToUse = new HashMap<String, String>(tags);
+        	final TagSet tagsToUse = getSeriesTags(entry.getValue(), previousSeriesTags, currentSeriesTags);
         	String key = entry.getKey();
         	if(entry.getValue() instanceof TaggedTimer) {
         		key = TaggedMetricRegistry.getBaseName(key);
-        		Map<String, String> objectTags = ((TaggedTimer) entry.getValue()).getTags();
-        		if(objectTags != null) {
-        			tagsToUse.putAll(objectTags);
-        		}
         	}
-            metrics.addAll(buildTimers(key, entry.getValue(), timestamp, tagsToUse));
+            final long count = intervalReporting
+                    ? getIntervalCount(entry.getKey(), entry.getValue(), lastCounts, currentCounts)
+                    : entry.getValue().getCount();
+            if (nativeHistograms) {
+                metrics.addAll(buildMeters(key, count, entry.getValue(), timestamp, tagsToUse));
+                distributions.add(buildDistribution(key, count, entry.getValue().getSnapshot(), true, timestamp, tagsToUse));
+            } else {
+                metrics.addAll(buildTimers(key, count, entry.getValue(), timestamp, tagsToUse));
+            }
         }
-        context.stop();
-        
-        final Timer.Context context2 = timeToSendReport.time();
-        opentsdb.send(metrics);
-        context2.stop();
-        
+        state.lastCounts = currentCounts;
+        state.seriesTags = currentSeriesTags;
+        phase.finish(counters.size() + histograms.size() + meters.size() + timers.size(), metrics.size() + distributions.size());
+
+        final Set<OpenTsdbMetric> toSend;
+        if (rollups == null) {
+            toSend = metrics;
+        } else {
+            phase = ReportPhaseEvent.start(ReportPhaseEvent.ROLLUPS);
+            toSend = rollups.apply(metrics);
+            phase.finish(metrics.size(), toSend.size());
+        }
+        stats.recordBuild(System.nanoTime() - buildStart, toSend.size() + distributions.size());
+        event.points = toSend.size();
+        event.histograms = distributions.size();
+        return new PendingReport(toSend, distributions);
+    }
+
+    private void send(PendingReport report) {
+        final long sendStart = System.nanoTime();
+        final ReportPhaseEvent phase = ReportPhaseEvent.start(ReportPhaseEvent.SEND);
+        opentsdb.send(report.points);
+        if (!report.histograms.isEmpty()) {
+            opentsdb.sendHistograms(report.histograms);
+        }
+        phase.finish(0, report.points.size() + report.histograms.size());
+        stats.recordSend(System.nanoTime() - sendStart);
+    }
+
+    /**
+     * Stops the schedule and, if the reporter was started, reports the series of no tier and each
+     * tier one last time. Stopping again does nothing. Then waits up to the {@link Builder#withDrainTimeout(long, TimeUnit) drain
+     * timeout} for the reports still queued to be sent. The tier index and a
+     * {@link CompiledMetricFilter} stop listening to the registry.
+     */
+    @Override
+    public void stop() {
+        if (!stopped.compareAndSet(false, true)) {
+            // ScheduledReporter would report once more on every call
+            return;
+        }
+        final boolean aligned;
+        final boolean flushTiers;
+        synchronized (this) {
+            aligned = !alignedSchedules.isEmpty();
+            for (AlignedSchedule schedule : alignedSchedules) {
+                schedule.cancel();
+            }
+            alignedSchedules.clear();
+            flushTiers = tiersStarted;
+            tiersStarted = false;
+        }
+        super.stop();
+        if (aligned) {
+            // the aligned schedule bypasses ScheduledReporter, which reports once more when it stops
+            try {
+                report();
+            } catch (RuntimeException e) {
+                logger.warn("Final reporting of metrics failed.", e);
+            }
+        }
+        if (flushTiers) {
+            // like the series of no tier, each tier reports what it collected since its last report
+            for (int i = 0; i < tiers.size(); i++) {
+                try {
+                    reportTier(i);
+                } catch (RuntimeException e) {
+                    logger.warn("Final reporting of tier {} failed.", i, e);
+                }
+            }
+        }
+        if (tierIndex != null) {
+            registry.removeListener(tierIndex);
+        }
+        if (compiledFilter != null) {
+            compiledFilter.detach(registry);
+        }
+        if (sender != null) {
+            sender.shutdown();
+            try {
+                if (!sender.awaitTermination(drainTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    abandonBacklog();
+                }
+            } catch (InterruptedException e) {
+                abandonBacklog();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Drops the reports still queued when the reporter stops, counting them, and interrupts the
+     * one being sent.
+     */
+    private void abandonBacklog() {
+        abandoned = true;
+        final int dropped;
+        synchronized (backlog) {
+            dropped = backlog.size();
+            for (PendingReport report : backlog) {
+                report.state.inFlight--;
+                stats.recordDroppedReport();
+            }
+            backlog.clear();
+            stats.setQueueDepth(0);
+        }
+        if (dropped > 0) {
+            logger.warn("Dropped {} reports not sent to opentsdb before stopping", dropped);
+        }
+        sender.shutdownNow();
+    }
+
+    /**
+     * @return the reporter tags merged with the tags of {@code metric}, computed once per series as
+     * the tags of a registered metric don't change
+     */
+    private TagSet getSeriesTags(Metric metric, Map<Metric, TagSet> previousSeriesTags, Map<Metric, TagSet> currentSeriesTags) {
+        if (!(metric instanceof TaggedMetric)) {
+            return tags;
+        }
+        TagSet merged = previousSeriesTags.get(metric);
+        if (merged == null) {
+            merged = tags.with(((TaggedMetric) metric).getTags());
+        }
+        currentSeriesTags.put(metric, merged);
+        return merged;
+    }
+
+    /**
+     * @return the count since the previous report, the full count the first time a metric is seen
+     */
+    private long getIntervalCount(String name, Counting counting, Map<String, Long> lastCounts, Map<String, Long> currentCounts) {
+        if (counting instanceof TaggedIntervalCounter) {
+            return ((TaggedIntervalCounter) counting).getCountAndReset();
+        }
+        final long count = counting.getCount();
+        currentCounts.put(name, count);
+        final Long last = lastCounts.get(name);
+        return last == null ? count : count - last;
+    }
+
+    /**
+     * Evaluates every gauge exactly once, on the reporter thread or on the gauge executor.
+     *
+     * @return the gauge values in iteration order, {@code SKIPPED} for gauges that missed the deadline or failed
+     */
+    private Object[] getGaugeValues(Collection<Gauge> gauges) {
+        final Object[] values = new Object[gauges.size()];
+        if (gaugeExecutor == null) {
+            int i = 0;
+            for (Gauge gauge : gauges) {
+                try {
+                    values[i] = gauge.getValue();
+                } catch (RuntimeException e) {
+                    logger.debug("gauge evaluation failed", e);
+                    values[i] = SKIPPED;
+                    stats.recordSkippedGauges(1);
+                }
+                i++;
+            }
+            return values;
+        }
+
+        final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(gauges.size());
+        for (final Gauge gauge : gauges) {
+            tasks.add(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return gauge.getValue();
+                }
+            });
+        }
+        final List<Future<Object>> futures;
+        try {
+            // cancels the gauges still running at the deadline
+            futures = gaugeExecutor.invokeAll(tasks, gaugeDeadlineNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Arrays.fill(values, SKIPPED);
+            stats.recordSkippedGauges(values.length);
+            return values;
+        }
+        for (int i = 0; i < values.length; i++) {
+            final Future<Object> future = futures.get(i);
+            if (future.isCancelled()) {
+                values[i] = SKIPPED;
+                stats.recordSkippedGauges(1);
+                continue;
+            }
+            try {
+                values[i] = future.get();
+            } catch (ExecutionException e) {
+                logger.debug("gauge evaluation failed", e.getCause());
+                values[i] = SKIPPED;
+                stats.recordSkippedGauges(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                values[i] = SKIPPED;
+                stats.recordSkippedGauges(1);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the number of gauges left out of reports because they missed the deadline or failed,
+     * see {@link Builder#withParallelGauges(ExecutorService, long, TimeUnit)}
+     */
+    public long getSkippedGaugeCount() {
+        return stats.getGaugesSkipped();
+    }
+
+    /**
+     * @return the {@link ReporterStats} of this reporter, for the stats of the transport see
+     * {@link OpenTsdb#getStats()}
+     */
+    public ReporterStats getStats() {
+        return stats;
     }
 
-    private Set<OpenTsdbMetric> buildTimers(String name, Timer timer, long timestamp, Map<String, String> tags) {
+    private Set<OpenTsdbMetric> buildTimers(String name, long count, Timer timer, long timestamp, Map<String, String> tags) {
         final MetricsCollector collector = MetricsCollector.createNew(prefix(name), tags, timestamp);
         final Snapshot snapshot = timer.getSnapshot();
 
-        return collector.addMetric("count", timer.getCount())
+        return collector.addMetric("count", count)
                 //convert rate
                 .addMetric("m15", convertRate(timer.getFifteenMinuteRate()))
                 .addMetric("m5", convertRate(timer.getFiveMinuteRate()))
@@ -338,12 +1314,11 @@ public class OpenTsdbReporter extends ScheduledReporter {
                 .build();
     }
 
-    private Set<OpenTsdbMetric> buildHistograms(String name, Histogram histogram, long timestamp, Map<String, String> tags) {
+    private Set<OpenTsdbMetric> buildHistograms(String name, long count, Snapshot snapshot, long timestamp, Map<String, String> tags) {
 
         final MetricsCollector collector = MetricsCollector.createNew(prefix(name), tags, timestamp);
-        final Snapshot snapshot = histogram.getSnapshot();
 
-        return collector.addMetric("count", histogram.getCount())
+        return collector.addMetric("count", count)
                 .addMetric("max", snapshot.getMax())
                 .addMetric("min", snapshot.getMin())
                 .addMetric("mean", snapshot.getMean())
@@ -357,11 +1332,32 @@ public class OpenTsdbReporter extends ScheduledReporter {
                 .build();
     }
 
-    private Set<OpenTsdbMetric> buildMeters(String name, Meter meter, long timestamp, Map<String, String> tags) {
+    private OpenTsdbMetric buildCount(String name, long count, long timestamp, Map<String, String> tags) {
+        return OpenTsdbMetric.named(prefix(name, "count"))
+                .withTimestamp(timestamp)
+                .withValue(count)
+                .withTags(tags)
+                .build();
+    }
+
+    private OpenTsdbHistogram buildDistribution(String name, long count, Snapshot snapshot, boolean durations, long timestamp, Map<String, String> tags) {
+        final long[] values = snapshot.getValues();
+        final double[] converted = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            converted[i] = durations ? convertDuration(values[i]) : values[i];
+        }
+        return OpenTsdbHistogram.named(prefix(name))
+                .withTimestamp(timestamp)
+                .withTags(tags)
+                .withValues(durations ? timerBounds : histogramBounds, converted, count)
+                .build();
+    }
+
+    private Set<OpenTsdbMetric> buildMeters(String name, long count, Metered meter, long timestamp, Map<String, String> tags) {
 
         final MetricsCollector collector = MetricsCollector.createNew(prefix(name), tags, timestamp);
 
-        return collector.addMetric("count", meter.getCount())
+        return collector.addMetric("count", count)
                 // convert rate
                 .addMetric("mean_rate", convertRate(meter.getMeanRate()))
                 .addMetric("m1", convertRate(meter.getOneMinuteRate()))
@@ -370,22 +1366,31 @@ public class OpenTsdbReporter extends ScheduledReporter {
                 .build();
     }
 
-    private OpenTsdbMetric buildCounter(String name, Counter counter, long timestamp, Map<String, String> tags) {
+    private OpenTsdbMetric buildCounter(String name, long count, long timestamp, Map<String, String> tags) {
         return OpenTsdbMetric.named(decorateCounters ? prefix(name, "count") : prefix(name))
                 .withTimestamp(timestamp)
-                .withValue(counter.getCount())
+                .withValue(count)
                 .withTags(tags)
                 .build();
     }
 
-    private OpenTsdbMetric buildGauge(String name, Gauge gauge, long timestamp, Map<String, String> tags) {
+    private OpenTsdbMetric buildGauge(String name, Object value, long timestamp, Map<String, String> tags) {
         return OpenTsdbMetric.named(decorateGauges ? prefix(name, "value") : prefix(name))
-                .withValue(gauge.getValue())
+                .withValue(value)
                 .withTimestamp(timestamp)
                 .withTags(tags)
                 .build();
     }
 
+    private Set<OpenTsdbMetric> buildSampledGauge(String name, GaugeSampler.Summary summary, long timestamp, Map<String, String> tags) {
+        return MetricsCollector.createNew(prefix(name), tags, timestamp)
+                .addMetric("min", summary.getMin())
+                .addMetric("max", summary.getMax())
+                .addMetric("avg", summary.getAvg())
+                .addMetric("last", summary.getLast())
+                .build();
+    }
+
     private String prefix(String... components) {
         if (prefix.length() == 0)
             return MetricRegistry.name(prefix, components);
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one {@link OpenTsdbReporter} report, from the first gauge to the last batch sent.
+ * The phases of the report are {@link ReportPhaseEvent}s.
+ */
+@Name("com.github.sps.metrics.Report")
+@Label("OpenTSDB Report")
+@Category({"Metrics", "OpenTSDB"})
+@StackTrace(false)
+final class ReportEvent extends jdk.jfr.Event {
+
+    @Label("Series")
+    int series;
+
+    @Label("Points")
+    int points;
+
+    @Label("Histograms")
+    int histograms;
+
+    @Label("Success")
+    boolean success;
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for one phase of an {@link OpenTsdbReporter} report: {@code gauges} evaluates the
+ * gauges, {@code snapshot} reads counters, histograms, meters and timers, {@code rollups} applies
+ * the rollup rules and {@code send} hands the points to the client, which emits its own encode and
+ * batch events.
+ */
+@Name("com.github.sps.metrics.ReportPhase")
+@Label("OpenTSDB Report Phase")
+@Category({"Metrics", "OpenTSDB"})
+@StackTrace(false)
+final class ReportPhaseEvent extends jdk.jfr.Event {
+
+    static final String GAUGES = "gauges";
+    static final String SNAPSHOT = "snapshot";
+    static final String ROLLUPS = "rollups";
+    static final String SEND = "send";
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Series")
+    @Description("Metrics read in this phase")
+    int series;
+
+    @Label("Points")
+    @Description("Points after this phase")
+    int points;
+
+    static ReportPhaseEvent start(String phase) {
+        final ReportPhaseEvent event = new ReportPhaseEvent();
+        event.phase = phase;
+        event.begin();
+        return event;
+    }
+
+    void finish(int series, int points) {
+        end();
+        if (shouldCommit()) {
+            this.series = series;
+            this.points = points;
+            commit();
+        }
+    }
+}
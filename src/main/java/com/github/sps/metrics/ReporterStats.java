@@ -0,0 +1,294 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What an {@link OpenTsdbReporter} has done: reports run and failed, the time spent building and
+ * sending them, the points reported, the gauges skipped, and overrunning reports with the depth of
+ * the send queue.
+ *
+ * Exposed as gauges through {@link #getMetrics()}, the same gauge instances on every call. The
+ * reporter leaves them out of its own reports, see
+ * {@link OpenTsdbReporter.Builder#withSelfMetricsReported(boolean)}.
+ */
+public class ReporterStats implements MetricSet {
+
+    private final LongAdder reports = new LongAdder();
+    private final LongAdder reportsFailed = new LongAdder();
+    private final LongAdder buildNanos = new LongAdder();
+    private final LongAdder sendNanos = new LongAdder();
+    private final LongAdder points = new LongAdder();
+    private final LongAdder gaugesSkipped = new LongAdder();
+    private final LongAdder overruns = new LongAdder();
+    private final LongAdder reportsSkipped = new LongAdder();
+    private final LongAdder reportsCoalesced = new LongAdder();
+    private final LongAdder reportsDropped = new LongAdder();
+    private volatile int queueDepth;
+    private volatile long lastBuildNanos;
+    private volatile long lastSendNanos;
+    private volatile long lastPoints;
+    private volatile Timer buildTimer;
+    private volatile Timer sendTimer;
+
+    private final Map<String, Metric> gauges;
+
+    public ReporterStats() {
+        final Map<String, Metric> gauges = new HashMap<String, Metric>();
+        gauges.put("reports", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getReports();
+            }
+        });
+        gauges.put("reports-failed", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getReportsFailed();
+            }
+        });
+        gauges.put("report-build-last-ms", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TimeUnit.NANOSECONDS.toMillis(getLastBuildNanos());
+            }
+        });
+        gauges.put("report-build-total-ms", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TimeUnit.NANOSECONDS.toMillis(getTotalBuildNanos());
+            }
+        });
+        gauges.put("report-send-last-ms", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TimeUnit.NANOSECONDS.toMillis(getLastSendNanos());
+            }
+        });
+        gauges.put("report-send-total-ms", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TimeUnit.NANOSECONDS.toMillis(getTotalSendNanos());
+            }
+        });
+        gauges.put("report-points-last", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getLastPoints();
+            }
+        });
+        gauges.put("report-points-total", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getTotalPoints();
+            }
+        });
+        gauges.put("gauges-skipped", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getGaugesSkipped();
+            }
+        });
+        gauges.put("report-overruns", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getOverruns();
+            }
+        });
+        gauges.put("reports-skipped", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getReportsSkipped();
+            }
+        });
+        gauges.put("reports-coalesced", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getReportsCoalesced();
+            }
+        });
+        gauges.put("reports-dropped", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getReportsDropped();
+            }
+        });
+        gauges.put("send-queue-depth", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getQueueDepth();
+            }
+        });
+        this.gauges = Collections.unmodifiableMap(gauges);
+    }
+
+    /**
+     * Also records build and send times into these timers, which stand in for the ones the reporter
+     * used to register; either may be {@code null}.
+     */
+    void feedTimers(Timer buildTimer, Timer sendTimer) {
+        this.buildTimer = buildTimer;
+        this.sendTimer = sendTimer;
+    }
+
+    void recordBuild(long nanos, int points) {
+        buildNanos.add(nanos);
+        lastBuildNanos = nanos;
+        this.points.add(points);
+        lastPoints = points;
+        final Timer timer = buildTimer;
+        if (timer != null) {
+            timer.update(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    void recordSend(long nanos) {
+        reports.increment();
+        sendNanos.add(nanos);
+        lastSendNanos = nanos;
+        final Timer timer = sendTimer;
+        if (timer != null) {
+            timer.update(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    void recordFailure() {
+        reportsFailed.increment();
+    }
+
+    void recordSkippedGauges(int count) {
+        gaugesSkipped.add(count);
+    }
+
+    void recordOverrun() {
+        overruns.increment();
+    }
+
+    void recordSkippedReport() {
+        reportsSkipped.increment();
+    }
+
+    void recordCoalescedReport() {
+        reportsCoalesced.increment();
+    }
+
+    void recordDroppedReport() {
+        reportsDropped.increment();
+    }
+
+    void setQueueDepth(int queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    /**
+     * @return the reports sent
+     */
+    public long getReports() {
+        return reports.sum();
+    }
+
+    /**
+     * @return the reports that threw while being built or sent
+     */
+    public long getReportsFailed() {
+        return reportsFailed.sum();
+    }
+
+    public long getLastBuildNanos() {
+        return lastBuildNanos;
+    }
+
+    public long getTotalBuildNanos() {
+        return buildNanos.sum();
+    }
+
+    public long getLastSendNanos() {
+        return lastSendNanos;
+    }
+
+    public long getTotalSendNanos() {
+        return sendNanos.sum();
+    }
+
+    /**
+     * @return the points and histograms of the most recent report
+     */
+    public long getLastPoints() {
+        return lastPoints;
+    }
+
+    public long getTotalPoints() {
+        return points.sum();
+    }
+
+    /**
+     * @return the gauges left out of reports because they missed the deadline or failed
+     */
+    public long getGaugesSkipped() {
+        return gaugesSkipped.sum();
+    }
+
+    /**
+     * @return the reports due while the previous one was still being sent
+     */
+    public long getOverruns() {
+        return overruns.sum();
+    }
+
+    /**
+     * @return the overrunning reports skipped with {@link OpenTsdbReporter.OverlapPolicy#SKIP}
+     */
+    public long getReportsSkipped() {
+        return reportsSkipped.sum();
+    }
+
+    /**
+     * @return the overrunning reports merged into a later one with
+     * {@link OpenTsdbReporter.OverlapPolicy#COALESCE}
+     */
+    public long getReportsCoalesced() {
+        return reportsCoalesced.sum();
+    }
+
+    /**
+     * @return the queued reports dropped because the backlog was full
+     */
+    public long getReportsDropped() {
+        return reportsDropped.sum();
+    }
+
+    /**
+     * @return the reports built and waiting to be sent
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        return gauges;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * A reporting interval of an {@link OpenTsdbReporter} and the rules selecting its series, e.g. SLO
+ * metrics every 10 seconds while the rest of the registry is reported every minute:
+ *
+ * <pre><code>
+ * ReportingTier.every(10, TimeUnit.SECONDS).withNameMatching("slo\\..*").withTag("slo", "true")
+ * </code></pre>
+ *
+ * A series belongs to a tier if it matches any of the name patterns and all of the tags. Names are
+ * registry names, without the reporter prefix; tags are those of {@link TaggedMetric}s. Series
+ * matching no tier are reported at the period the reporter is started with.
+ */
+public class ReportingTier {
+
+    /**
+     * @param period the reporting period of the tier
+     * @param unit   the unit of {@code period}
+     * @return a tier matching no series yet, add rules with the {@code with} methods
+     */
+    public static ReportingTier every(long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        return new ReportingTier(unit.toMillis(period), Collections.<Pattern>emptyList(),
+                Collections.<String, String>emptyMap(), null);
+    }
+
+    private final long periodMillis;
+    private final List<Pattern> namePatterns;
+    private final Map<String, String> tags;
+    private final MetricFilter filter;
+
+    private ReportingTier(long periodMillis, List<Pattern> namePatterns, Map<String, String> tags, MetricFilter filter) {
+        this.periodMillis = periodMillis;
+        this.namePatterns = namePatterns;
+        this.tags = tags;
+        this.filter = filter;
+    }
+
+    /**
+     * @param regex a pattern matching whole registry names
+     * @return a copy of this tier also taking the series named like {@code regex}
+     */
+    public ReportingTier withNameMatching(String regex) {
+        final List<Pattern> patterns = new ArrayList<Pattern>(namePatterns);
+        patterns.add(Pattern.compile(regex));
+        return new ReportingTier(periodMillis, Collections.unmodifiableList(patterns), tags, filter);
+    }
+
+    /**
+     * @return a copy of this tier taking only series tagged {@code key=value}
+     */
+    public ReportingTier withTag(String key, String value) {
+        final Map<String, String> required = new HashMap<String, String>(tags);
+        required.put(key, value);
+        return new ReportingTier(periodMillis, namePatterns, Collections.unmodifiableMap(required), filter);
+    }
+
+    /**
+     * @param filter a filter the series must also match
+     * @return a copy of this tier with {@code filter}
+     */
+    public ReportingTier withFilter(MetricFilter filter) {
+        return new ReportingTier(periodMillis, namePatterns, tags, filter);
+    }
+
+    public long getPeriodMillis() {
+        return periodMillis;
+    }
+
+    /**
+     * @param name   the registry name of the metric
+     * @param metric the metric
+     * @return {@code true} if the series belongs to this tier
+     */
+    public boolean matches(String name, Metric metric) {
+        if (namePatterns.isEmpty() && tags.isEmpty() && filter == null) {
+            return false;
+        }
+        if (!tags.isEmpty()) {
+            if (!(metric instanceof TaggedMetric)) {
+                return false;
+            }
+            final Map<String, String> metricTags = ((TaggedMetric) metric).getTags();
+            if (metricTags == null) {
+                return false;
+            }
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                if (!tag.getValue().equals(metricTags.get(tag.getKey()))) {
+                    return false;
+                }
+            }
+        }
+        if (!namePatterns.isEmpty()) {
+            final String baseName = metric instanceof TaggedMetric ? TaggedMetricRegistry.getBaseName(name) : name;
+            boolean matched = false;
+            for (Pattern pattern : namePatterns) {
+                if (pattern.matcher(baseName).matches()) {
+                    matched = true;
+                    break;
+                }
+            }
+            if (!matched) {
+                return false;
+            }
+        }
+        return filter == null || filter.matches(name, metric);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A rule aggregating the series of one reported metric over some of their tags before they are
+ * sent, e.g. the sum of {@code http.requests.count} over all {@code path}s:
+ *
+ * <pre><code>
+ * RollupRule.forMetric("http.requests.count").without("path").named("http.requests.total")
+ * </code></pre>
+ *
+ * The metric name is the name as sent to OpenTSDB, including the reporter prefix and suffixes such
+ * as {@code .count}. Unless the raw series are suppressed, give the rollup its own name so queries
+ * over the metric don't count points twice.
+ */
+public class RollupRule {
+
+    public enum Aggregation {
+        SUM, MIN, MAX, AVG, COUNT
+    }
+
+    /**
+     * @param metric the reported metric name to aggregate
+     * @return a rule summing {@code metric} under the same name, refine it with the {@code with} methods
+     */
+    public static RollupRule forMetric(String metric) {
+        return new RollupRule(metric, metric, Collections.<String>emptySet(), Aggregation.SUM, false);
+    }
+
+    private final String metric;
+    private final String targetMetric;
+    private final Set<String> droppedTags;
+    private final Aggregation aggregation;
+    private final boolean suppressRaw;
+
+    private RollupRule(String metric, String targetMetric, Set<String> droppedTags, Aggregation aggregation, boolean suppressRaw) {
+        this.metric = metric;
+        this.targetMetric = targetMetric;
+        this.droppedTags = droppedTags;
+        this.aggregation = aggregation;
+        this.suppressRaw = suppressRaw;
+    }
+
+    /**
+     * @param tags the tags to aggregate over, they are left out of the rolled up series
+     * @return a copy of this rule dropping {@code tags}
+     */
+    public RollupRule without(String... tags) {
+        final Set<String> dropped = new HashSet<String>(droppedTags);
+        dropped.addAll(Arrays.asList(tags));
+        return new RollupRule(metric, targetMetric, Collections.unmodifiableSet(dropped), aggregation, suppressRaw);
+    }
+
+    /**
+     * @param targetMetric the name to send the rolled up series under
+     * @return a copy of this rule sending to {@code targetMetric}
+     */
+    public RollupRule named(String targetMetric) {
+        return new RollupRule(metric, targetMetric, droppedTags, aggregation, suppressRaw);
+    }
+
+    public RollupRule aggregatedBy(Aggregation aggregation) {
+        return new RollupRule(metric, targetMetric, droppedTags, aggregation, suppressRaw);
+    }
+
+    /**
+     * @return a copy of this rule which sends only the rolled up series, not the raw ones
+     */
+    public RollupRule suppressingRaw() {
+        return new RollupRule(metric, targetMetric, droppedTags, aggregation, true);
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    public String getTargetMetric() {
+        return targetMetric;
+    }
+
+    public Set<String> getDroppedTags() {
+        return droppedTags;
+    }
+
+    public Aggregation getAggregation() {
+        return aggregation;
+    }
+
+    public boolean isSuppressRaw() {
+        return suppressRaw;
+    }
+}
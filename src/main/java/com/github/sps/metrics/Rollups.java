@@ -0,0 +1,225 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import com.github.sps.metrics.opentsdb.OpenTsdbMetric;
+import com.github.sps.metrics.opentsdb.TagSet;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies {@link RollupRule}s to the points of one report.
+ *
+ * The rolled up series of each rule are kept across reports, keyed by interned {@link TagSet}s, so
+ * a point of a series seen before finds its aggregate with one lookup and no allocation. Series not
+ * seen in a report are forgotten.
+ */
+class Rollups {
+
+    /**
+     * Running aggregate of one rolled up series.
+     */
+    private static final class Accumulator {
+        private final RollupRule rule;
+        private final TagSet tags;
+        private Long timestamp;
+        private long longSum;
+        private double doubleSum;
+        private boolean integral;
+        private double min;
+        private double max;
+        private long count;
+
+        private Accumulator(RollupRule rule, TagSet tags) {
+            this.rule = rule;
+            this.tags = tags;
+            reset();
+        }
+
+        private void reset() {
+            timestamp = null;
+            longSum = 0;
+            doubleSum = 0;
+            integral = true;
+            min = Double.POSITIVE_INFINITY;
+            max = Double.NEGATIVE_INFINITY;
+            count = 0;
+        }
+
+        private void add(OpenTsdbMetric metric) {
+            if (count == 0) {
+                timestamp = metric.getTimestamp();
+            }
+            final double d;
+            if (metric.getValueType() == OpenTsdbMetric.ValueType.LONG) {
+                longSum += metric.getLongValue();
+                d = metric.getLongValue();
+            } else if (metric.getValueType() == OpenTsdbMetric.ValueType.DOUBLE) {
+                integral = false;
+                d = metric.getDoubleValue();
+            } else {
+                integral = false;
+                d = ((Number) metric.getValue()).doubleValue();
+            }
+            doubleSum += d;
+            min = Math.min(min, d);
+            max = Math.max(max, d);
+            count++;
+        }
+
+        private OpenTsdbMetric.Builder withValue(OpenTsdbMetric.Builder builder) {
+            switch (rule.getAggregation()) {
+                case MIN:
+                    return integral ? builder.withValue((long) min) : builder.withValue(min);
+                case MAX:
+                    return integral ? builder.withValue((long) max) : builder.withValue(max);
+                case AVG:
+                    return builder.withValue(doubleSum / count);
+                case COUNT:
+                    return builder.withValue(count);
+                default:
+                    return integral ? builder.withValue(longSum) : builder.withValue(doubleSum);
+            }
+        }
+    }
+
+    /**
+     * A raw series of a rule and the aggregate it goes into.
+     */
+    private static final class RawSeries {
+        private final Accumulator accumulator;
+        private long lastReport;
+
+        private RawSeries(Accumulator accumulator) {
+            this.accumulator = accumulator;
+        }
+    }
+
+    /**
+     * The rolled up series of one rule.
+     */
+    private static final class RuleState {
+        private final RollupRule rule;
+        private final Map<TagSet, RawSeries> raw = new HashMap<TagSet, RawSeries>();
+        private final Map<TagSet, Accumulator> rolledUp = new HashMap<TagSet, Accumulator>();
+
+        private RuleState(RollupRule rule) {
+            this.rule = rule;
+        }
+
+        private void add(OpenTsdbMetric metric, long report) {
+            final TagSet tags = metric.getTagSet();
+            RawSeries series = raw.get(tags);
+            if (series == null) {
+                final TagSet reduced = tags.without(rule.getDroppedTags());
+                Accumulator accumulator = rolledUp.get(reduced);
+                if (accumulator == null) {
+                    accumulator = new Accumulator(rule, reduced);
+                    rolledUp.put(reduced, accumulator);
+                }
+                series = new RawSeries(accumulator);
+                raw.put(tags, series);
+            }
+            series.lastReport = report;
+            series.accumulator.add(metric);
+        }
+
+        /**
+         * Adds the aggregates of this report to {@code result}, resets them, and forgets the series
+         * that had no points.
+         */
+        private void flush(long report, Set<OpenTsdbMetric> result) {
+            for (Iterator<RawSeries> it = raw.values().iterator(); it.hasNext(); ) {
+                if (it.next().lastReport != report) {
+                    it.remove();
+                }
+            }
+            for (Iterator<Accumulator> it = rolledUp.values().iterator(); it.hasNext(); ) {
+                final Accumulator accumulator = it.next();
+                if (accumulator.count == 0) {
+                    it.remove();
+                    continue;
+                }
+                result.add(accumulator.withValue(OpenTsdbMetric.named(rule.getTargetMetric()))
+                        .withTimestamp(accumulator.timestamp)
+                        .withTags(accumulator.tags)
+                        .build());
+                accumulator.reset();
+            }
+        }
+    }
+
+    private final Map<String, List<RuleState>> rulesByMetric = new HashMap<String, List<RuleState>>();
+    private final List<RuleState> states = new ArrayList<RuleState>();
+    private long reports;
+
+    Rollups(Collection<RollupRule> rules) {
+        for (RollupRule rule : rules) {
+            List<RuleState> forMetric = rulesByMetric.get(rule.getMetric());
+            if (forMetric == null) {
+                forMetric = new ArrayList<RuleState>(1);
+                rulesByMetric.put(rule.getMetric(), forMetric);
+            }
+            final RuleState state = new RuleState(rule);
+            forMetric.add(state);
+            states.add(state);
+        }
+    }
+
+    boolean isEmpty() {
+        return rulesByMetric.isEmpty();
+    }
+
+    /**
+     * @param metrics the points of one report
+     * @return the points to send, the rolled up series added and suppressed raw series removed
+     */
+    synchronized Set<OpenTsdbMetric> apply(Set<OpenTsdbMetric> metrics) {
+        final long report = ++reports;
+        final Set<OpenTsdbMetric> result = new HashSet<OpenTsdbMetric>(metrics.size());
+        for (OpenTsdbMetric metric : metrics) {
+            final List<RuleState> rules = rulesByMetric.get(metric.getMetric());
+            if (rules == null || !isNumeric(metric)) {
+                result.add(metric);
+                continue;
+            }
+            boolean keepRaw = true;
+            for (int i = 0; i < rules.size(); i++) {
+                final RuleState state = rules.get(i);
+                keepRaw &= !state.rule.isSuppressRaw();
+                state.add(metric, report);
+            }
+            if (keepRaw) {
+                result.add(metric);
+            }
+        }
+        for (int i = 0; i < states.size(); i++) {
+            states.get(i).flush(report, result);
+        }
+        return result;
+    }
+
+    private static boolean isNumeric(OpenTsdbMetric metric) {
+        return metric.getValueType() != OpenTsdbMetric.ValueType.OBJECT || metric.getValue() instanceof Number;
+    }
+}
@@ -0,0 +1,189 @@
+package com.github.sps.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformSnapshot;
+
+/**
+ * A reservoir with one buffer per recording thread, for hot series updated from many cores.
+ *
+ * Each thread writes its latest {@code capacityPerThread} values into its own ring. No lock and
+ * no contended compare-and-set is involved. The rings are merged only when a snapshot is taken.
+ *
+ * Time is cut into windows. A ring is cleared when its thread records in a new window, and a
+ * snapshot only includes rings written in the current or the previous window, so no value is older
+ * than two windows. A snapshot releases the rings of threads that stopped recording or died; a
+ * thread that records again gets a new one.
+ *
+ * Each ring also counts all the values its thread recorded, so {@link #getCount()} is exact without
+ * a shared counter on the recording path.
+ */
+public class StripedReservoir implements Reservoir {
+
+	public static final int DEFAULT_CAPACITY_PER_THREAD = 256;
+	public static final long DEFAULT_WINDOW_SECONDS = 60;
+
+	private static final class Buffer {
+		private volatile long[] values;
+		private final int mask;
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong total = new AtomicLong();
+		private final WeakReference<Thread> owner;
+		private volatile long window;
+
+		private Buffer(int capacity, Thread owner, long window) {
+			this.values = new long[capacity];
+			this.mask = capacity - 1;
+			this.owner = new WeakReference<Thread>(owner);
+			this.window = window;
+		}
+
+		/**
+		 * Only called by the owning thread.
+		 *
+		 * @return {@code false} if the buffer was released and the value not recorded
+		 */
+		private boolean add(long value, long window) {
+			final long[] values = this.values;
+			if (values == null) {
+				return false;
+			}
+			long c = count.get();
+			if (window != this.window) {
+				this.window = window;
+				c = 0;
+			}
+			values[(int) (c & mask)] = value;
+			count.lazySet(c + 1);
+			total.lazySet(total.get() + 1);
+			return true;
+		}
+
+		private int size() {
+			return values == null ? 0 : (int) Math.min(count.get(), mask + 1);
+		}
+
+		private boolean isOwnerAlive() {
+			final Thread thread = owner.get();
+			return thread != null && thread.isAlive();
+		}
+
+		private void release() {
+			values = null;
+		}
+	}
+
+	private final int capacityPerThread;
+	private final long windowNanos;
+	private final Clock clock;
+	private final ConcurrentLinkedQueue<Buffer> buffers = new ConcurrentLinkedQueue<Buffer>();
+	private final ThreadLocal<Buffer> local = new ThreadLocal<Buffer>();
+	// the totals of the rings no longer in buffers, guarded by this
+	private long retired;
+
+	public StripedReservoir() {
+		this(DEFAULT_CAPACITY_PER_THREAD);
+	}
+
+	/**
+	 * @param capacityPerThread the number of most recent values kept per thread, a power of two
+	 */
+	public StripedReservoir(int capacityPerThread) {
+		this(capacityPerThread, DEFAULT_WINDOW_SECONDS, TimeUnit.SECONDS, Clock.defaultClock());
+	}
+
+	/**
+	 * @param capacityPerThread the number of most recent values kept per thread, a power of two
+	 * @param window            the length of a window, e.g. the report period
+	 * @param unit              the unit of {@code window}
+	 * @param clock             the clock used to tell windows apart
+	 */
+	public StripedReservoir(int capacityPerThread, long window, TimeUnit unit, Clock clock) {
+		if (capacityPerThread < 1 || Integer.bitCount(capacityPerThread) != 1) {
+			throw new IllegalArgumentException("capacityPerThread must be a power of two");
+		}
+		if (window <= 0) {
+			throw new IllegalArgumentException("window must be positive");
+		}
+		this.capacityPerThread = capacityPerThread;
+		this.windowNanos = unit.toNanos(window);
+		this.clock = clock;
+	}
+
+	private long currentWindow() {
+		return Math.floorDiv(clock.getTick(), windowNanos);
+	}
+
+	@Override
+	public int size() {
+		final long oldest = currentWindow() - 1;
+		int size = 0;
+		for (Buffer buffer : buffers) {
+			if (buffer.window >= oldest) {
+				size += buffer.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of values recorded since this reservoir was created
+	 */
+	public synchronized long getCount() {
+		long count = retired;
+		for (Buffer buffer : buffers) {
+			count += buffer.total.get();
+		}
+		return count;
+	}
+
+	@Override
+	public void update(long value) {
+		final long window = currentWindow();
+		final Buffer buffer = local.get();
+		if (buffer == null || !buffer.add(value, window)) {
+			final Buffer created = new Buffer(capacityPerThread, Thread.currentThread(), window);
+			created.add(value, window);
+			local.set(created);
+			buffers.add(created);
+		}
+	}
+
+	@Override
+	public synchronized Snapshot getSnapshot() {
+		final long oldest = currentWindow() - 1;
+		long[] merged = new long[size()];
+		int size = 0;
+		for (Iterator<Buffer> it = buffers.iterator(); it.hasNext(); ) {
+			final Buffer buffer = it.next();
+			final long[] values = buffer.values;
+			if (values == null || buffer.window < oldest) {
+				// idle for a whole window, free the ring until the thread records again
+				it.remove();
+				buffer.release();
+				retired += buffer.total.get();
+				continue;
+			}
+			final int n = buffer.size();
+			if (size + n > merged.length) {
+				// a thread started recording since size() was taken
+				merged = Arrays.copyOf(merged, size + n);
+			}
+			System.arraycopy(values, 0, merged, size, n);
+			size += n;
+			if (!buffer.isOwnerAlive()) {
+				it.remove();
+				retired += buffer.total.get();
+			}
+		}
+		return new UniformSnapshot(size == merged.length ? merged : Arrays.copyOf(merged, size));
+	}
+}
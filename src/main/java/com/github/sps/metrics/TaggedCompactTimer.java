@@ -0,0 +1,292 @@
+package com.github.sps.metrics;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * A tagged timer for high cardinality series, keeping all its state in one {@code long[]}: count,
+ * sum, min, max and a histogram with four buckets per power of two from 1µs to about 137s. A
+ * regular {@link TaggedTimer} holds a {@link com.codahale.metrics.Meter} and a reservoir of up
+ * to 1028 samples, often tens of KB per series; this timer takes about 1.1 KB and allocates nothing
+ * when recording.
+ *
+ * Percentiles are read from the buckets, so they are accurate to about 12%; min, max, mean and
+ * count are exact. Rates are exponentially weighted like a Meter's, but computed from the count
+ * when they are read.
+ */
+public class TaggedCompactTimer extends TaggedTimer {
+
+	private static final int MIN_OCTAVE = 10;
+	private static final int MAX_OCTAVE = 36;
+	private static final int SUB_BUCKETS = 4;
+	static final int BUCKETS = 2 + (MAX_OCTAVE - MIN_OCTAVE + 1) * SUB_BUCKETS;
+
+	private static final int COUNT = 0;
+	private static final int SUM = 1;
+	private static final int MIN = 2;
+	private static final int MAX = 3;
+	private static final int FIRST_BUCKET = 4;
+
+	private static final int MAX_SNAPSHOT_VALUES = 1028;
+
+	private final Clock clock;
+	private final AtomicLongArray state = new AtomicLongArray(FIRST_BUCKET + BUCKETS);
+	private final CountRates rates;
+
+	public TaggedCompactTimer(Map<String, String> tags) {
+		this(Clock.defaultClock(), tags);
+	}
+
+	public TaggedCompactTimer(Clock clock, Map<String, String> tags) {
+		super(NO_METER, NO_HISTOGRAM, clock, tags);
+		this.clock = clock;
+		this.rates = new CountRates(clock);
+		state.set(MIN, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Records a duration without allocating.
+	 *
+	 * @param nanos the duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			return;
+		}
+		state.incrementAndGet(FIRST_BUCKET + bucket(nanos));
+		state.addAndGet(SUM, nanos);
+		long min;
+		while (nanos < (min = state.get(MIN)) && !state.compareAndSet(MIN, min, nanos)) {
+			// retry
+		}
+		long max;
+		while (nanos > (max = state.get(MAX)) && !state.compareAndSet(MAX, max, nanos)) {
+			// retry
+		}
+		state.incrementAndGet(COUNT);
+	}
+
+	@Override
+	public void update(long duration, TimeUnit unit) {
+		record(unit.toNanos(duration));
+	}
+
+	@Override
+	public void update(Duration duration) {
+		record(duration.toNanos());
+	}
+
+	@Override
+	public <T> T time(Callable<T> event) throws Exception {
+		final long start = clock.getTick();
+		try {
+			return event.call();
+		} finally {
+			record(clock.getTick() - start);
+		}
+	}
+
+	@Override
+	public <T> T timeSupplier(Supplier<T> event) {
+		final long start = clock.getTick();
+		try {
+			return event.get();
+		} finally {
+			record(clock.getTick() - start);
+		}
+	}
+
+	@Override
+	public void time(Runnable event) {
+		final long start = clock.getTick();
+		try {
+			event.run();
+		} finally {
+			record(clock.getTick() - start);
+		}
+	}
+
+	@Override
+	public long getCount() {
+		return state.get(COUNT);
+	}
+
+	@Override
+	public double getMeanRate() {
+		return rates.getMeanRate(getCount());
+	}
+
+	@Override
+	public double getOneMinuteRate() {
+		return rates.getOneMinuteRate(getCount());
+	}
+
+	@Override
+	public double getFiveMinuteRate() {
+		return rates.getFiveMinuteRate(getCount());
+	}
+
+	@Override
+	public double getFifteenMinuteRate() {
+		return rates.getFifteenMinuteRate(getCount());
+	}
+
+	@Override
+	public Snapshot getSnapshot() {
+		final long[] counts = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = state.get(FIRST_BUCKET + i);
+			count += counts[i];
+		}
+		return new BucketSnapshot(counts, count, state.get(SUM), state.get(MIN), state.get(MAX));
+	}
+
+	static int bucket(long nanos) {
+		if (nanos < (1L << MIN_OCTAVE)) {
+			return 0;
+		}
+		final int octave = 63 - Long.numberOfLeadingZeros(nanos);
+		if (octave > MAX_OCTAVE) {
+			return BUCKETS - 1;
+		}
+		final int sub = (int) (nanos >>> (octave - 2)) & (SUB_BUCKETS - 1);
+		return 1 + (octave - MIN_OCTAVE) * SUB_BUCKETS + sub;
+	}
+
+	static long lowerBound(int bucket) {
+		if (bucket == 0) {
+			return 0;
+		}
+		if (bucket == BUCKETS - 1) {
+			return 1L << (MAX_OCTAVE + 1);
+		}
+		final int octave = MIN_OCTAVE + (bucket - 1) / SUB_BUCKETS;
+		final int sub = (bucket - 1) % SUB_BUCKETS;
+		return (long) (SUB_BUCKETS + sub) << (octave - 2);
+	}
+
+	/**
+	 * A snapshot over the buckets, each value standing for the middle of its bucket.
+	 */
+	private static final class BucketSnapshot extends Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long min;
+		private final long max;
+
+		private BucketSnapshot(long[] counts, long count, long sum, long min, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.min = count == 0 ? 0 : min;
+			this.max = count == 0 ? 0 : max;
+		}
+
+		private long representative(int bucket) {
+			final long upper = bucket == BUCKETS - 1 ? max : lowerBound(bucket + 1);
+			final long middle = lowerBound(bucket) + (upper - lowerBound(bucket)) / 2;
+			return Math.max(min, Math.min(max, middle));
+		}
+
+		@Override
+		public double getValue(double quantile) {
+			if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+				throw new IllegalArgumentException(quantile + " is not in [0..1]");
+			}
+			if (count == 0) {
+				return 0;
+			}
+			final double rank = quantile * count;
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank && counts[i] > 0) {
+					return representative(i);
+				}
+			}
+			return max;
+		}
+
+		/**
+		 * @return the bucket representatives, repeated by their counts scaled down to at most 1028 values
+		 */
+		@Override
+		public long[] getValues() {
+			final double scale = count > MAX_SNAPSHOT_VALUES ? (double) MAX_SNAPSHOT_VALUES / count : 1;
+			long[] values = new long[(int) Math.min(count, MAX_SNAPSHOT_VALUES) + counts.length];
+			int size = 0;
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] == 0) {
+					continue;
+				}
+				final long n = Math.max(1, Math.round(counts[i] * scale));
+				final long value = representative(i);
+				for (long j = 0; j < n && size < values.length; j++) {
+					values[size++] = value;
+				}
+			}
+			return Arrays.copyOf(values, size);
+		}
+
+		@Override
+		public int size() {
+			return (int) Math.min(count, Integer.MAX_VALUE);
+		}
+
+		@Override
+		public long getMax() {
+			return max;
+		}
+
+		@Override
+		public double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		@Override
+		public long getMin() {
+			return min;
+		}
+
+		@Override
+		public double getStdDev() {
+			if (count <= 1) {
+				return 0;
+			}
+			final double mean = getMean();
+			double variance = 0;
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] > 0) {
+					final double diff = representative(i) - mean;
+					variance += counts[i] * diff * diff;
+				}
+			}
+			return Math.sqrt(variance / (count - 1));
+		}
+
+		@Override
+		public void dump(OutputStream output) {
+			try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+				for (int i = 0; i < counts.length; i++) {
+					if (counts[i] > 0) {
+						out.printf("%d %d%n", lowerBound(i), counts[i]);
+					}
+				}
+			}
+		}
+	}
+}
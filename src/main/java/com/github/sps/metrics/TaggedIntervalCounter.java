@@ -0,0 +1,39 @@
+package com.github.sps.metrics;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A tagged counter that can be read and reset in one step, so a reporter can send the change
+ * since the previous report. {@link #getCount()} returns the count since the last reset.
+ */
+public class TaggedIntervalCounter extends TaggedCounter {
+
+	private final LongAdder count = new LongAdder();
+
+	public TaggedIntervalCounter(Map<String, String> tags) {
+		super(tags);
+	}
+
+	@Override
+	public void inc(long n) {
+		count.add(n);
+	}
+
+	@Override
+	public void dec(long n) {
+		count.add(-n);
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return the count since the previous call; concurrent updates go to the next interval
+	 */
+	public long getCountAndReset() {
+		return count.sumThenReset();
+	}
+}
@@ -0,0 +1,28 @@
+package com.github.sps.metrics;
+
+import java.util.Map;
+
+/**
+ * A tagged histogram whose snapshots cover one report interval, see {@link IntervalReservoir}.
+ * Reporters using interval reporting call {@link #getSnapshotAndReset()} once per report.
+ */
+public class TaggedIntervalHistogram extends TaggedHistogram {
+
+	private final IntervalReservoir reservoir;
+
+	public TaggedIntervalHistogram(Map<String, String> tags) {
+		this(new IntervalReservoir(), tags);
+	}
+
+	public TaggedIntervalHistogram(IntervalReservoir reservoir, Map<String, String> tags) {
+		super(reservoir, tags);
+		this.reservoir = reservoir;
+	}
+
+	/**
+	 * @return the values recorded since the previous call
+	 */
+	public IntervalReservoir.IntervalSnapshot getSnapshotAndReset() {
+		return reservoir.getSnapshotAndReset();
+	}
+}
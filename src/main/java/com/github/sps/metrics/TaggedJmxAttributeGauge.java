@@ -1,22 +1,65 @@
 package com.github.sps.metrics;
 
+import java.lang.management.ManagementFactory;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 
-public class TaggedJmxAttributeGauge implements TaggedMetric {
+/**
+ * A tagged gauge for an MBean attribute. Gauges on the same {@link MBeanServer} share a
+ * {@link JmxAttributeCache}, which reads all attributes of an MBean in one call per report.
+ * Removing the gauge from a {@link TaggedMetricRegistry} releases its attribute in the cache; call
+ * {@link #unregister()} when it is removed some other way.
+ */
+public class TaggedJmxAttributeGauge implements TaggedGauge<Object> {
 
-    private Map<String, String> tags;
+	private final JmxAttributeCache cache;
+	private final ObjectName objectName;
+	private final String attributeName;
+	private Map<String, String> tags;
+	private final AtomicBoolean registered = new AtomicBoolean(true);
 
 	public TaggedJmxAttributeGauge(ObjectName objectName, String attributeName, Map<String, String> tags) {
-        this.tags = tags;
-    }
+		this(ManagementFactory.getPlatformMBeanServer(), objectName, attributeName, tags);
+	}
+
+	public TaggedJmxAttributeGauge(MBeanServer mBeanServer, ObjectName objectName, String attributeName, Map<String, String> tags) {
+		this(JmxAttributeCache.forServer(mBeanServer), objectName, attributeName, tags);
+	}
+
+	public TaggedJmxAttributeGauge(JmxAttributeCache cache, ObjectName objectName, String attributeName, Map<String, String> tags) {
+		this.cache = cache;
+		this.objectName = objectName;
+		this.attributeName = attributeName;
+		this.tags = tags;
+		cache.register(objectName, attributeName);
+	}
+
+	@Override
+	public Object getValue() {
+		return cache.getValue(objectName, attributeName);
+	}
+
+	/**
+	 * Stops the cache reading the attribute for this gauge. Calling it again has no effect.
+	 */
+	public void unregister() {
+		if (registered.compareAndSet(true, false)) {
+			cache.unregister(objectName, attributeName);
+		}
+	}
+
+	public ObjectName getObjectName() {
+		return objectName;
+	}
+
+	public String getAttributeName() {
+		return attributeName;
+	}
 
-    public TaggedJmxAttributeGauge(MBeanServer mBeanServer, ObjectName objectName, String attributeName, Map<String, String> tags) {
-    	this.tags = tags;
-    }
-	
+	@Override
 	public Map<String, String> getTags() {
 		return tags;
 	}
@@ -0,0 +1,227 @@
+package com.github.sps.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.relation.MBeanServerNotificationFilter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.sps.metrics.opentsdb.OpenTsdbMetric;
+
+/**
+ * Registers {@link TaggedJmxAttributeGauge}s for every MBean matching a set of {@link ObjectName}
+ * patterns, e.g. {@code kafka.server:type=*,name=*,topic=*}.
+ *
+ * The key properties of a matching MBean become the tags of its gauges and the metric names are
+ * {@code <domain>.<attribute>}. MBeans are matched once at {@link #start()}; after that the
+ * collector follows the {@link MBeanServerDelegate} registration notifications, so its cost
+ * depends on the MBeans that come and go, not on how many MBeans the server holds.
+ */
+public class TaggedJmxCollector implements NotificationListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(TaggedJmxCollector.class);
+	private static final Set<String> numericTypes = new HashSet<String>(Arrays.asList(
+			"byte", "short", "int", "long", "float", "double",
+			Byte.class.getName(), Short.class.getName(), Integer.class.getName(), Long.class.getName(),
+			Float.class.getName(), Double.class.getName()));
+
+	private static class Pattern {
+		private final ObjectName objectName;
+		private final List<String> attributes;
+
+		private Pattern(ObjectName objectName, List<String> attributes) {
+			this.objectName = objectName;
+			this.attributes = attributes;
+		}
+	}
+
+	private final TaggedMetricRegistry registry;
+	private final JmxAttributeCache cache;
+	private final List<Pattern> patterns = new CopyOnWriteArrayList<Pattern>();
+	// the gauges this collector registered, by MBean and attribute
+	private final Map<ObjectName, Map<String, TaggedJmxAttributeGauge>> registered = new ConcurrentHashMap<ObjectName, Map<String, TaggedJmxAttributeGauge>>();
+	private volatile boolean started;
+
+	public TaggedJmxCollector(TaggedMetricRegistry registry, MBeanServer mBeanServer) {
+		this(registry, JmxAttributeCache.forServer(mBeanServer));
+	}
+
+	public TaggedJmxCollector(TaggedMetricRegistry registry, JmxAttributeCache cache) {
+		this.registry = registry;
+		this.cache = cache;
+	}
+
+	/**
+	 * Collect {@code attributes} of the MBeans matching {@code pattern}. Without attributes every
+	 * readable numeric attribute is collected. Added after {@link #start()}, the pattern also adds its
+	 * attributes to MBeans already collected.
+	 *
+	 * @param pattern    an {@link ObjectName} pattern
+	 * @param attributes the attribute names to collect
+	 * @return {@code this}
+	 */
+	public TaggedJmxCollector addPattern(ObjectName pattern, String... attributes) {
+		final Pattern added = new Pattern(pattern, Arrays.asList(attributes));
+		patterns.add(added);
+		if (started) {
+			for (ObjectName name : cache.getMBeanServer().queryNames(pattern, null)) {
+				add(name);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Registers the gauges of the MBeans matching now and starts following registrations.
+	 */
+	public synchronized void start() throws Exception {
+		if (started) {
+			return;
+		}
+		final MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+		filter.enableAllObjectNames();
+		// listen before the initial query so no registration slips in between
+		cache.getMBeanServer().addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this, filter, null);
+		started = true;
+		for (Pattern pattern : patterns) {
+			for (ObjectName name : cache.getMBeanServer().queryNames(pattern.objectName, null)) {
+				add(name);
+			}
+		}
+	}
+
+	/**
+	 * Stops following registrations and removes all gauges of this collector from the registry.
+	 */
+	public synchronized void stop() throws Exception {
+		if (!started) {
+			return;
+		}
+		started = false;
+		cache.getMBeanServer().removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, this);
+		for (ObjectName name : new ArrayList<ObjectName>(registered.keySet())) {
+			remove(name);
+		}
+	}
+
+	@Override
+	public void handleNotification(Notification notification, Object handback) {
+		if (!(notification instanceof MBeanServerNotification)) {
+			return;
+		}
+		final ObjectName name = ((MBeanServerNotification) notification).getMBeanName();
+		if (MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(notification.getType())) {
+			add(name);
+		} else if (MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+			remove(name);
+		}
+	}
+
+	/**
+	 * @return the MBeans with gauges registered by this collector
+	 */
+	public Set<ObjectName> getObjectNames() {
+		return Collections.unmodifiableSet(registered.keySet());
+	}
+
+	private synchronized void add(ObjectName name) {
+		if (!started) {
+			return;
+		}
+		final Set<String> attributes = new HashSet<String>();
+		for (Pattern pattern : patterns) {
+			if (!pattern.objectName.apply(name)) {
+				continue;
+			}
+			if (pattern.attributes.isEmpty()) {
+				attributes.addAll(getNumericAttributes(name));
+			} else {
+				attributes.addAll(pattern.attributes);
+			}
+		}
+		if (attributes.isEmpty()) {
+			return;
+		}
+		Map<String, TaggedJmxAttributeGauge> gauges = registered.get(name);
+		if (gauges == null) {
+			gauges = new HashMap<String, TaggedJmxAttributeGauge>();
+		}
+		final Map<String, String> tags = getTags(name);
+		for (String attribute : attributes) {
+			if (gauges.containsKey(attribute)) {
+				continue;
+			}
+			final String metricName = OpenTsdbMetric.sanitize(name.getDomain() + "." + attribute);
+			final TaggedJmxAttributeGauge gauge = new TaggedJmxAttributeGauge(cache, name, attribute, tags);
+			if (registry.getOrRegisterTaggedMetric(metricName, gauge) == gauge) {
+				gauges.put(attribute, gauge);
+			} else {
+				// registered by someone else, leave it to them
+				gauge.unregister();
+			}
+		}
+		if (!gauges.isEmpty()) {
+			registered.put(name, gauges);
+		}
+	}
+
+	private synchronized void remove(ObjectName name) {
+		final Map<String, TaggedJmxAttributeGauge> gauges = registered.remove(name);
+		if (gauges == null) {
+			return;
+		}
+		for (TaggedJmxAttributeGauge gauge : gauges.values()) {
+			final String metricName = OpenTsdbMetric.sanitize(name.getDomain() + "." + gauge.getAttributeName());
+			final String taggedName = TaggedMetricRegistry.getTaggedName(metricName, gauge.getTags());
+			// only remove the gauge this collector created, the name may have been re-registered since
+			if (registry.getMetrics().get(taggedName) == gauge) {
+				registry.remove(taggedName);
+			} else {
+				gauge.unregister();
+			}
+		}
+	}
+
+	private List<String> getNumericAttributes(ObjectName name) {
+		final List<String> attributes = new ArrayList<String>();
+		try {
+			for (MBeanAttributeInfo info : cache.getMBeanServer().getMBeanInfo(name).getAttributes()) {
+				if (info.isReadable() && numericTypes.contains(info.getType())) {
+					attributes.add(info.getName());
+				}
+			}
+		} catch (Exception e) {
+			logger.debug("reading the attributes of {} failed", name, e);
+		}
+		return attributes;
+	}
+
+	static Map<String, String> getTags(ObjectName name) {
+		final Map<String, String> tags = new HashMap<String, String>();
+		for (Map.Entry<String, String> property : name.getKeyPropertyList().entrySet()) {
+			String value = property.getValue();
+			if (value.startsWith("\"")) {
+				value = ObjectName.unquote(value);
+			}
+			tags.put(OpenTsdbMetric.sanitize(property.getKey()), OpenTsdbMetric.sanitize(value));
+		}
+		return tags;
+	}
+}
@@ -1,7 +1,6 @@
 package com.github.sps.metrics;
 
 import java.util.Map;
-import java.util.regex.Pattern;
 
 import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Metric;
@@ -28,6 +27,8 @@ public class TaggedMetricRegistry extends MetricRegistry {
 	}
 	
 	public TaggedMetric getOrRegisterTaggedMetric(final String name, final TaggedMetric metric) {
+		final MetricLookupEvent event = new MetricLookupEvent();
+		event.begin();
 		String taggedName = TaggedMetricRegistry.getTaggedName(name, metric.getTags());
 		TaggedMetric registeredMetric;
 		try {
@@ -35,9 +36,30 @@ public class TaggedMetricRegistry extends MetricRegistry {
 		} catch (IllegalArgumentException e) {
 			registeredMetric = (TaggedMetric) getMetrics().get(taggedName);
 		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.name = taggedName;
+			event.lookup = MetricLookupEvent.GET_OR_REGISTER;
+			event.found = registeredMetric != null;
+			event.registered = registeredMetric == metric;
+			event.commit();
+		}
 		return registeredMetric;
 	}
 
+	/**
+	 * Removes the metric, releasing the attribute read by a {@link TaggedJmxAttributeGauge}.
+	 */
+	@Override
+	public boolean remove(String name) {
+		final Metric metric = getMetrics().get(name);
+		final boolean removed = super.remove(name);
+		if (removed && metric instanceof TaggedJmxAttributeGauge) {
+			((TaggedJmxAttributeGauge) metric).unregister();
+		}
+		return removed;
+	}
+
 	public TaggedCounter taggedCounter(final String name,
 			final Map<String, String> tags) {
 		final TaggedCounter counter = new TaggedCounter(tags);
@@ -66,16 +88,44 @@ public class TaggedMetricRegistry extends MetricRegistry {
 		return (TaggedHistogram) getOrRegisterTaggedMetric(name, metric);
 	}
 
+	public TaggedStripedHistogram taggedStripedHistogram(final String name,
+			final Map<String, String> tags) {
+		final TaggedStripedHistogram metric = new TaggedStripedHistogram(tags);
+		return (TaggedStripedHistogram) getOrRegisterTaggedMetric(name, metric);
+	}
+
 	public TaggedHistogram getTaggedHistogram(final String name,
 			final Map<String, String> searchTags) {
 		return (TaggedHistogram) getTaggedMetric(name, searchTags);
 	}
 	
+	public TaggedIntervalCounter taggedIntervalCounter(final String name,
+			final Map<String, String> tags) {
+		final TaggedIntervalCounter counter = new TaggedIntervalCounter(tags);
+		return (TaggedIntervalCounter) getOrRegisterTaggedMetric(name, counter);
+	}
+
+	public TaggedIntervalHistogram taggedIntervalHistogram(final String name,
+			final Map<String, String> tags) {
+		final TaggedIntervalHistogram metric = new TaggedIntervalHistogram(tags);
+		return (TaggedIntervalHistogram) getOrRegisterTaggedMetric(name, metric);
+	}
+
 	public TaggedTimer taggedTimer(final String name, final Map<String, String> tags) {
 		final TaggedTimer metric = new TaggedTimer(tags);
 		return (TaggedTimer) getOrRegisterTaggedMetric(name, metric);
 	}
 
+	public TaggedStripedTimer taggedStripedTimer(final String name, final Map<String, String> tags) {
+		final TaggedStripedTimer metric = new TaggedStripedTimer(tags);
+		return (TaggedStripedTimer) getOrRegisterTaggedMetric(name, metric);
+	}
+
+	public TaggedCompactTimer taggedCompactTimer(final String name, final Map<String, String> tags) {
+		final TaggedCompactTimer metric = new TaggedCompactTimer(tags);
+		return (TaggedCompactTimer) getOrRegisterTaggedMetric(name, metric);
+	}
+
 	public TaggedTimer getTaggedTimer(final String name,
 			final Map<String, String> searchTags) {
 		return (TaggedTimer) getTaggedMetric(name, searchTags);
@@ -83,6 +133,21 @@ public class TaggedMetricRegistry extends MetricRegistry {
 
 	public TaggedMetric getTaggedMetric(final String name,
 			final Map<String, String> searchTags) {
+		final MetricLookupEvent event = new MetricLookupEvent();
+		event.begin();
+		final TaggedMetric metric = findTaggedMetric(name, searchTags);
+		event.end();
+		if (event.shouldCommit()) {
+			event.name = name;
+			event.lookup = MetricLookupEvent.SEARCH;
+			event.found = metric != null;
+			event.commit();
+		}
+		return metric;
+	}
+
+	private TaggedMetric findTaggedMetric(final String name,
+			final Map<String, String> searchTags) {
 		final Timer.Context context = timeToFindMetric.time();
 		for (Map.Entry<String, Metric> entry : getMetrics().entrySet()) {
 			if (!(entry.getValue() instanceof TaggedMetric)) {
@@ -126,9 +191,7 @@ public class TaggedMetricRegistry extends MetricRegistry {
 	}
 
 	public static String getBaseName(final String name) {
-		if (name.contains(delimiter)) {
-			return name.split(Pattern.quote(delimiter))[0];
-		}
-		return name;
+		final int end = name.indexOf(delimiter);
+		return end < 0 ? name : name.substring(0, end);
 	}
 }
@@ -0,0 +1,185 @@
+package com.github.sps.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+
+/**
+ * A tagged gauge whose value is reloaded on a background executor instead of on the reading
+ * thread, unlike {@link TaggedCachedGauge}. {@link #getValue()} always returns the last loaded
+ * value immediately, {@code null} until the first load finished.
+ *
+ * Refreshing starts with {@link #start()} or the first read. A load running longer than the load
+ * timeout is interrupted and the previous value is kept. Load time, staleness, failures and
+ * timeouts are available as metrics through {@link #getStats()}.
+ */
+public abstract class TaggedRefreshAheadGauge<T> implements TaggedGauge<T> {
+
+	private static final Logger logger = LoggerFactory.getLogger(TaggedRefreshAheadGauge.class);
+
+	private final ScheduledExecutorService executor;
+	private final long refreshIntervalNanos;
+	private final long loadTimeoutNanos;
+	private final Clock clock;
+
+	private final Counter failures = new Counter();
+	private final Counter timeouts = new Counter();
+	private volatile T value;
+	private volatile boolean loaded;
+	private volatile long loadedAt;
+	private volatile long lastLoadNanos;
+	// read without the lock, so reads after the first don't synchronize
+	private volatile boolean started;
+	private Future<?> schedule;
+	private Future<?> inFlight;
+
+	/**
+	 * @param executor        the executor running the loads, shared by many gauges; it needs a
+	 *                        spare thread to interrupt loads that time out
+	 * @param refreshInterval the time between the start of two loads
+	 * @param loadTimeout     the time after which a load is interrupted
+	 * @param unit            the unit of {@code refreshInterval} and {@code loadTimeout}
+	 * @param clock           the clock used to measure load time and staleness
+	 */
+	protected TaggedRefreshAheadGauge(ScheduledExecutorService executor, long refreshInterval, long loadTimeout, TimeUnit unit, Clock clock) {
+		this.executor = executor;
+		this.refreshIntervalNanos = unit.toNanos(refreshInterval);
+		this.loadTimeoutNanos = unit.toNanos(loadTimeout);
+		this.clock = clock;
+	}
+
+	protected TaggedRefreshAheadGauge(ScheduledExecutorService executor, long refreshInterval, long loadTimeout, TimeUnit unit) {
+		this(executor, refreshInterval, loadTimeout, unit, Clock.defaultClock());
+	}
+
+	/**
+	 * Loads the value, called on the executor.
+	 */
+	protected abstract T loadValue() throws Exception;
+
+	@Override
+	public T getValue() {
+		if (!started) {
+			start();
+		}
+		return value;
+	}
+
+	/**
+	 * Starts refreshing the value, the first load runs right away.
+	 */
+	public synchronized void start() {
+		if (schedule == null) {
+			schedule = executor.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					refresh();
+				}
+			}, 0, refreshIntervalNanos, TimeUnit.NANOSECONDS);
+			started = true;
+		}
+	}
+
+	/**
+	 * Stops refreshing and interrupts a running load.
+	 */
+	public synchronized void stop() {
+		if (schedule != null) {
+			schedule.cancel(false);
+			schedule = null;
+			started = false;
+		}
+		if (inFlight != null) {
+			inFlight.cancel(true);
+		}
+	}
+
+	private synchronized void refresh() {
+		if (inFlight != null && !inFlight.isDone()) {
+			// the previous load is still within its timeout
+			return;
+		}
+		final Future<?> load = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				load();
+			}
+		});
+		inFlight = load;
+		executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (load.cancel(true)) {
+					timeouts.inc();
+				}
+			}
+		}, loadTimeoutNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private void load() {
+		final long start = clock.getTick();
+		try {
+			final T loadedValue = loadValue();
+			if (Thread.currentThread().isInterrupted()) {
+				// timed out, keep the previous value
+				return;
+			}
+			value = loadedValue;
+			loadedAt = clock.getTick();
+			lastLoadNanos = loadedAt - start;
+			loaded = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			failures.inc();
+			logger.debug("loading gauge value failed", e);
+		}
+	}
+
+	/**
+	 * @return the time since the current value was loaded, in nanoseconds, or {@code -1} before the first load
+	 */
+	public long getStalenessNanos() {
+		return loaded ? clock.getTick() - loadedAt : -1;
+	}
+
+	/**
+	 * @return gauges and counters describing the loads of this gauge, e.g. to pass to
+	 * {@link com.codahale.metrics.MetricRegistry#register} under the gauge's name
+	 */
+	public MetricSet getStats() {
+		return new MetricSet() {
+			@Override
+			public Map<String, Metric> getMetrics() {
+				final Map<String, Metric> stats = new HashMap<String, Metric>();
+				stats.put("load-time-ms", new Gauge<Long>() {
+					@Override
+					public Long getValue() {
+						return TimeUnit.NANOSECONDS.toMillis(lastLoadNanos);
+					}
+				});
+				stats.put("staleness-ms", new Gauge<Long>() {
+					@Override
+					public Long getValue() {
+						final long staleness = getStalenessNanos();
+						return staleness < 0 ? staleness : TimeUnit.NANOSECONDS.toMillis(staleness);
+					}
+				});
+				stats.put("load-failures", failures);
+				stats.put("load-timeouts", timeouts);
+				return stats;
+			}
+		};
+	}
+}
@@ -0,0 +1,31 @@
+package com.github.sps.metrics;
+
+import java.util.Map;
+
+/**
+ * A tagged histogram for hot series updated from many threads. Values go straight into a
+ * {@link StripedReservoir}, and the count is summed from its per-thread buffers when it is read.
+ */
+public class TaggedStripedHistogram extends TaggedHistogram {
+
+	private final StripedReservoir reservoir;
+
+	public TaggedStripedHistogram(Map<String, String> tags) {
+		this(new StripedReservoir(), tags);
+	}
+
+	public TaggedStripedHistogram(StripedReservoir reservoir, Map<String, String> tags) {
+		super(reservoir, tags);
+		this.reservoir = reservoir;
+	}
+
+	@Override
+	public void update(long value) {
+		reservoir.update(value);
+	}
+
+	@Override
+	public long getCount() {
+		return reservoir.getCount();
+	}
+}
@@ -0,0 +1,128 @@
+package com.github.sps.metrics;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * A tagged timer for hot series recorded from many threads. Durations go straight into a
+ * {@link StripedReservoir}, with no shared {@link com.codahale.metrics.Meter} or counter on the
+ * recording path, and {@link #record(long)} records without allocating a
+ * {@link com.codahale.metrics.Timer.Context}:
+ *
+ * <pre><code>
+ * final long start = System.nanoTime();
+ * ...
+ * timer.record(System.nanoTime() - start);
+ * </code></pre>
+ *
+ * The count is summed from the per-thread buffers when it is read, and the rates are exponentially
+ * weighted like a Meter's, but computed from the count when they are read.
+ */
+public class TaggedStripedTimer extends TaggedTimer {
+
+	private final StripedReservoir reservoir;
+	private final Clock clock;
+	private final CountRates rates;
+
+	public TaggedStripedTimer(Map<String, String> tags) {
+		this(new StripedReservoir(), tags);
+	}
+
+	public TaggedStripedTimer(StripedReservoir reservoir, Map<String, String> tags) {
+		this(reservoir, Clock.defaultClock(), tags);
+	}
+
+	public TaggedStripedTimer(StripedReservoir reservoir, Clock clock, Map<String, String> tags) {
+		super(NO_METER, NO_HISTOGRAM, clock, tags);
+		this.reservoir = reservoir;
+		this.clock = clock;
+		this.rates = new CountRates(clock);
+	}
+
+	/**
+	 * Records a duration.
+	 *
+	 * @param nanos the duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos >= 0) {
+			reservoir.update(nanos);
+		}
+	}
+
+	@Override
+	public void update(long duration, TimeUnit unit) {
+		record(unit.toNanos(duration));
+	}
+
+	@Override
+	public void update(Duration duration) {
+		record(duration.toNanos());
+	}
+
+	@Override
+	public <T> T time(Callable<T> event) throws Exception {
+		final long start = clock.getTick();
+		try {
+			return event.call();
+		} finally {
+			record(clock.getTick() - start);
+		}
+	}
+
+	@Override
+	public <T> T timeSupplier(Supplier<T> event) {
+		final long start = clock.getTick();
+		try {
+			return event.get();
+		} finally {
+			record(clock.getTick() - start);
+		}
+	}
+
+	@Override
+	public void time(Runnable event) {
+		final long start = clock.getTick();
+		try {
+			event.run();
+		} finally {
+			record(clock.getTick() - start);
+		}
+	}
+
+	@Override
+	public long getCount() {
+		return reservoir.getCount();
+	}
+
+	@Override
+	public double getMeanRate() {
+		return rates.getMeanRate(getCount());
+	}
+
+	@Override
+	public double getOneMinuteRate() {
+		return rates.getOneMinuteRate(getCount());
+	}
+
+	@Override
+	public double getFiveMinuteRate() {
+		return rates.getFiveMinuteRate(getCount());
+	}
+
+	@Override
+	public double getFifteenMinuteRate() {
+		return rates.getFifteenMinuteRate(getCount());
+	}
+
+	@Override
+	public Snapshot getSnapshot() {
+		return reservoir.getSnapshot();
+	}
+}
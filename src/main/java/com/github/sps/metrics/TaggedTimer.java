@@ -2,16 +2,47 @@ package com.github.sps.metrics;
 
 import java.util.Map;
 
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Reservoir;
 import com.codahale.metrics.Timer;
+import com.codahale.metrics.UniformReservoir;
 
 public class TaggedTimer extends Timer implements TaggedMetric {
 
+	// shared by the timers that keep their own state and never read, so a Timer method they don't
+	// override records nothing instead of failing
+	static final Meter NO_METER = new Meter() {
+		@Override
+		public void mark(long n) {
+		}
+	};
+	static final Histogram NO_HISTOGRAM = new Histogram(new UniformReservoir(1)) {
+		@Override
+		public void update(long value) {
+		}
+	};
+
 	private Map<String, String> tags;
 	
 	public TaggedTimer(Map<String, String> tags) {
 		this.tags = tags;
 	}
 
+	public TaggedTimer(Reservoir reservoir, Map<String, String> tags) {
+		super(reservoir);
+		this.tags = tags;
+	}
+
+	/**
+	 * For timers that keep their own state instead of a {@link Meter} and {@link Histogram}.
+	 */
+	protected TaggedTimer(Meter meter, Histogram histogram, Clock clock, Map<String, String> tags) {
+		super(meter, histogram, clock);
+		this.tags = tags;
+	}
+
 	@Override
 	public Map<String, String> getTags() {
 		return tags;
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistryListener;
+import com.codahale.metrics.Timer;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps the reported metrics of a registry sorted into {@link ReportingTier}s as they are
+ * registered, so each tier's report reads its own series instead of filtering the whole registry.
+ */
+class TierIndex implements MetricRegistryListener {
+
+    /**
+     * The metrics of one tier, by registry name.
+     */
+    static final class Bucket {
+        final ConcurrentSkipListMap<String, Gauge> gauges = new ConcurrentSkipListMap<String, Gauge>();
+        final ConcurrentSkipListMap<String, Counter> counters = new ConcurrentSkipListMap<String, Counter>();
+        final ConcurrentSkipListMap<String, Histogram> histograms = new ConcurrentSkipListMap<String, Histogram>();
+        final ConcurrentSkipListMap<String, Meter> meters = new ConcurrentSkipListMap<String, Meter>();
+        final ConcurrentSkipListMap<String, Timer> timers = new ConcurrentSkipListMap<String, Timer>();
+
+        int size() {
+            return gauges.size() + counters.size() + histograms.size() + meters.size() + timers.size();
+        }
+    }
+
+    private final MetricFilter filter;
+    private final List<ReportingTier> tiers;
+    private final Bucket[] buckets;
+    private final Bucket defaultBucket = new Bucket();
+    private final ConcurrentHashMap<String, Bucket> assigned = new ConcurrentHashMap<String, Bucket>();
+
+    /**
+     * @param filter the filter of the reporter, metrics it rejects are not indexed
+     * @param tiers  the tiers, a metric goes to the first one it matches
+     */
+    TierIndex(MetricFilter filter, List<ReportingTier> tiers) {
+        this.filter = filter;
+        this.tiers = tiers;
+        this.buckets = new Bucket[tiers.size()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    /**
+     * @return the metrics of the tier at {@code index}
+     */
+    Bucket getBucket(int index) {
+        return buckets[index];
+    }
+
+    /**
+     * @return the metrics matching no tier
+     */
+    Bucket getDefaultBucket() {
+        return defaultBucket;
+    }
+
+    /**
+     * @return the bucket for a new metric, or {@code null} if the reporter doesn't report it
+     */
+    private Bucket assign(String name, Metric metric) {
+        if (!filter.matches(name, metric)) {
+            return null;
+        }
+        Bucket bucket = defaultBucket;
+        for (int i = 0; i < buckets.length; i++) {
+            if (tiers.get(i).matches(name, metric)) {
+                bucket = buckets[i];
+                break;
+            }
+        }
+        assigned.put(name, bucket);
+        return bucket;
+    }
+
+    @Override
+    public void onGaugeAdded(String name, Gauge<?> gauge) {
+        final Bucket bucket = assign(name, gauge);
+        if (bucket != null) {
+            bucket.gauges.put(name, gauge);
+        }
+    }
+
+    @Override
+    public void onGaugeRemoved(String name) {
+        final Bucket bucket = assigned.remove(name);
+        if (bucket != null) {
+            bucket.gauges.remove(name);
+        }
+    }
+
+    @Override
+    public void onCounterAdded(String name, Counter counter) {
+        final Bucket bucket = assign(name, counter);
+        if (bucket != null) {
+            bucket.counters.put(name, counter);
+        }
+    }
+
+    @Override
+    public void onCounterRemoved(String name) {
+        final Bucket bucket = assigned.remove(name);
+        if (bucket != null) {
+            bucket.counters.remove(name);
+        }
+    }
+
+    @Override
+    public void onHistogramAdded(String name, Histogram histogram) {
+        final Bucket bucket = assign(name, histogram);
+        if (bucket != null) {
+            bucket.histograms.put(name, histogram);
+        }
+    }
+
+    @Override
+    public void onHistogramRemoved(String name) {
+        final Bucket bucket = assigned.remove(name);
+        if (bucket != null) {
+            bucket.histograms.remove(name);
+        }
+    }
+
+    @Override
+    public void onMeterAdded(String name, Meter meter) {
+        final Bucket bucket = assign(name, meter);
+        if (bucket != null) {
+            bucket.meters.put(name, meter);
+        }
+    }
+
+    @Override
+    public void onMeterRemoved(String name) {
+        final Bucket bucket = assigned.remove(name);
+        if (bucket != null) {
+            bucket.meters.remove(name);
+        }
+    }
+
+    @Override
+    public void onTimerAdded(String name, Timer timer) {
+        final Bucket bucket = assign(name, timer);
+        if (bucket != null) {
+            bucket.timers.put(name, timer);
+        }
+    }
+
+    @Override
+    public void onTimerRemoved(String name) {
+        final Bucket bucket = assigned.remove(name);
+        if (bucket != null) {
+            bucket.timers.remove(name);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for serializing, and compressing, the request body of one HTTP batch.
+ */
+@Name("com.github.sps.metrics.opentsdb.BatchEncode")
+@Label("Batch Encode")
+@Category({"Metrics", "OpenTSDB"})
+@StackTrace(false)
+final class BatchEncodeEvent extends jdk.jfr.Event {
+
+    @Label("Path")
+    String path;
+
+    @Label("Points")
+    int points;
+
+    @Label("Bytes")
+    @Description("Size of the JSON body")
+    @DataAmount
+    long bytes;
+
+    @Label("Wire Bytes")
+    @Description("Size of the body as written, after compression")
+    @DataAmount
+    long wireBytes;
+}
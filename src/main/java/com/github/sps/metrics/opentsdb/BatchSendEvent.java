@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for writing one batch of points, from the first attempt to the endpoint that took it
+ * or to the last failure. A batch is one request for the HTTP client and one connection for the
+ * telnet client.
+ */
+@Name("com.github.sps.metrics.opentsdb.BatchSend")
+@Label("Batch Send")
+@Category({"Metrics", "OpenTSDB"})
+@StackTrace(false)
+final class BatchSendEvent extends jdk.jfr.Event {
+
+    @Label("Transport")
+    String transport;
+
+    @Label("Path")
+    String path;
+
+    @Label("Points")
+    int points;
+
+    @Label("Bytes")
+    @Description("Size of the payload as written, after compression")
+    @DataAmount
+    long bytes;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Error")
+    String error;
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What an {@link OpenTsdb} client has written: points, batches, bytes before and after compression,
+ * batch latency, and the points dropped after the last endpoint failed. A batch is one request for
+ * the HTTP client and one connection for the telnet client.
+ *
+ * The counters are {@link LongAdder}s, cheap to update from concurrent sends. They are exposed as
+ * gauges through {@link #getMetrics()}, the same gauge instances on every call so a reporter can
+ * tell them apart from the metrics it reports.
+ */
+public class ClientStats implements MetricSet {
+
+    private final LongAdder pointsSent = new LongAdder();
+    private final LongAdder pointsDropped = new LongAdder();
+    private final LongAdder batchesSent = new LongAdder();
+    private final LongAdder batchesFailed = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder wireBytesSent = new LongAdder();
+    private final LongAdder batchNanos = new LongAdder();
+    private volatile long lastBatchNanos;
+    private volatile ClientStats parent;
+
+    private final Map<String, Metric> gauges;
+
+    public ClientStats() {
+        final Map<String, Metric> gauges = new HashMap<String, Metric>();
+        gauges.put("points-sent", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getPointsSent();
+            }
+        });
+        gauges.put("points-dropped", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getPointsDropped();
+            }
+        });
+        gauges.put("batches-sent", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getBatchesSent();
+            }
+        });
+        gauges.put("batches-failed", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getBatchesFailed();
+            }
+        });
+        gauges.put("bytes-sent", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getBytesSent();
+            }
+        });
+        gauges.put("wire-bytes-sent", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return getWireBytesSent();
+            }
+        });
+        gauges.put("compression-ratio", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return getCompressionRatio();
+            }
+        });
+        gauges.put("batch-latency-last-ms", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return toMillis(getLastBatchNanos());
+            }
+        });
+        gauges.put("batch-latency-mean-ms", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                return toMillis(getMeanBatchNanos());
+            }
+        });
+        this.gauges = Collections.unmodifiableMap(gauges);
+    }
+
+    private static double toMillis(double nanos) {
+        return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Records a batch taken by an endpoint.
+     *
+     * @param points    the points in the batch
+     * @param bytes     the size of the payload
+     * @param wireBytes the size of the payload as written, after compression
+     * @param nanos     the time taken to write the batch, retries included
+     */
+    void recordBatch(int points, long bytes, long wireBytes, long nanos) {
+        pointsSent.add(points);
+        batchesSent.increment();
+        bytesSent.add(bytes);
+        wireBytesSent.add(wireBytes);
+        batchNanos.add(nanos);
+        lastBatchNanos = nanos;
+        final ClientStats parent = this.parent;
+        if (parent != null) {
+            parent.recordBatch(points, bytes, wireBytes, nanos);
+        }
+    }
+
+    /**
+     * Records a batch no endpoint took, its points are dropped.
+     *
+     * @param points the points in the batch
+     * @param nanos  the time spent trying
+     */
+    void recordFailure(int points, long nanos) {
+        batchesFailed.increment();
+        pointsDropped.add(points);
+        lastBatchNanos = nanos;
+        final ClientStats parent = this.parent;
+        if (parent != null) {
+            parent.recordFailure(points, nanos);
+        }
+    }
+
+    /**
+     * Records points dropped without an attempt to send them.
+     */
+    void recordDropped(int points) {
+        pointsDropped.add(points);
+        final ClientStats parent = this.parent;
+        if (parent != null) {
+            parent.recordDropped(points);
+        }
+    }
+
+    /**
+     * Also records everything recorded here into {@code parent}, which sums up several clients,
+     * or stops doing so with {@code null}.
+     */
+    void setParent(ClientStats parent) {
+        this.parent = parent;
+    }
+
+    ClientStats getParent() {
+        return parent;
+    }
+
+    public long getPointsSent() {
+        return pointsSent.sum();
+    }
+
+    public long getPointsDropped() {
+        return pointsDropped.sum();
+    }
+
+    public long getBatchesSent() {
+        return batchesSent.sum();
+    }
+
+    public long getBatchesFailed() {
+        return batchesFailed.sum();
+    }
+
+    /**
+     * @return the uncompressed payload bytes of the batches sent
+     */
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * @return the payload bytes of the batches sent as written, after compression
+     */
+    public long getWireBytesSent() {
+        return wireBytesSent.sum();
+    }
+
+    /**
+     * @return uncompressed over written bytes, {@code 1} before anything was sent
+     */
+    public double getCompressionRatio() {
+        final long wire = getWireBytesSent();
+        return wire == 0 ? 1 : (double) getBytesSent() / wire;
+    }
+
+    /**
+     * @return the time taken by the most recent batch, sent or failed, in nanoseconds
+     */
+    public long getLastBatchNanos() {
+        return lastBatchNanos;
+    }
+
+    /**
+     * @return the mean time taken by the batches sent, in nanoseconds
+     */
+    public double getMeanBatchNanos() {
+        final long batches = getBatchesSent();
+        return batches == 0 ? 0 : (double) batchNanos.sum() / batches;
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        return gauges;
+    }
+}
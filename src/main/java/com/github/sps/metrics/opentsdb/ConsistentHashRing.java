@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A consistent hash ring with virtual nodes.
+ *
+ * Every node is placed on the ring {@code virtualNodes} times at positions derived from its id,
+ * so adding or removing a node only moves the keys of the ring segments it owns, roughly
+ * {@code 1/n} of all keys. The ring is copy-on-write: lookups never lock and membership changes
+ * rebuild the sorted position table.
+ *
+ * @param <T> the node type
+ */
+public class ConsistentHashRing<T> {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private static final Comparator<long[]> BY_POSITION = new Comparator<long[]>() {
+        @Override
+        public int compare(long[] a, long[] b) {
+            return Long.compare(a[0], b[0]);
+        }
+    };
+
+    private static final class Ring<T> {
+        private final long[] positions;
+        private final T[] nodes;
+
+        private Ring(long[] positions, T[] nodes) {
+            this.positions = positions;
+            this.nodes = nodes;
+        }
+    }
+
+    private final int virtualNodes;
+    private final Map<String, T> members = new LinkedHashMap<String, T>();
+    private volatile Ring<T> ring = new Ring<T>(new long[0], null);
+
+    public ConsistentHashRing() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be positive");
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Adds a node, or replaces the node registered under the same id.
+     *
+     * @param id   a stable identifier for the node, e.g. its url
+     * @param node the node
+     */
+    public synchronized void add(String id, T node) {
+        members.put(id, node);
+        rebuild();
+    }
+
+    public synchronized T remove(String id) {
+        final T removed = members.remove(id);
+        if (removed != null) {
+            rebuild();
+        }
+        return removed;
+    }
+
+    public synchronized Map<String, T> getMembers() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, T>(members));
+    }
+
+    public boolean isEmpty() {
+        return ring.positions.length == 0;
+    }
+
+    /**
+     * @param hash the hash of a key, see {@link #hash(CharSequence)}
+     * @return the node owning {@code hash}, or {@code null} if the ring is empty
+     */
+    public T get(long hash) {
+        final Ring<T> current = this.ring;
+        final long[] positions = current.positions;
+        if (positions.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(positions, hash);
+        if (index < 0) {
+            index = -index - 1;
+            if (index == positions.length) {
+                index = 0;
+            }
+        }
+        return current.nodes[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rebuild() {
+        final int size = members.size() * virtualNodes;
+        final long[] positions = new long[size];
+        final Object[] owners = new Object[size];
+
+        // sort (position, member) pairs by position
+        final long[][] pairs = new long[size][];
+        final Object[] memberNodes = members.values().toArray();
+        int i = 0;
+        int m = 0;
+        for (String id : members.keySet()) {
+            for (int v = 0; v < virtualNodes; v++) {
+                pairs[i++] = new long[]{hash(id + "#" + v), m};
+            }
+            m++;
+        }
+        Arrays.sort(pairs, BY_POSITION);
+        for (i = 0; i < size; i++) {
+            positions[i] = pairs[i][0];
+            owners[i] = memberNodes[(int) pairs[i][1]];
+        }
+        this.ring = new Ring<T>(positions, (T[]) owners);
+    }
+
+    /**
+     * 64 bit FNV-1a over the UTF-16 code units, finished with the murmur3 avalanche step so that
+     * similar keys land far apart on the ring.
+     *
+     * @param key
+     * @return a well mixed 64 bit hash
+     */
+    public static long hash(CharSequence key) {
+        return mix(fnv(0xcbf29ce484222325L, key));
+    }
+
+    static long fnv(long hash, CharSequence key) {
+        if (key == null) {
+            return hash;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import com.codahale.metrics.Clock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of interchangeable OpenTSDB endpoints with client side load balancing and passive
+ * health tracking.
+ *
+ * An endpoint that fails {@code ejectAfterFailures} consecutive requests is ejected for the
+ * ejection time. Once that expires the next request goes to the endpoint as a probe, while the
+ * other requests keep avoiding it: a successful probe restores it, a failed one ejects it again.
+ * Only one probe per endpoint is in flight at a time. A failed request is retried on the next
+ * endpoint until every endpoint has been tried once.
+ *
+ * @param <T> the endpoint type, e.g. a {@link jakarta.ws.rs.client.WebTarget}
+ */
+public class EndpointPool<T> {
+
+    public static final int DEFAULT_EJECT_AFTER_FAILURES = 3;
+    public static final long DEFAULT_EJECTION_TIME_MS = 30000;
+    private static final Logger logger = LoggerFactory.getLogger(EndpointPool.class);
+
+    /**
+     * How requests are spread over the available endpoints.
+     */
+    public enum Balancing {
+        /**
+         * Rotate through the endpoints in order.
+         */
+        ROUND_ROBIN,
+        /**
+         * Pick the endpoint with the fewest requests in flight, rotating between ties.
+         */
+        LEAST_OUTSTANDING
+    }
+
+    /**
+     * A request against a single endpoint. Throwing marks the attempt as failed.
+     */
+    public interface Call<T> {
+        void call(T endpoint) throws Exception;
+    }
+
+    private static final int HEALTHY = 0;
+    private static final int EJECTED = 1;
+    private static final int PROBING = 2;
+
+    static final class Endpoint<T> {
+        private final T target;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicInteger state = new AtomicInteger(HEALTHY);
+        private volatile long ejectedUntil;
+
+        private Endpoint(T target) {
+            this.target = target;
+        }
+
+        T getTarget() {
+            return target;
+        }
+
+        boolean isAvailable(long now) {
+            final int current = state.get();
+            return current == HEALTHY || current == EJECTED && now - ejectedUntil >= 0;
+        }
+
+        /**
+         * @return {@code true} if the ejection expired and the caller may send the one probe
+         */
+        private boolean tryProbe(long now) {
+            return state.get() == EJECTED && now - ejectedUntil >= 0 && state.compareAndSet(EJECTED, PROBING);
+        }
+    }
+
+    private final List<Endpoint<T>> endpoints;
+    private final Balancing balancing;
+    private final int ejectAfterFailures;
+    private final long ejectionNanos;
+    private final Clock clock;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public EndpointPool(List<T> targets, Balancing balancing) {
+        this(targets, balancing, DEFAULT_EJECT_AFTER_FAILURES, DEFAULT_EJECTION_TIME_MS, TimeUnit.MILLISECONDS,
+                Clock.defaultClock());
+    }
+
+    public EndpointPool(List<T> targets, Balancing balancing, int ejectAfterFailures, long ejectionTime,
+                        TimeUnit ejectionUnit, Clock clock) {
+        if (targets == null || targets.isEmpty()) {
+            throw new IllegalArgumentException("at least one endpoint is required");
+        }
+        final List<Endpoint<T>> list = new ArrayList<Endpoint<T>>(targets.size());
+        for (T target : targets) {
+            list.add(new Endpoint<T>(target));
+        }
+        this.endpoints = Collections.unmodifiableList(list);
+        this.balancing = balancing;
+        this.ejectAfterFailures = Math.max(1, ejectAfterFailures);
+        this.ejectionNanos = ejectionUnit.toNanos(ejectionTime);
+        this.clock = clock;
+    }
+
+    /**
+     * Runs {@code call} against one endpoint, failing over to the others in turn.
+     *
+     * @param call the request to make
+     * @throws Exception the failure of the last attempt if every endpoint failed
+     */
+    public void execute(Call<T> call) throws Exception {
+        final boolean[] tried = new boolean[endpoints.size()];
+        final int start = Math.floorMod(next.getAndIncrement(), tried.length);
+        Exception last = null;
+        for (int attempt = 0; attempt < tried.length; attempt++) {
+            final int index = select(tried, start, clock.getTick());
+            tried[index] = true;
+            final Endpoint<T> endpoint = endpoints.get(index);
+            endpoint.outstanding.incrementAndGet();
+            try {
+                call.call(endpoint.target);
+                onSuccess(endpoint);
+                return;
+            } catch (Exception e) {
+                onFailure(endpoint, e);
+                last = e;
+            } finally {
+                endpoint.outstanding.decrementAndGet();
+            }
+        }
+        throw last;
+    }
+
+    /**
+     * @return the number of endpoints currently not ejected
+     */
+    public int getAvailableCount() {
+        final long now = clock.getTick();
+        int available = 0;
+        for (Endpoint<T> endpoint : endpoints) {
+            if (endpoint.isAvailable(now)) {
+                available++;
+            }
+        }
+        return available;
+    }
+
+    public int size() {
+        return endpoints.size();
+    }
+
+    List<Endpoint<T>> getEndpoints() {
+        return endpoints;
+    }
+
+    private int select(boolean[] tried, int start, long now) {
+        final int size = endpoints.size();
+
+        // an endpoint whose ejection expired gets a single probe before any other traffic
+        for (int i = 0; i < size; i++) {
+            final int index = (start + i) % size;
+            if (!tried[index] && endpoints.get(index).tryProbe(now)) {
+                return index;
+            }
+        }
+
+        int selected = -1;
+        for (int i = 0; i < size; i++) {
+            final int index = (start + i) % size;
+            final Endpoint<T> endpoint = endpoints.get(index);
+            if (tried[index] || endpoint.state.get() != HEALTHY) {
+                continue;
+            }
+            if (balancing == Balancing.ROUND_ROBIN) {
+                return index;
+            }
+            if (selected == -1 || endpoint.outstanding.get() < endpoints.get(selected).outstanding.get()) {
+                selected = index;
+            }
+        }
+        if (selected != -1) {
+            return selected;
+        }
+
+        // every remaining endpoint is ejected or being probed, try the one closest to coming back
+        for (int i = 0; i < size; i++) {
+            final int index = (start + i) % size;
+            if (!tried[index] && (selected == -1
+                    || endpoints.get(index).ejectedUntil - endpoints.get(selected).ejectedUntil < 0)) {
+                selected = index;
+            }
+        }
+        return selected;
+    }
+
+    private void onSuccess(Endpoint<T> endpoint) {
+        endpoint.consecutiveFailures.set(0);
+        if (endpoint.state.getAndSet(HEALTHY) != HEALTHY) {
+            logger.info("opentsdb endpoint {} is healthy again", endpoint.target);
+        }
+    }
+
+    private void onFailure(Endpoint<T> endpoint, Exception e) {
+        if (endpoint.consecutiveFailures.incrementAndGet() >= ejectAfterFailures) {
+            endpoint.ejectedUntil = clock.getTick() + ejectionNanos;
+            if (endpoint.state.getAndSet(EJECTED) == HEALTHY) {
+                logger.warn("ejecting opentsdb endpoint {} after {} consecutive failures",
+                        endpoint.target, endpoint.consecutiveFailures.get());
+            }
+        }
+        if (endpoints.size() > 1) {
+            logger.warn("send to opentsdb endpoint {} failed, trying next endpoint: {}", endpoint.target, e.getMessage());
+        }
+    }
+}
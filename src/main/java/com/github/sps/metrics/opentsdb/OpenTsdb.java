@@ -15,21 +15,32 @@
  */
 package com.github.sps.metrics.opentsdb;
 
-import org.glassfish.jersey.client.filter.EncodingFilter;
-import org.glassfish.jersey.message.GZipEncoder;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.StreamWriteFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.Variant;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.client.ClientBuilder;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.client.WebTarget;
 import org.glassfish.jersey.client.ClientProperties;
 import org.glassfish.jersey.jackson.JacksonFeature;
+import com.codahale.metrics.Clock;
 
 /**
  * OpenTSDB 2.0 jersey based REST client.
@@ -44,6 +55,9 @@ public class OpenTsdb {
     public static final int CONN_TIMEOUT_DEFAULT_MS = 5000;
     public static final int READ_TIMEOUT_DEFAULT_MS = 5000;
     private static final Logger logger = LoggerFactory.getLogger(OpenTsdb.class);
+    private static final ObjectMapper mapper = new ObjectMapper(JsonFactory.builder()
+            .enable(StreamWriteFeature.USE_FAST_DOUBLE_WRITER)
+            .build());
 
     /**
      * Initiate a client Builder with the provided base opentsdb server url.
@@ -55,6 +69,16 @@ public class OpenTsdb {
         return new Builder(baseUrl);
     }
 
+    /**
+     * Initiate a client Builder that spreads requests over several opentsdb servers.
+     *
+     * @param baseUrls the base urls of the TSDs
+     * @return a {@link Builder}
+     */
+    public static Builder forServices(String... baseUrls) {
+        return new Builder(Arrays.asList(baseUrls));
+    }
+
     /**
      * create a client by providing the underlying WebResource
      *
@@ -62,21 +86,45 @@ public class OpenTsdb {
      * @return
      */
     public static OpenTsdb create(WebTarget apiResource) {
-        return new OpenTsdb(apiResource);
+        return new OpenTsdb(new EndpointPool<WebTarget>(Collections.singletonList(apiResource),
+                EndpointPool.Balancing.ROUND_ROBIN));
+    }
+
+    /**
+     * create a client by providing a pool of underlying WebResources
+     *
+     * @param endpoints
+     * @return
+     */
+    public static OpenTsdb create(EndpointPool<WebTarget> endpoints) {
+        return new OpenTsdb(endpoints);
     }
 
-    private final WebTarget apiResource;
+    private final EndpointPool<WebTarget> endpoints;
     private int batchSizeLimit = DEFAULT_BATCH_SIZE_LIMIT;
+    private Throttle throttle = Throttle.unlimited();
+    private ClientStats stats = new ClientStats();
+    private boolean gzipEnabled = false;
 
     public static class Builder {
 
         private Integer connectionTimeout = CONN_TIMEOUT_DEFAULT_MS;
         private Integer readTimeout = READ_TIMEOUT_DEFAULT_MS;
-        private final String baseUrl;
+        private final List<String> baseUrls;
         private boolean gzipEnabled = false;
+        private EndpointPool.Balancing balancing = EndpointPool.Balancing.ROUND_ROBIN;
+        private int ejectAfterFailures = EndpointPool.DEFAULT_EJECT_AFTER_FAILURES;
+        private long ejectionTimeMs = EndpointPool.DEFAULT_EJECTION_TIME_MS;
+        private double pointsPerSecond = 0;
+        private double bytesPerSecond = 0;
+        private long smoothingWindowMs = 0;
 
         public Builder(String baseUrl) {
-            this.baseUrl = baseUrl;
+            this(Collections.singletonList(baseUrl));
+        }
+
+        public Builder(List<String> baseUrls) {
+            this.baseUrls = new ArrayList<String>(baseUrls);
         }
 
         public Builder withConnectTimeout(Integer connectionTimeout) {
@@ -94,8 +142,71 @@ public class OpenTsdb {
             return this;
         }
 
+        /**
+         * How to spread requests when more than one base url is configured.
+         *
+         * @param balancing
+         * @return {@code this}
+         */
+        public Builder withLoadBalancing(EndpointPool.Balancing balancing) {
+            this.balancing = balancing;
+            return this;
+        }
+
+        /**
+         * Eject a TSD for {@code ejectionTime} after {@code ejectAfterFailures} consecutive failed
+         * requests. Once the ejection expires the TSD is probed again by the next request.
+         *
+         * @param ejectAfterFailures
+         * @param ejectionTime
+         * @param unit
+         * @return {@code this}
+         */
+        public Builder withEjection(int ejectAfterFailures, long ejectionTime, TimeUnit unit) {
+            this.ejectAfterFailures = ejectAfterFailures;
+            this.ejectionTimeMs = unit.toMillis(ejectionTime);
+            return this;
+        }
+
+        /**
+         * Limit the rate at which points are written. A burst of one second's worth is allowed.
+         *
+         * @param pointsPerSecond maximum points per second, {@code 0} for no limit
+         * @param bytesPerSecond  maximum uncompressed JSON bytes per second, {@code 0} for no limit
+         * @return {@code this}
+         */
+        public Builder withRateLimit(double pointsPerSecond, double bytesPerSecond) {
+            this.pointsPerSecond = pointsPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Spread the points of each report over {@code fraction} of the reporting period instead
+         * of posting them all at once.
+         *
+         * @param period   the reporting period
+         * @param unit     the unit of {@code period}
+         * @param fraction the share of the period to spread the points over, e.g. {@code 0.5}
+         * @return {@code this}
+         */
+        public Builder withSmoothing(long period, TimeUnit unit, double fraction) {
+            this.smoothingWindowMs = (long) (unit.toMillis(period) * fraction);
+            return this;
+        }
+
         public OpenTsdb create() {
-            return new OpenTsdb(baseUrl, connectionTimeout, readTimeout, gzipEnabled);
+            final Client client = createClient(connectionTimeout, readTimeout);
+            final List<WebTarget> targets = new ArrayList<WebTarget>(baseUrls.size());
+            for (String baseUrl : baseUrls) {
+                targets.add(client.target(baseUrl));
+            }
+            final OpenTsdb openTsdb = new OpenTsdb(new EndpointPool<WebTarget>(targets, balancing,
+                    ejectAfterFailures, ejectionTimeMs, TimeUnit.MILLISECONDS, Clock.defaultClock()));
+            openTsdb.setThrottle(new Throttle(pointsPerSecond, bytesPerSecond, smoothingWindowMs,
+                    TimeUnit.MILLISECONDS, Clock.defaultClock()));
+            openTsdb.gzipEnabled = gzipEnabled;
+            return openTsdb;
         }
     }
 
@@ -103,32 +214,61 @@ public class OpenTsdb {
 	 * For OpenTsdbTelnet
 	 */
 	protected OpenTsdb() {
-		this.apiResource = null;
+		this.endpoints = null;
 	}
 
-    private OpenTsdb(WebTarget apiResource) {
-        this.apiResource = apiResource;
+    private OpenTsdb(EndpointPool<WebTarget> endpoints) {
+        this.endpoints = endpoints;
     }
 
-    private OpenTsdb(String baseURL, Integer connectionTimeout, Integer readTimeout, boolean gzipEnabled) {
-        ClientBuilder builder = ClientBuilder.newBuilder()
-                                             .register(JacksonFeature.class);
-        if (gzipEnabled) {
-            builder = builder.register(GZipEncoder.class)
-                             .register(EncodingFilter.class)
-                             .property(ClientProperties.USE_ENCODING, "gzip");
-        }
-        final Client client = builder.build();
+    private static Client createClient(Integer connectionTimeout, Integer readTimeout) {
+        // request bodies are compressed in sendHelper, where the compressed size can be counted
+        final Client client = ClientBuilder.newBuilder()
+                                           .register(JacksonFeature.class)
+                                           .build();
         client.property(ClientProperties.CONNECT_TIMEOUT, connectionTimeout);
         client.property(ClientProperties.READ_TIMEOUT, readTimeout);
-
-        this.apiResource = client.target(baseURL);
+        return client;
     }
 
     public void setBatchSizeLimit(int batchSizeLimit) {
         this.batchSizeLimit = batchSizeLimit;
     }
 
+    public int getBatchSizeLimit() {
+        return batchSizeLimit;
+    }
+
+    public void setThrottle(Throttle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * @return the {@link Throttle} of this client, its gauges report the time spent throttling
+     */
+    public Throttle getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * @return the {@link ClientStats} of this client, its gauges report what it has written
+     */
+    public ClientStats getStats() {
+        return stats;
+    }
+
+
+    /**
+     * @return the number of points to write per request, {@code 0} for all at once
+     */
+    protected int getEffectiveBatchSize() {
+        if (batchSizeLimit > 0 || throttle.isUnlimited()) {
+            return batchSizeLimit;
+        }
+        // a throttled client needs chunks to pace
+        return Throttle.DEFAULT_CHUNK_SIZE;
+    }
+
     /**
      * Send a metric to opentsdb
      *
@@ -148,22 +288,59 @@ public class OpenTsdb {
         // see at https://groups.google.com/forum/#!topic/opentsdb/U-0ak_v8qu0
         // we recommend batch size of 5 - 10 will be safer
         // alternatively you can enable chunked request
-        if (batchSizeLimit > 0 && metrics.size() > batchSizeLimit) {
-            final Set<OpenTsdbMetric> smallMetrics = new HashSet<OpenTsdbMetric>();
-            for (final OpenTsdbMetric metric : metrics) {
+        sendBatched(metrics, "/api/put");
+    }
+
+    /**
+     * @return {@code true} if this client can send {@link OpenTsdbHistogram} points
+     */
+    public boolean supportsHistograms() {
+        return true;
+    }
+
+    /**
+     * send a set of bucketed histograms to the opentsdb 2.4+ histogram endpoint
+     *
+     * @param histograms
+     */
+    public void sendHistograms(Set<OpenTsdbHistogram> histograms) {
+        sendBatched(histograms, "/api/histogram");
+    }
+
+    private <T> void sendBatched(Set<T> metrics, String path) {
+        final int batchSize = getEffectiveBatchSize();
+        final Throttle.Pacer pacer = throttle.start(metrics.size());
+        if (batchSize > 0 && metrics.size() > batchSize) {
+            final Set<T> smallMetrics = new HashSet<T>();
+            for (final T metric : metrics) {
                 smallMetrics.add(metric);
-                if (smallMetrics.size() >= batchSizeLimit) {
-                    sendHelper(smallMetrics);
+                if (smallMetrics.size() >= batchSize) {
+                    sendHelper(smallMetrics, path, pacer);
                     smallMetrics.clear();
                 }
             }
-            sendHelper(smallMetrics);
+            sendHelper(smallMetrics, path, pacer);
         } else {
-            sendHelper(metrics);
+            sendHelper(metrics, path, pacer);
         }
     }
 
-    private void sendHelper(Set<OpenTsdbMetric> metrics) {
+    /**
+     * @return the request body for {@code points}
+     */
+    static byte[] toJson(Set<?> points) throws IOException {
+        return mapper.writeValueAsBytes(points);
+    }
+
+    static byte[] gzip(byte[] body) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        final GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(body);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private void sendHelper(Set<?> metrics, final String path, Throttle.Pacer pacer) {
         /*
          * might want to bind to a specific version of the API.
          * according to: http://opentsdb.net/docs/build/html/api_http/index.html#api-versioning
@@ -171,12 +348,68 @@ public class OpenTsdb {
          * circle back on this if it's a problem.
          */
         if (!metrics.isEmpty()) {
+            final BatchSendEvent sendEvent = new BatchSendEvent();
+            long start = System.nanoTime();
             try {
-                final Entity<?> entity = Entity.entity(metrics, MediaType.APPLICATION_JSON);
-                apiResource.path("/api/put").request().post(entity);
+                final BatchEncodeEvent encodeEvent = new BatchEncodeEvent();
+                encodeEvent.begin();
+                final byte[] json = toJson(metrics);
+                final byte[] body = gzipEnabled ? gzip(json) : json;
+                encodeEvent.end();
+                if (encodeEvent.shouldCommit()) {
+                    encodeEvent.path = path;
+                    encodeEvent.points = metrics.size();
+                    encodeEvent.bytes = json.length;
+                    encodeEvent.wireBytes = body.length;
+                    encodeEvent.commit();
+                }
+                pacer.acquire(metrics.size(), json.length);
+                sendEvent.begin();
+                sendEvent.bytes = body.length;
+                start = System.nanoTime();
+                final Entity<?> entity = gzipEnabled
+                        ? Entity.entity(body, new Variant(MediaType.APPLICATION_JSON_TYPE, (String) null, "gzip"))
+                        : Entity.entity(body, MediaType.APPLICATION_JSON);
+                final int[] rejectedStatus = new int[1];
+                endpoints.execute(new EndpointPool.Call<WebTarget>() {
+                    @Override
+                    public void call(WebTarget apiResource) throws Exception {
+                        final Response response = apiResource.path(path).request().post(entity);
+                        if (response == null) {
+                            return;
+                        }
+                        try {
+                            final int status = response.getStatus();
+                            if (status >= 500) {
+                                throw new IOException("opentsdb endpoint responded with status " + status);
+                            }
+                            // a 4xx means the points themselves were rejected, another TSD won't take them either
+                            rejectedStatus[0] = status >= 400 ? status : 0;
+                        } finally {
+                            response.close();
+                        }
+                    }
+                });
+                if (rejectedStatus[0] != 0) {
+                    stats.recordFailure(metrics.size(), System.nanoTime() - start);
+                    sendEvent.error = "rejected with status " + rejectedStatus[0];
+                    logger.error("opentsdb rejected {} points with status {}", metrics.size(), rejectedStatus[0]);
+                } else {
+                    stats.recordBatch(metrics.size(), json.length, body.length, System.nanoTime() - start);
+                    sendEvent.success = true;
+                }
             } catch (Exception ex) {
+                stats.recordFailure(metrics.size(), System.nanoTime() - start);
+                sendEvent.error = ex.toString();
                 logger.error("send to opentsdb endpoint failed", ex);
             }
+            sendEvent.end();
+            if (sendEvent.shouldCommit()) {
+                sendEvent.transport = "http";
+                sendEvent.path = path;
+                sendEvent.points = metrics.size();
+                sendEvent.commit();
+            }
         }
     }
 
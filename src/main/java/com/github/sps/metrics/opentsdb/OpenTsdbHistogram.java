@@ -0,0 +1,271 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Representation of a bucketed histogram point for the OpenTSDB 2.4
+ * <a href="http://opentsdb.net/docs/build/html/api_http/histogram.html">/api/histogram</a> endpoint.
+ *
+ * Bucketed histograms with the same bucket bounds can be merged at query time, so percentiles
+ * can be computed across hosts.
+ */
+public class OpenTsdbHistogram {
+
+    /**
+     * Creates a Builder for a histogram name.
+     *
+     * @param name name can contain either a pure CodaHale metric name, or a string returned by
+     *             {@link OpenTsdbMetric#encodeTagsInName}. If it's the latter, the tags are parsed
+     *             out and passed to {@code withTags}.
+     * @return a {@link Builder}
+     */
+    public static Builder named(String name) {
+        if (!OpenTsdbMetric.hasEncodedTagInName(name)) {
+            return new Builder(name);
+        }
+        final TagCodec.DecodedName decoded = TagCodec.decodeName(name);
+        return new Builder(decoded.getMetric()).withTags(decoded.getTags());
+    }
+
+    /**
+     * Bucket bounds growing by {@code factor}: {@code start, start*factor, ...}, {@code count} bounds in all.
+     *
+     * @param start
+     * @param factor
+     * @param count
+     * @return the bucket bounds
+     */
+    public static double[] exponentialBounds(double start, double factor, int count) {
+        final double[] bounds = new double[count];
+        double bound = start;
+        for (int i = 0; i < count; i++) {
+            bounds[i] = bound;
+            bound *= factor;
+        }
+        return bounds;
+    }
+
+    private String metric;
+
+    private Long timestamp;
+
+    private TagSet tags = TagSet.EMPTY;
+
+    private double[] bounds = new double[0];
+
+    private long[] counts = new long[0];
+
+    private long underflow;
+
+    private long overflow;
+
+    private OpenTsdbHistogram() {
+    }
+
+    public static class Builder {
+
+        private final OpenTsdbHistogram histogram;
+
+        public Builder(String name) {
+            this.histogram = new OpenTsdbHistogram();
+            histogram.metric = name;
+        }
+
+        public OpenTsdbHistogram build() {
+            return histogram;
+        }
+
+        public Builder withTimestamp(Long timestamp) {
+            histogram.timestamp = timestamp;
+            return this;
+        }
+
+        public Builder withTags(Map<String, String> tags) {
+            histogram.tags = histogram.tags.with(tags);
+            return this;
+        }
+
+        /**
+         * Counts {@code values} into the buckets delimited by {@code bounds}. Values below the
+         * first bound are counted as underflow, values at or above the last as overflow.
+         *
+         * @param bounds ascending bucket bounds, {@code n} bounds make {@code n - 1} buckets
+         * @param values the observed values
+         * @return {@code this}
+         */
+        public Builder withValues(double[] bounds, double[] values) {
+            return withValues(bounds, values, values.length);
+        }
+
+        /**
+         * Counts a sample of {@code count} observations into the buckets delimited by
+         * {@code bounds}, scaling the sample so that the bucket, underflow and overflow counts
+         * add up to {@code count}. Reservoirs keep a bounded sample, and the TSD sums bucket
+         * counts across series, so unscaled counts would give a host with a million
+         * observations the weight of one with a thousand.
+         *
+         * @param bounds ascending bucket bounds, {@code n} bounds make {@code n - 1} buckets
+         * @param values a sample of the observed values
+         * @param count  the number of observations the sample stands for
+         * @return {@code this}
+         */
+        public Builder withValues(double[] bounds, double[] values, long count) {
+            // slot 0 is underflow, the last slot overflow, the buckets in between
+            final long[] sampled = new long[Math.max(0, bounds.length - 1) + 2];
+            for (double value : values) {
+                if (bounds.length == 0 || value < bounds[0]) {
+                    sampled[0]++;
+                } else if (value >= bounds[bounds.length - 1]) {
+                    sampled[sampled.length - 1]++;
+                } else {
+                    int index = Arrays.binarySearch(bounds, value);
+                    // an exact bound match starts that bucket, otherwise take the bucket below the insertion point
+                    index = index >= 0 ? index : -index - 2;
+                    sampled[index + 1]++;
+                }
+            }
+            final long[] scaled = scale(sampled, values.length, count);
+            return withBuckets(bounds, Arrays.copyOfRange(scaled, 1, scaled.length - 1),
+                    scaled[0], scaled[scaled.length - 1]);
+        }
+
+        /**
+         * Scales {@code counts} summing to {@code total} to sum to {@code target}, rounding by
+         * largest remainder.
+         */
+        private static long[] scale(long[] counts, long total, long target) {
+            if (total == 0 || total == target) {
+                return counts;
+            }
+            final long[] scaled = new long[counts.length];
+            final double[] remainders = new double[counts.length];
+            long assigned = 0;
+            for (int i = 0; i < counts.length; i++) {
+                final double exact = (double) counts[i] * target / total;
+                scaled[i] = (long) exact;
+                remainders[i] = exact - scaled[i];
+                assigned += scaled[i];
+            }
+            for (long left = target - assigned; left > 0; left--) {
+                int largest = 0;
+                for (int i = 1; i < remainders.length; i++) {
+                    if (remainders[i] > remainders[largest]) {
+                        largest = i;
+                    }
+                }
+                scaled[largest]++;
+                remainders[largest] = -1;
+            }
+            return scaled;
+        }
+
+        public Builder withBuckets(double[] bounds, long[] counts, long underflow, long overflow) {
+            if (bounds.length != counts.length + 1 && !(bounds.length == 0 && counts.length == 0)) {
+                throw new IllegalArgumentException("expected " + (bounds.length - 1) + " bucket counts, got " + counts.length);
+            }
+            histogram.bounds = bounds;
+            histogram.counts = counts;
+            histogram.underflow = underflow;
+            histogram.overflow = overflow;
+            return this;
+        }
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    /**
+     * @return the bucket counts keyed by {@code "lower,upper"} as expected by the HTTP API
+     */
+    public Map<String, Long> getBuckets() {
+        final Map<String, Long> buckets = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < counts.length; i++) {
+            buckets.put(bounds[i] + "," + bounds[i + 1], counts[i]);
+        }
+        return buckets;
+    }
+
+    public long getUnderflow() {
+        return underflow;
+    }
+
+    public long getOverflow() {
+        return overflow;
+    }
+
+    @JsonIgnore
+    public double[] getBounds() {
+        return bounds;
+    }
+
+    @JsonIgnore
+    public long[] getCounts() {
+        return counts;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof OpenTsdbHistogram)) {
+            return false;
+        }
+        final OpenTsdbHistogram rhs = (OpenTsdbHistogram) o;
+        return equals(metric, rhs.metric)
+                && equals(timestamp, rhs.timestamp)
+                && equals(tags, rhs.tags)
+                && Arrays.equals(bounds, rhs.bounds)
+                && Arrays.equals(counts, rhs.counts)
+                && underflow == rhs.underflow
+                && overflow == rhs.overflow;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(new Object[]{metric, timestamp, tags, Arrays.hashCode(counts), underflow, overflow});
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName()
+                + "->metric: " + metric
+                + ",buckets: " + getBuckets()
+                + ",underflow: " + underflow
+                + ",overflow: " + overflow
+                + ",timestamp: " + timestamp
+                + ",tags: " + tags;
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return (a == b) || (a != null && a.equals(b));
+    }
+}
@@ -15,12 +15,11 @@
  */
 package com.github.sps.metrics.opentsdb;
 
-import java.util.Arrays;
-import java.util.HashMap;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
 import java.util.Map;
-import java.util.Scanner;
 import java.lang.IllegalArgumentException;
-import java.util.NoSuchElementException;
 
 /**
  * Representation of a metric.
@@ -29,6 +28,7 @@ import java.util.NoSuchElementException;
  * @author Adam Lugowski adam.lugowski@turn.com
  *
  */
+@JsonSerialize(using = OpenTsdbMetricSerializer.class)
 public class OpenTsdbMetric {
 	
 	
@@ -46,24 +46,7 @@ public class OpenTsdbMetric {
      * @throws IllegalArgumentException if the tag string is corrupted.
      */
     public static Map<String, String> parseTags(final String tagString) throws IllegalArgumentException {
-        // delimit by whitespace or '='
-        Scanner scanner = new Scanner(tagString).useDelimiter("\\s+|=");
-
-        Map<String, String> tagMap = new HashMap<String, String>();
-        try {
-            while (scanner.hasNext()) {
-                String tagName = scanner.next();
-                String tagValue = scanner.next();
-                tagMap.put(tagName, tagValue);
-            }
-        } catch (NoSuchElementException e) {
-            // The tag string is corrupted.
-            throw new IllegalArgumentException("Invalid tag string '" + tagString + "'");
-        } finally {
-            scanner.close();
-        }
-
-        return tagMap;
+        return TagCodec.decodeTags(tagString);
     }
 
     /**
@@ -73,18 +56,7 @@ public class OpenTsdbMetric {
      * @return a space-delimited string of key-value pairs. For example, {@code "key1=value1 key_n=value_n"}
      */
     public static String formatTags(final Map<String, String> tagMap) {
-        StringBuilder stringBuilder = new StringBuilder();
-        String delimeter = "";
-
-        for (Map.Entry<String, String> tag : tagMap.entrySet()) {
-            stringBuilder.append(delimeter)
-                    .append(sanitize(tag.getKey()))
-                    .append("=")
-                    .append(sanitize(tag.getValue()));
-            delimeter = " ";
-        }
-
-        return stringBuilder.toString();
+        return TagCodec.encodeTags(tagMap);
     }
 
     /**
@@ -117,7 +89,7 @@ public class OpenTsdbMetric {
      * @return A metric name encoded with tags.
      */
     public static String encodeTagsInName(final String name, final Map<String, String> tags) {
-        return String.format("TAG(%s)%s", formatTags(tags), sanitize(name));
+        return TagCodec.encodeName(name, tags);
     }
 
     /**
@@ -177,25 +149,32 @@ public class OpenTsdbMetric {
             return new Builder(name);
         }
 
-        // parse out the tags
-        int tagEnd = name.lastIndexOf(')');
-        if (tagEnd == -1) {
-            throw new IllegalArgumentException("Tag definition missing closing parenthesis for metric '" + name + "'");
-        }
-
-        String tagString = name.substring(4, tagEnd);
-        name = name.substring(tagEnd+1);
+        // the same names come back every report, their tags are parsed once
+        final TagCodec.DecodedName decoded = TagCodec.decodeName(name);
+        return new Builder(decoded.getMetric()).withTags(decoded.getTags());
+    }
 
-        return new Builder(name).withTags(parseTags(tagString));
+    /**
+     * Which slot holds the value of a metric. Integral and floating point values are kept as
+     * primitives so building and encoding a report doesn't box them.
+     */
+    public enum ValueType {
+        LONG, DOUBLE, OBJECT
     }
 
     private String metric;
 
     private Long timestamp;
 
+    private ValueType valueType = ValueType.OBJECT;
+
+    private long longValue;
+
+    private double doubleValue;
+
     private Object value;
 
-    private Map<String, String> tags = new HashMap<String, String>();
+    private TagSet tags = TagSet.EMPTY;
 
     @Override
     public boolean equals(Object o) {
@@ -212,13 +191,38 @@ public class OpenTsdbMetric {
 
         return equals(metric, rhs.metric)
                 && equals(timestamp, rhs.timestamp)
-                && equals(value, rhs.value)
+                && valueType == rhs.valueType
+                && valueEquals(rhs)
                 && equals(tags, rhs.tags);
     }
 
+    private boolean valueEquals(OpenTsdbMetric rhs) {
+        // only the slot of the value type is compared, the others are leftovers of earlier values
+        switch (valueType) {
+            case LONG:
+                return longValue == rhs.longValue;
+            case DOUBLE:
+                return Double.doubleToLongBits(doubleValue) == Double.doubleToLongBits(rhs.doubleValue);
+            default:
+                return equals(value, rhs.value);
+        }
+    }
+
     @Override
     public int hashCode() {
-        return Arrays.hashCode(new Object[]{metric, timestamp, value, tags});
+        int result = metric == null ? 0 : metric.hashCode();
+        result = 31 * result + (timestamp == null ? 0 : timestamp.hashCode());
+        switch (valueType) {
+            case LONG:
+                result = 31 * result + Long.hashCode(longValue);
+                break;
+            case DOUBLE:
+                result = 31 * result + Double.hashCode(doubleValue);
+                break;
+            default:
+                result = 31 * result + (value == null ? 0 : value.hashCode());
+        }
+        return 31 * result + tags.hashCode();
     }
 
     public static class Builder {
@@ -234,20 +238,47 @@ public class OpenTsdbMetric {
             return metric;
         }
 
+        /**
+         * @param value the value, boxed integral numbers and doubles are stored as primitives
+         * @return {@code this}
+         */
         public Builder withValue(Object value) {
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                return withValue(((Number) value).longValue());
+            }
+            if (value instanceof Double) {
+                return withValue(((Double) value).doubleValue());
+            }
+            metric.valueType = ValueType.OBJECT;
+            metric.longValue = 0;
+            metric.doubleValue = 0;
             metric.value = value;
             return this;
         }
 
+        public Builder withValue(long value) {
+            metric.valueType = ValueType.LONG;
+            metric.longValue = value;
+            metric.doubleValue = 0;
+            metric.value = null;
+            return this;
+        }
+
+        public Builder withValue(double value) {
+            metric.valueType = ValueType.DOUBLE;
+            metric.longValue = 0;
+            metric.doubleValue = value;
+            metric.value = null;
+            return this;
+        }
+
         public Builder withTimestamp(Long timestamp) {
             metric.timestamp = timestamp;
             return this;
         }
 
         public Builder withTags(Map<String, String> tags) {
-            if (tags != null) {
-                metric.tags.putAll(tags);
-            }
+            metric.tags = metric.tags.with(tags);
             return this;
         }
     }
@@ -274,7 +305,7 @@ public class OpenTsdbMetric {
     public String toString() {
         return this.getClass().getSimpleName()
                 + "->metric: " + metric
-                + ",value: " + value
+                + ",value: " + getValue()
                 + ",timestamp: " + timestamp
                 + ",tags: " + tags;
     }
@@ -288,7 +319,7 @@ public class OpenTsdbMetric {
      * @return {@code name} where unsupported characters are replaced with {@code "-"}.
      */
 	public static String sanitize(String name) {
-		return name.replaceAll("[^a-zA-Z0-9\\-\\_\\.\\/]", "-");
+		return TagCodec.sanitize(name);
 	}
 
     /**
@@ -307,11 +338,41 @@ public class OpenTsdbMetric {
      * @return a string version of this metric compatible with the telnet reporter.
      */
 	public String toTelnetPutString() {
-		String tagString = formatTags(tags);
-
-		return String.format("put %s %d %s %s%n", metric, timestamp, value, tagString);
+		return appendTelnetPutString(new StringBuilder(64 + tags.getEncoded().length())).toString();
 	}
 
+    /**
+     * Appends {@link #toTelnetPutString()} to {@code builder}, writing primitive values without boxing them.
+     *
+     * @param builder the builder to append to
+     * @return {@code builder}
+     */
+    public StringBuilder appendTelnetPutString(StringBuilder builder) {
+        builder.append("put ").append(metric).append(' ');
+        if (timestamp == null) {
+            builder.append((Object) null);
+        } else {
+            builder.append(timestamp.longValue());
+        }
+        builder.append(' ');
+        appendValue(builder);
+        return builder.append(' ').append(tags.getEncoded()).append(System.lineSeparator());
+    }
+
+    private void appendValue(StringBuilder builder) {
+        switch (valueType) {
+            case LONG:
+                builder.append(longValue);
+                break;
+            case DOUBLE:
+                // shortest representation that reads back as the same double
+                builder.append(doubleValue);
+                break;
+            default:
+                builder.append(value);
+        }
+    }
+
     public String getMetric() {
         return metric;
     }
@@ -320,14 +381,51 @@ public class OpenTsdbMetric {
         return timestamp;
     }
 
+    /**
+     * @return the value, boxed if it is held in a primitive slot
+     */
     public Object getValue() {
-        return value;
+        switch (valueType) {
+            case LONG:
+                return longValue;
+            case DOUBLE:
+                return doubleValue;
+            default:
+                return value;
+        }
     }
 
+    public ValueType getValueType() {
+        return valueType;
+    }
+
+    /**
+     * @return the value if {@link #getValueType()} is {@code LONG}
+     */
+    public long getLongValue() {
+        return longValue;
+    }
+
+    /**
+     * @return the value if {@link #getValueType()} is {@code DOUBLE}
+     */
+    public double getDoubleValue() {
+        return doubleValue;
+    }
+
+    /**
+     * @return the tags, an immutable {@link TagSet} shared with the other points of the series;
+     * copy it to modify
+     */
     public Map<String, String> getTags() {
         return tags;
     }
 
+    @JsonIgnore
+    public TagSet getTagSet() {
+        return tags;
+    }
+
     private boolean equals(Object a, Object b) {
         return (a == b) || (a != null && a.equals(b));
     }
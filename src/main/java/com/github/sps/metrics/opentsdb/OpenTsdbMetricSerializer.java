@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+
+/**
+ * Writes an {@link OpenTsdbMetric} in the format of the {@code /api/put} endpoint, with primitive
+ * values written as JSON numbers directly instead of being boxed and reflected on.
+ */
+class OpenTsdbMetricSerializer extends StdSerializer<OpenTsdbMetric> {
+
+    private static final long serialVersionUID = 1L;
+
+    OpenTsdbMetricSerializer() {
+        super(OpenTsdbMetric.class);
+    }
+
+    @Override
+    public void serialize(OpenTsdbMetric metric, JsonGenerator gen, SerializerProvider provider) throws IOException {
+        gen.writeStartObject();
+        gen.writeStringField("metric", metric.getMetric());
+        final Long timestamp = metric.getTimestamp();
+        if (timestamp == null) {
+            gen.writeNullField("timestamp");
+        } else {
+            gen.writeNumberField("timestamp", timestamp.longValue());
+        }
+        gen.writeFieldName("value");
+        switch (metric.getValueType()) {
+            case LONG:
+                gen.writeNumber(metric.getLongValue());
+                break;
+            case DOUBLE:
+                gen.writeNumber(metric.getDoubleValue());
+                break;
+            default:
+                provider.defaultSerializeValue(metric.getValue(), gen);
+        }
+        final TagSet tags = metric.getTagSet();
+        gen.writeObjectFieldStart("tags");
+        for (int i = 0; i < tags.size(); i++) {
+            gen.writeStringField(tags.keyAt(i), tags.valueAt(i));
+        }
+        gen.writeEndObject();
+        gen.writeEndObject();
+    }
+}
@@ -22,10 +22,16 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Clock;
 
 /**
  * Same as the {@link OpenTsdb} class in this package, but uses the
@@ -38,6 +44,7 @@ import java.util.Set;
  */
 public class OpenTsdbTelnet extends OpenTsdb {
 	private static final Logger logger = LoggerFactory.getLogger(OpenTsdbTelnet.class);
+	private static final int WRITE_BUFFER_SIZE = 8192;
 
 	protected interface WriterFactory {
 		Writer getWriter() throws java.io.IOException;
@@ -65,9 +72,27 @@ public class OpenTsdbTelnet extends OpenTsdb {
 			this.port = port;
 		}
 
+		@Override
+		public String toString() {
+			return host + ":" + port;
+		}
+
 		@Override
 		public Writer getWriter() throws java.io.IOException {
-			Socket socket = new Socket(host, port, null, 0);
+			final TelnetConnectEvent event = new TelnetConnectEvent();
+			event.begin();
+			Socket socket = null;
+			try {
+				socket = new Socket(host, port, null, 0);
+			} finally {
+				event.end();
+				if (event.shouldCommit()) {
+					event.host = host;
+					event.port = port;
+					event.success = socket != null;
+					event.commit();
+				}
+			}
 			Writer socketWriter = new OutputStreamWriter(socket.getOutputStream(), Charset.forName("US-ASCII"));
 			return new BufferedWriter(socketWriter);
 		}
@@ -81,7 +106,21 @@ public class OpenTsdbTelnet extends OpenTsdb {
 	 * @return a {@link Builder}
 	 */
 	public static Builder forService(String host, int port) {
-		return new Builder(new SocketWriterFactory(host, port));
+		return new Builder(Collections.<WriterFactory>singletonList(new SocketWriterFactory(host, port)));
+	}
+
+	/**
+	 * Initiate a client {@link Builder} that spreads writes over several opentsdb servers.
+	 *
+	 * @param addresses the {@code host:port} of each opentsdb server
+	 * @return a {@link Builder}
+	 */
+	public static Builder forServices(List<InetSocketAddress> addresses) {
+		List<WriterFactory> writerFactories = new ArrayList<WriterFactory>(addresses.size());
+		for (InetSocketAddress address : addresses) {
+			writerFactories.add(new SocketWriterFactory(address.getHostString(), address.getPort()));
+		}
+		return new Builder(writerFactories);
 	}
 
 	/**
@@ -91,25 +130,88 @@ public class OpenTsdbTelnet extends OpenTsdb {
 	 * @return a {@link Builder}
 	 */
 	public static Builder forWriter(Writer writer) {
-		return new Builder(new SingleWriterFactory(writer));
+		return new Builder(Collections.<WriterFactory>singletonList(new SingleWriterFactory(writer)));
 	}
 
-	private WriterFactory writerFactory;
+	private final EndpointPool<WriterFactory> writerFactories;
 
 	public static class Builder {
-		private WriterFactory writerFactory;
+		private final List<WriterFactory> writerFactories;
+		private EndpointPool.Balancing balancing = EndpointPool.Balancing.ROUND_ROBIN;
+		private int ejectAfterFailures = EndpointPool.DEFAULT_EJECT_AFTER_FAILURES;
+		private long ejectionTimeMs = EndpointPool.DEFAULT_EJECTION_TIME_MS;
+		private double pointsPerSecond = 0;
+		private double bytesPerSecond = 0;
+		private long smoothingWindowMs = 0;
+
+		private Builder(List<WriterFactory> writerFactories) {
+			this.writerFactories = writerFactories;
+		}
 
-		private Builder(WriterFactory writerFactory) {
-			this.writerFactory = writerFactory;
+		/**
+		 * How to spread writes when more than one server is configured.
+		 *
+		 * @param balancing
+		 * @return {@code this}
+		 */
+		public Builder withLoadBalancing(EndpointPool.Balancing balancing) {
+			this.balancing = balancing;
+			return this;
+		}
+
+		/**
+		 * Eject a server for {@code ejectionTime} after {@code ejectAfterFailures} consecutive failed
+		 * writes. Once the ejection expires the server is probed again by the next write.
+		 *
+		 * @param ejectAfterFailures
+		 * @param ejectionTime
+		 * @param unit
+		 * @return {@code this}
+		 */
+		public Builder withEjection(int ejectAfterFailures, long ejectionTime, TimeUnit unit) {
+			this.ejectAfterFailures = ejectAfterFailures;
+			this.ejectionTimeMs = unit.toMillis(ejectionTime);
+			return this;
+		}
+
+		/**
+		 * Limit the rate at which points are written. A burst of one second's worth is allowed.
+		 *
+		 * @param pointsPerSecond maximum points per second, {@code 0} for no limit
+		 * @param bytesPerSecond  maximum bytes per second, {@code 0} for no limit
+		 * @return {@code this}
+		 */
+		public Builder withRateLimit(double pointsPerSecond, double bytesPerSecond) {
+			this.pointsPerSecond = pointsPerSecond;
+			this.bytesPerSecond = bytesPerSecond;
+			return this;
+		}
+
+		/**
+		 * Spread the points of each report over {@code fraction} of the reporting period instead
+		 * of writing them all at once.
+		 *
+		 * @param period   the reporting period
+		 * @param unit     the unit of {@code period}
+		 * @param fraction the share of the period to spread the points over, e.g. {@code 0.5}
+		 * @return {@code this}
+		 */
+		public Builder withSmoothing(long period, TimeUnit unit, double fraction) {
+			this.smoothingWindowMs = (long) (unit.toMillis(period) * fraction);
+			return this;
 		}
 
 		public OpenTsdbTelnet create() {
-			return new OpenTsdbTelnet(writerFactory);
+			OpenTsdbTelnet openTsdb = new OpenTsdbTelnet(new EndpointPool<WriterFactory>(writerFactories, balancing,
+					ejectAfterFailures, ejectionTimeMs, TimeUnit.MILLISECONDS, Clock.defaultClock()));
+			openTsdb.setThrottle(new Throttle(pointsPerSecond, bytesPerSecond, smoothingWindowMs,
+					TimeUnit.MILLISECONDS, Clock.defaultClock()));
+			return openTsdb;
 		}
 	}
 
-	private OpenTsdbTelnet(WriterFactory writerFactory) {
-		this.writerFactory = writerFactory;
+	private OpenTsdbTelnet(EndpointPool<WriterFactory> writerFactories) {
+		this.writerFactories = writerFactories;
 	}
 
 	/**
@@ -128,20 +230,48 @@ public class OpenTsdbTelnet extends OpenTsdb {
 	 * @param metrics
 	 */
 	@Override
-	public void send(Set<OpenTsdbMetric> metrics) {
+	public void send(final Set<OpenTsdbMetric> metrics) {
 		if (metrics.isEmpty())
 			return;
 
-		Writer writer = null;
+		final BatchSendEvent event = new BatchSendEvent();
+		event.begin();
+		final long start = System.nanoTime();
+		final long[] written = new long[1];
 		try {
-			writer = this.writerFactory.getWriter();
-			write(metrics, writer);
+			// a batch that fails part way through is written again in full to the next server,
+			// the TSD treats the repeated points as duplicates of the same value
+			writerFactories.execute(new EndpointPool.Call<WriterFactory>() {
+				@Override
+				public void call(WriterFactory writerFactory) throws Exception {
+					written[0] = send(metrics, writerFactory);
+				}
+			});
+			getStats().recordBatch(metrics.size(), written[0], written[0], System.nanoTime() - start);
+			event.success = true;
 		} catch (Exception e) {
+			getStats().recordFailure(metrics.size(), System.nanoTime() - start);
+			event.error = e.toString();
 			if (logger.isDebugEnabled()) {
 				logger.debug("Error writing codahale metrics", e);
 			} else {
 				logger.warn("Error writing codahale metrics: {}", e.getMessage());
 			}
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.transport = "telnet";
+			event.points = metrics.size();
+			event.bytes = written[0];
+			event.commit();
+		}
+	}
+
+	private long send(Set<OpenTsdbMetric> metrics, WriterFactory writerFactory) throws IOException {
+		Writer writer = null;
+		try {
+			writer = writerFactory.getWriter();
+			return writePoints(metrics, writer);
 		} finally {
 			if (writer != null) {
 				try {
@@ -153,9 +283,92 @@ public class OpenTsdbTelnet extends OpenTsdb {
 		}
 	}
 
+	/**
+	 * The telnet API only takes histograms in their binary encoding, use the HTTP client for those.
+	 *
+	 * @return {@code false}
+	 */
+	@Override
+	public boolean supportsHistograms() {
+		return false;
+	}
+
+	@Override
+	public void sendHistograms(Set<OpenTsdbHistogram> histograms) {
+		throw new UnsupportedOperationException("histograms are only supported by the HTTP API");
+	}
+
 	public void write(Set<OpenTsdbMetric> metrics, Writer writer) throws IOException {
+		writePoints(metrics, writer);
+	}
+
+	/**
+	 * @return the number of characters written, one byte each as put lines are ASCII
+	 */
+	private long writePoints(Set<OpenTsdbMetric> metrics, Writer writer) throws IOException {
+		final TelnetWriteEvent event = new TelnetWriteEvent();
+		event.begin();
+		long written = 0;
+		boolean success = false;
+		try {
+			written = writeLines(metrics, writer);
+			success = true;
+			return written;
+		} finally {
+			event.end();
+			if (event.shouldCommit()) {
+				event.points = metrics.size();
+				event.bytes = written;
+				event.success = success;
+				event.commit();
+			}
+		}
+	}
+
+	private long writeLines(Set<OpenTsdbMetric> metrics, Writer writer) throws IOException {
+		long written = 0;
+		final Throttle throttle = getThrottle();
+		if (throttle.isUnlimited()) {
+			final StringBuilder buffer = new StringBuilder(WRITE_BUFFER_SIZE + 256);
+			for (final OpenTsdbMetric metric : metrics) {
+				metric.appendTelnetPutString(buffer);
+				if (buffer.length() >= WRITE_BUFFER_SIZE) {
+					written += buffer.length();
+					writer.write(buffer.toString());
+					buffer.setLength(0);
+				}
+			}
+			if (buffer.length() > 0) {
+				written += buffer.length();
+				writer.write(buffer.toString());
+			}
+			return written;
+		}
+
+		// throttled writes go out in chunks, flushed before waiting for the next one
+		final Throttle.Pacer pacer = throttle.start(metrics.size());
+		final int chunkSize = getEffectiveBatchSize();
+		final StringBuilder chunk = new StringBuilder();
+		int points = 0;
 		for (final OpenTsdbMetric metric : metrics) {
-			writer.write(metric.toTelnetPutString());
+			metric.appendTelnetPutString(chunk);
+			if (++points >= chunkSize) {
+				written += writeChunk(writer, pacer, chunk, points);
+				points = 0;
+			}
 		}
+		if (points > 0) {
+			written += writeChunk(writer, pacer, chunk, points);
+		}
+		return written;
+	}
+
+	private int writeChunk(Writer writer, Throttle.Pacer pacer, StringBuilder chunk, int points) throws IOException {
+		final int length = chunk.length();
+		pacer.acquire(points, length);
+		writer.write(chunk.toString());
+		writer.flush();
+		chunk.setLength(0);
+		return length;
 	}
 }
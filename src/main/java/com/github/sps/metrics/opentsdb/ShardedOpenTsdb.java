@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An {@link OpenTsdb} client that shards series across several TSDs.
+ *
+ * Every point is routed by a consistent hash of its metric name and tags, so a series is always
+ * written to the same TSD and that TSD's write cache stays warm. Each TSD keeps its own client,
+ * with its own batching and connections. Adding or removing a TSD only moves the series of the
+ * ring segments it owns.
+ */
+public class ShardedOpenTsdb extends OpenTsdb {
+
+    /**
+     * Initiate a Builder for a set of TSD clients keyed by a stable node id.
+     *
+     * @param nodes the clients of each TSD, keyed by e.g. their url
+     * @return a {@link Builder}
+     */
+    public static Builder forNodes(Map<String, ? extends OpenTsdb> nodes) {
+        return new Builder(nodes);
+    }
+
+    /**
+     * Initiate a Builder with a plain HTTP client per base url.
+     *
+     * @param baseUrls the base urls of the TSDs, also used as their node ids
+     * @return a {@link Builder}
+     */
+    public static Builder forServiceUrls(String... baseUrls) {
+        final Map<String, OpenTsdb> nodes = new LinkedHashMap<String, OpenTsdb>();
+        for (String baseUrl : baseUrls) {
+            nodes.put(baseUrl, OpenTsdb.forService(baseUrl).create());
+        }
+        return new Builder(nodes);
+    }
+
+    public static class Builder {
+        private final Map<String, OpenTsdb> nodes;
+        private int virtualNodes = ConsistentHashRing.DEFAULT_VIRTUAL_NODES;
+
+        private Builder(Map<String, ? extends OpenTsdb> nodes) {
+            this.nodes = new LinkedHashMap<String, OpenTsdb>(nodes);
+        }
+
+        /**
+         * Number of ring positions per TSD. More positions spread series more evenly.
+         *
+         * @param virtualNodes
+         * @return {@code this}
+         */
+        public Builder withVirtualNodes(int virtualNodes) {
+            this.virtualNodes = virtualNodes;
+            return this;
+        }
+
+        public ShardedOpenTsdb create() {
+            final ShardedOpenTsdb sharded = new ShardedOpenTsdb(new ConsistentHashRing<OpenTsdb>(virtualNodes));
+            for (Map.Entry<String, OpenTsdb> node : nodes.entrySet()) {
+                sharded.addNode(node.getKey(), node.getValue());
+            }
+            return sharded;
+        }
+    }
+
+    private final ConsistentHashRing<OpenTsdb> ring;
+
+    private ShardedOpenTsdb(ConsistentHashRing<OpenTsdb> ring) {
+        this.ring = ring;
+    }
+
+    /**
+     * Add a TSD to the ring, or replace the client of an existing node id. The node takes the
+     * batch size limit of this client, and its throttle if one is set. The node keeps its own
+     * {@link #getStats() stats}, and the stats of this client sum up those of all its nodes.
+     *
+     * @param id   a stable identifier of the TSD
+     * @param node the client for the TSD
+     */
+    public synchronized void addNode(String id, OpenTsdb node) {
+        node.setBatchSizeLimit(getBatchSizeLimit());
+        if (!getThrottle().isUnlimited()) {
+            node.setThrottle(getThrottle());
+        }
+        final OpenTsdb previous = ring.getMembers().get(id);
+        if (previous != null && previous != node) {
+            detachStats(previous);
+        }
+        final ClientStats nodeStats = node.getStats();
+        if (nodeStats != null) {
+            nodeStats.setParent(getStats());
+        }
+        ring.add(id, node);
+    }
+
+    /**
+     * Remove a TSD from the ring. Its series are spread over the remaining nodes.
+     *
+     * @param id
+     * @return the removed client, or {@code null}
+     */
+    public synchronized OpenTsdb removeNode(String id) {
+        final OpenTsdb removed = ring.remove(id);
+        if (removed != null) {
+            detachStats(removed);
+        }
+        return removed;
+    }
+
+    private void detachStats(OpenTsdb node) {
+        final ClientStats nodeStats = node.getStats();
+        if (nodeStats != null && nodeStats.getParent() == getStats()) {
+            nodeStats.setParent(null);
+        }
+    }
+
+    public Map<String, OpenTsdb> getNodes() {
+        return ring.getMembers();
+    }
+
+    @Override
+    public void setBatchSizeLimit(int batchSizeLimit) {
+        super.setBatchSizeLimit(batchSizeLimit);
+        for (OpenTsdb node : ring.getMembers().values()) {
+            node.setBatchSizeLimit(batchSizeLimit);
+        }
+    }
+
+    /**
+     * Sets the throttle of every TSD client. They share it, so its limits apply to all TSDs
+     * together.
+     */
+    @Override
+    public void setThrottle(Throttle throttle) {
+        super.setThrottle(throttle);
+        for (OpenTsdb node : ring.getMembers().values()) {
+            node.setThrottle(throttle);
+        }
+    }
+
+    @Override
+    public void send(OpenTsdbMetric metric) {
+        send(Collections.singleton(metric));
+    }
+
+    /**
+     * Split the metrics by owning TSD and hand each TSD its share.
+     *
+     * @param metrics
+     */
+    @Override
+    public void send(Set<OpenTsdbMetric> metrics) {
+        if (metrics.isEmpty()) {
+            return;
+        }
+        if (ring.isEmpty()) {
+            getStats().recordDropped(metrics.size());
+            return;
+        }
+        final Map<OpenTsdb, Set<OpenTsdbMetric>> shards = new IdentityHashMap<OpenTsdb, Set<OpenTsdbMetric>>();
+        for (OpenTsdbMetric metric : metrics) {
+            final OpenTsdb node = ring.get(seriesHash(metric));
+            Set<OpenTsdbMetric> shard = shards.get(node);
+            if (shard == null) {
+                shard = new HashSet<OpenTsdbMetric>();
+                shards.put(node, shard);
+            }
+            shard.add(metric);
+        }
+        for (Map.Entry<OpenTsdb, Set<OpenTsdbMetric>> shard : shards.entrySet()) {
+            shard.getKey().send(shard.getValue());
+        }
+    }
+
+    /**
+     * @return {@code true} if every TSD client supports histograms
+     */
+    @Override
+    public boolean supportsHistograms() {
+        for (OpenTsdb node : ring.getMembers().values()) {
+            if (!node.supportsHistograms()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Split the histograms by owning TSD and hand each TSD its share.
+     *
+     * @param histograms
+     */
+    @Override
+    public void sendHistograms(Set<OpenTsdbHistogram> histograms) {
+        if (histograms.isEmpty()) {
+            return;
+        }
+        if (ring.isEmpty()) {
+            getStats().recordDropped(histograms.size());
+            return;
+        }
+        final Map<OpenTsdb, Set<OpenTsdbHistogram>> shards = new IdentityHashMap<OpenTsdb, Set<OpenTsdbHistogram>>();
+        for (OpenTsdbHistogram histogram : histograms) {
+            final OpenTsdb node = ring.get(seriesHash(histogram.getMetric(), histogram.getTags()));
+            Set<OpenTsdbHistogram> shard = shards.get(node);
+            if (shard == null) {
+                shard = new HashSet<OpenTsdbHistogram>();
+                shards.put(node, shard);
+            }
+            shard.add(histogram);
+        }
+        for (Map.Entry<OpenTsdb, Set<OpenTsdbHistogram>> shard : shards.entrySet()) {
+            shard.getKey().sendHistograms(shard.getValue());
+        }
+    }
+
+    /**
+     * Hash of the series identity, the metric name plus its tags. Tags are combined with an order
+     * independent sum so no sorted copy of the tag map is needed.
+     *
+     * @param metric
+     * @return the ring position of the series
+     */
+    static long seriesHash(OpenTsdbMetric metric) {
+        return seriesHash(metric.getMetric(), metric.getTags());
+    }
+
+    static long seriesHash(String metric, Map<String, String> tags) {
+        long hash = ConsistentHashRing.fnv(0xcbf29ce484222325L, metric);
+        long tagsHash = 0;
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            long tagHash = ConsistentHashRing.fnv(0xcbf29ce484222325L, tag.getKey());
+            tagHash = ConsistentHashRing.fnv(tagHash ^ '=', tag.getValue());
+            tagsHash += ConsistentHashRing.mix(tagHash);
+        }
+        return ConsistentHashRing.mix(hash ^ tagsHash);
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Single pass, regex free encoding of tag strings and of metric names carrying their tags as
+ * {@code TAG(key=value ...)name}. The reporter decodes the same names on every report, so decoded
+ * names are kept in a bounded cache.
+ */
+public final class TagCodec {
+
+    /**
+     * The number of decoded names cached. The cache is emptied when it fills up.
+     */
+    public static final int NAME_CACHE_SIZE = 10000;
+
+    private static final String TAG_PREFIX = "TAG(";
+
+    private static final ConcurrentHashMap<String, DecodedName> names = new ConcurrentHashMap<String, DecodedName>();
+
+    /**
+     * A metric name with its encoded tags parsed out.
+     */
+    public static final class DecodedName {
+        private final String metric;
+        private final TagSet tags;
+
+        private DecodedName(String metric, TagSet tags) {
+            this.metric = metric;
+            this.tags = tags;
+        }
+
+        public String getMetric() {
+            return metric;
+        }
+
+        public TagSet getTags() {
+            return tags;
+        }
+    }
+
+    private TagCodec() {
+    }
+
+    /**
+     * @param c a character
+     * @return {@code true} if {@code c} may appear in a metric name, tag key or tag value
+     */
+    static boolean isAllowed(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '_' || c == '.' || c == '/';
+    }
+
+    /**
+     * Replaces the characters not allowed by TSDB with {@code "-"}.
+     *
+     * @param name a metric name, tag key, or tag value
+     * @return {@code name} itself if it is valid, a sanitized copy otherwise
+     */
+    public static String sanitize(String name) {
+        final int length = name.length();
+        int i = 0;
+        while (i < length && isAllowed(name.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            return name;
+        }
+        final StringBuilder builder = new StringBuilder(length).append(name, 0, i);
+        while (i < length) {
+            final char c = name.charAt(i++);
+            if (isAllowed(c)) {
+                builder.append(c);
+            } else {
+                builder.append('-');
+                // one replacement per code point
+                if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(name.charAt(i))) {
+                    i++;
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @param tags a {@link Map} of tags
+     * @return the sanitized tags as a space-delimited string of key-value pairs
+     */
+    public static String encodeTags(Map<String, String> tags) {
+        if (tags instanceof TagSet) {
+            return ((TagSet) tags).getEncoded();
+        }
+        final StringBuilder builder = new StringBuilder(tags.size() * 16);
+        appendTags(builder, tags);
+        return builder.toString();
+    }
+
+    private static void appendTags(StringBuilder builder, Map<String, String> tags) {
+        if (tags instanceof TagSet) {
+            builder.append(((TagSet) tags).getEncoded());
+            return;
+        }
+        boolean first = true;
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (!first) {
+                builder.append(' ');
+            }
+            builder.append(sanitize(tag.getKey())).append('=').append(sanitize(tag.getValue()));
+            first = false;
+        }
+    }
+
+    /**
+     * Parses a string of key-value pairs such as {@code "key1=value1 key_n=value_n"}. Pairs are
+     * separated by whitespace, keys and values by {@code '='} or whitespace.
+     *
+     * @param tagString the tags
+     * @return the parsed tags
+     * @throws IllegalArgumentException if a key has no value
+     */
+    public static Map<String, String> decodeTags(String tagString) throws IllegalArgumentException {
+        final Map<String, String> tags = new HashMap<String, String>();
+        final int length = tagString.length();
+        String key = null;
+        int i = 0;
+        while (true) {
+            while (i < length && isDelimiter(tagString.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            final int start = i;
+            while (i < length && !isDelimiter(tagString.charAt(i))) {
+                i++;
+            }
+            final String token = tagString.substring(start, i);
+            if (key == null) {
+                key = token;
+            } else {
+                tags.put(key, token);
+                key = null;
+            }
+        }
+        if (key != null) {
+            throw new IllegalArgumentException("Invalid tag string '" + tagString + "'");
+        }
+        return tags;
+    }
+
+    private static boolean isDelimiter(char c) {
+        return c == '=' || Character.isWhitespace(c);
+    }
+
+    /**
+     * @param name a metric name
+     * @param tags a {@link Map} of tags
+     * @return {@code TAG(tags)name}, tags and name sanitized
+     */
+    public static String encodeName(String name, Map<String, String> tags) {
+        final StringBuilder builder = new StringBuilder(name.length() + 16 * tags.size() + 5).append(TAG_PREFIX);
+        appendTags(builder, tags);
+        return builder.append(')').append(sanitize(name)).toString();
+    }
+
+    /**
+     * @param name a metric name, optionally carrying tags as {@code TAG(tags)name}
+     * @return the name and tags, from the cache if {@code name} was decoded before
+     * @throws IllegalArgumentException if the tags are not closed by a parenthesis or are corrupted
+     */
+    public static DecodedName decodeName(String name) throws IllegalArgumentException {
+        DecodedName decoded = names.get(name);
+        if (decoded == null) {
+            decoded = parseName(name);
+            if (names.size() >= NAME_CACHE_SIZE) {
+                names.clear();
+            }
+            names.put(name, decoded);
+        }
+        return decoded;
+    }
+
+    private static DecodedName parseName(String name) {
+        if (!name.startsWith(TAG_PREFIX)) {
+            return new DecodedName(name, TagSet.EMPTY);
+        }
+        final int tagEnd = name.lastIndexOf(')');
+        if (tagEnd == -1) {
+            throw new IllegalArgumentException("Tag definition missing closing parenthesis for metric '" + name + "'");
+        }
+        return new DecodedName(name.substring(tagEnd + 1), TagSet.of(decodeTags(name.substring(TAG_PREFIX.length(), tagEnd))));
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * An immutable set of tags, sorted by key and backed by two arrays.
+ *
+ * The hash code and the sanitized {@code key=value} form written by the telnet API are computed
+ * once; the latter is kept as a {@code String}, since the telnet client writes characters, and
+ * only on first use, since the HTTP client never needs it. Tag sets are interned, so the points of
+ * one series share a single instance across reports and equal tag sets usually compare by
+ * identity. The intern pool holds its tag sets weakly; a tag set no longer used by any series is
+ * collected. {@code TagSet} is a {@link Map} and equal to any map with the same entries.
+ */
+public final class TagSet extends AbstractMap<String, String> {
+
+    public static final TagSet EMPTY = new TagSet(new String[0], new String[0]);
+
+    // striped by hash so concurrent reporters rarely wait on each other
+    private static final int STRIPES = 16;
+    @SuppressWarnings("unchecked")
+    private static final WeakHashMap<TagSet, WeakReference<TagSet>>[] interned = new WeakHashMap[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            interned[i] = new WeakHashMap<TagSet, WeakReference<TagSet>>();
+        }
+    }
+
+    /**
+     * @param tags the tags, may be {@code null}
+     * @return the interned tag set with the entries of {@code tags}
+     */
+    public static TagSet of(Map<String, String> tags) {
+        if (tags instanceof TagSet) {
+            return (TagSet) tags;
+        }
+        if (tags == null || tags.isEmpty()) {
+            return EMPTY;
+        }
+        final String[] keys = new String[tags.size()];
+        final String[] values = new String[tags.size()];
+        int i = 0;
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            keys[i] = tag.getKey();
+            values[i] = tag.getValue();
+            i++;
+        }
+        return sortAndIntern(keys, values, i);
+    }
+
+    private static TagSet sortAndIntern(String[] keys, String[] values, int size) {
+        // insertion sort, tag sets are small
+        for (int i = 1; i < size; i++) {
+            final String key = checkNotNull(keys[i]);
+            final String value = values[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j].compareTo(key) > 0) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+        }
+        if (size > 0) {
+            checkNotNull(keys[0]);
+        }
+        for (int i = 0; i < size; i++) {
+            checkNotNull(values[i]);
+        }
+        return intern(new TagSet(size == keys.length ? keys : Arrays.copyOf(keys, size),
+                size == values.length ? values : Arrays.copyOf(values, size)));
+    }
+
+    private static String checkNotNull(String s) {
+        if (s == null) {
+            throw new IllegalArgumentException("tag keys and values must not be null");
+        }
+        return s;
+    }
+
+    private static TagSet intern(TagSet tags) {
+        final WeakHashMap<TagSet, WeakReference<TagSet>> stripe = interned[(tags.hash ^ (tags.hash >>> 16)) & (STRIPES - 1)];
+        synchronized (stripe) {
+            final WeakReference<TagSet> reference = stripe.get(tags);
+            final TagSet existing = reference == null ? null : reference.get();
+            if (existing != null) {
+                return existing;
+            }
+            stripe.put(tags, new WeakReference<TagSet>(tags));
+            return tags;
+        }
+    }
+
+    private final String[] keys;
+    private final String[] values;
+    private final int hash;
+    private volatile String encoded;
+    private Set<Map.Entry<String, String>> entrySet;
+
+    private TagSet(String[] keys, String[] values) {
+        this.keys = keys;
+        this.values = values;
+        int h = 0;
+        for (int i = 0; i < keys.length; i++) {
+            h += keys[i].hashCode() ^ values[i].hashCode();
+        }
+        this.hash = h;
+    }
+
+    /**
+     * @param overrides tags to add or replace, may be {@code null}
+     * @return the interned tag set with the entries of this set and {@code overrides}
+     */
+    public TagSet with(Map<String, String> overrides) {
+        if (overrides == null || overrides.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return of(overrides);
+        }
+        final String[] mergedKeys = Arrays.copyOf(keys, keys.length + overrides.size());
+        final String[] mergedValues = Arrays.copyOf(values, values.length + overrides.size());
+        int size = keys.length;
+        for (Map.Entry<String, String> tag : overrides.entrySet()) {
+            final int index = indexOf(tag.getKey());
+            if (index >= 0) {
+                mergedValues[index] = tag.getValue();
+            } else {
+                mergedKeys[size] = tag.getKey();
+                mergedValues[size] = tag.getValue();
+                size++;
+            }
+        }
+        return sortAndIntern(mergedKeys, mergedValues, size);
+    }
+
+    /**
+     * @param removed the keys of the tags to remove
+     * @return the interned tag set without the tags with those keys, or this set if it has none
+     */
+    public TagSet without(Set<String> removed) {
+        int kept = 0;
+        for (String key : keys) {
+            if (!removed.contains(key)) {
+                kept++;
+            }
+        }
+        if (kept == keys.length) {
+            return this;
+        }
+        if (kept == 0) {
+            return EMPTY;
+        }
+        final String[] keptKeys = new String[kept];
+        final String[] keptValues = new String[kept];
+        kept = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (!removed.contains(keys[i])) {
+                keptKeys[kept] = keys[i];
+                keptValues[kept] = values[i];
+                kept++;
+            }
+        }
+        return intern(new TagSet(keptKeys, keptValues));
+    }
+
+    /**
+     * @return the tags as sanitized, space separated {@code key=value} pairs, sorted by key
+     */
+    public String getEncoded() {
+        String result = encoded;
+        if (result == null) {
+            final StringBuilder builder = new StringBuilder(keys.length * 16);
+            for (int i = 0; i < keys.length; i++) {
+                if (i > 0) {
+                    builder.append(' ');
+                }
+                builder.append(TagCodec.sanitize(keys[i])).append('=').append(TagCodec.sanitize(values[i]));
+            }
+            result = builder.toString();
+            encoded = result;
+        }
+        return result;
+    }
+
+    String keyAt(int index) {
+        return keys[index];
+    }
+
+    String valueAt(int index) {
+        return values[index];
+    }
+
+    private int indexOf(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+        return Arrays.binarySearch(keys, (String) key);
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        final int index = indexOf(key);
+        return index >= 0 ? values[index] : null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        Set<Map.Entry<String, String>> result = entrySet;
+        if (result == null) {
+            result = new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Iterator<Map.Entry<String, String>>() {
+                        private int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < keys.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            if (next >= keys.length) {
+                                throw new NoSuchElementException();
+                            }
+                            final Map.Entry<String, String> entry = new SimpleImmutableEntry<String, String>(keys[next], values[next]);
+                            next++;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keys.length;
+                }
+            };
+            entrySet = result;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof TagSet) {
+            final TagSet other = (TagSet) o;
+            return hash == other.hash && Arrays.equals(keys, other.keys) && Arrays.equals(values, other.values);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
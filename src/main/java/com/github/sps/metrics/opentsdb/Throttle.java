@@ -0,0 +1,204 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Limits and paces the points a client writes to OpenTSDB.
+ *
+ * Two independent mechanisms, both off by default:
+ * <ul>
+ * <li>a token bucket on points per second and bytes per second, allowing a burst of one second's
+ * worth of tokens;</li>
+ * <li>smoothing, which spreads the points of one {@code send} evenly over a fraction of the
+ * reporting period instead of writing them all at once.</li>
+ * </ul>
+ * The delay spent throttling is exposed as gauges through {@link #getMetrics()}.
+ */
+public class Throttle implements MetricSet {
+
+    /**
+     * Chunk size used to pace a send when the client itself does not batch.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    /**
+     * A throttle that never waits.
+     */
+    public static Throttle unlimited() {
+        return new Throttle(0, 0, 0, TimeUnit.NANOSECONDS, Clock.defaultClock());
+    }
+
+    private final double nanosPerPoint;
+    private final double nanosPerByte;
+    private final long smoothingWindowNanos;
+    private final Clock clock;
+
+    private long pointsTat = Long.MIN_VALUE;
+    private long bytesTat = Long.MIN_VALUE;
+
+    private final AtomicLong totalDelayNanos = new AtomicLong();
+    private final AtomicLong lastSendDelayNanos = new AtomicLong();
+    private final Map<String, Metric> gauges = createGauges();
+
+    /**
+     * @param pointsPerSecond maximum points per second, {@code 0} for no limit
+     * @param bytesPerSecond  maximum uncompressed payload bytes per second, {@code 0} for no limit
+     * @param smoothingWindow the time over which the points of one send are spread, {@code 0} to send at once
+     * @param unit            the unit of {@code smoothingWindow}
+     * @param clock           the clock used to measure time
+     */
+    public Throttle(double pointsPerSecond, double bytesPerSecond, long smoothingWindow, TimeUnit unit, Clock clock) {
+        this.nanosPerPoint = pointsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / pointsPerSecond : 0;
+        this.nanosPerByte = bytesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / bytesPerSecond : 0;
+        this.smoothingWindowNanos = unit.toNanos(smoothingWindow);
+        this.clock = clock;
+    }
+
+    /**
+     * @return {@code true} if this throttle never waits
+     */
+    public boolean isUnlimited() {
+        return nanosPerPoint == 0 && nanosPerByte == 0 && smoothingWindowNanos == 0;
+    }
+
+    /**
+     * Start pacing one send of {@code totalPoints} points.
+     *
+     * @param totalPoints
+     * @return a {@link Pacer} to call before each chunk of the send
+     */
+    public Pacer start(int totalPoints) {
+        lastSendDelayNanos.set(0);
+        return new Pacer(totalPoints, clock.getTick());
+    }
+
+    /**
+     * Paces the chunks of one send.
+     */
+    public class Pacer {
+        private final int totalPoints;
+        private final long startTick;
+        private int sentPoints;
+
+        private Pacer(int totalPoints, long startTick) {
+            this.totalPoints = totalPoints;
+            this.startTick = startTick;
+        }
+
+        /**
+         * Blocks until a chunk of {@code points} points and {@code bytes} bytes may be written.
+         *
+         * @param points
+         * @param bytes
+         */
+        public void acquire(int points, long bytes) {
+            long waitNanos = reserve(points, bytes);
+            if (smoothingWindowNanos > 0 && totalPoints > 0) {
+                final long due = startTick + (long) ((double) smoothingWindowNanos * sentPoints / totalPoints);
+                waitNanos = Math.max(waitNanos, due - clock.getTick());
+            }
+            sentPoints += points;
+            if (waitNanos > 0) {
+                totalDelayNanos.addAndGet(waitNanos);
+                lastSendDelayNanos.addAndGet(waitNanos);
+                sleep(waitNanos);
+            }
+        }
+    }
+
+    /**
+     * Generic cell rate algorithm: each dimension keeps a theoretical arrival time that advances by
+     * the cost of every chunk, and a chunk has to wait once that time runs more than one second
+     * ahead of now.
+     */
+    private synchronized long reserve(int points, long bytes) {
+        final long now = clock.getTick();
+        final long burst = TimeUnit.SECONDS.toNanos(1);
+        long waitNanos = 0;
+        if (nanosPerPoint > 0) {
+            pointsTat = Math.max(pointsTat, now) + (long) (points * nanosPerPoint);
+            waitNanos = Math.max(waitNanos, pointsTat - now - burst);
+        }
+        if (nanosPerByte > 0) {
+            bytesTat = Math.max(bytesTat, now) + (long) (bytes * nanosPerByte);
+            waitNanos = Math.max(waitNanos, bytesTat - now - burst);
+        }
+        return waitNanos;
+    }
+
+    protected void sleep(long nanos) {
+        final long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    /**
+     * @return the total time spent waiting, in nanoseconds
+     */
+    public long getTotalDelayNanos() {
+        return totalDelayNanos.get();
+    }
+
+    /**
+     * @return the time spent waiting during the most recent send, in nanoseconds
+     */
+    public long getLastSendDelayNanos() {
+        return lastSendDelayNanos.get();
+    }
+
+    /**
+     * @return the same gauges on every call
+     */
+    @Override
+    public Map<String, Metric> getMetrics() {
+        return gauges;
+    }
+
+    private Map<String, Metric> createGauges() {
+        final Map<String, Metric> gauges = new HashMap<String, Metric>();
+        gauges.put("throttle-delay-total-ms", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TimeUnit.NANOSECONDS.toMillis(getTotalDelayNanos());
+            }
+        });
+        gauges.put("throttle-delay-last-send-ms", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return TimeUnit.NANOSECONDS.toMillis(getLastSendDelayNanos());
+            }
+        });
+        return Collections.unmodifiableMap(gauges);
+    }
+}
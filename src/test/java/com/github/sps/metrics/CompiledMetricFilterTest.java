@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.github.sps.metrics.opentsdb.OpenTsdbTelnet;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledMetricFilterTest {
+
+    @Test
+    public void testRules() {
+        final CompiledMetricFilter filter = CompiledMetricFilter.builder()
+                .includePrefix("http.")
+                .includePrefix("http.client.")
+                .includePrefix("jvm.")
+                .includeMatching("db\\.(reads|writes)")
+                .excludePrefix("jvm.gc.")
+                .excludeMatching(".*\\.debug\\..*")
+                .build();
+        assertTrue(filter.evaluate("http.requests"));
+        assertTrue(filter.evaluate("http.client.requests"));
+        assertTrue(filter.evaluate("jvm.heap"));
+        assertTrue(filter.evaluate("db.reads"));
+        assertFalse(filter.evaluate("db.reads.failed"));
+        assertFalse(filter.evaluate("http"));
+        assertFalse(filter.evaluate("cache.hits"));
+        assertFalse(filter.evaluate("jvm.gc.time"));
+        assertFalse(filter.evaluate("http.debug.requests"));
+    }
+
+    @Test
+    public void testNoIncludesReportsAll() {
+        final CompiledMetricFilter filter = CompiledMetricFilter.builder().excludePrefix("internal.").build();
+        assertTrue(filter.evaluate("http.requests"));
+        assertFalse(filter.evaluate("internal.queue"));
+        assertTrue(CompiledMetricFilter.builder().build().evaluate("anything"));
+    }
+
+    @Test
+    public void testTaggedMetricsMatchOnBaseName() {
+        final TaggedMetricRegistry registry = new TaggedMetricRegistry();
+        final CompiledMetricFilter filter = CompiledMetricFilter.builder().includeMatching("requests").build();
+        final TaggedCounter counter = registry.taggedCounter("requests", Collections.singletonMap("host", "web01"));
+        assertTrue(filter.matches(TaggedMetricRegistry.getTaggedName("requests", counter.getTags()), counter));
+    }
+
+    @Test
+    public void testDecisionsFollowTheRegistry() {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("http.requests");
+        final CompiledMetricFilter filter = CompiledMetricFilter.builder().includePrefix("http.").build();
+        registry.addListener(filter);
+        assertEquals(1, filter.getCachedCount());
+
+        registry.counter("cache.hits");
+        assertEquals(2, filter.getCachedCount());
+        assertTrue(filter.matches("http.requests", new Counter()));
+        assertFalse(filter.matches("cache.hits", new Counter()));
+
+        registry.remove("cache.hits");
+        registry.remove("http.requests");
+        assertEquals(0, filter.getCachedCount());
+    }
+
+    @Test
+    public void testReporterRegistersFilter() {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("http.requests").inc();
+        registry.counter("cache.hits").inc();
+        final CompiledMetricFilter filter = CompiledMetricFilter.builder().includePrefix("http.").build();
+        final StringWriter writer = new StringWriter();
+        OpenTsdbReporter.forRegistry(registry)
+                .filter(filter)
+                .withLegacyTimers(false)
+                .build(OpenTsdbTelnet.forWriter(writer).create())
+                .report();
+        assertEquals(2, filter.getCachedCount());
+        assertTrue(writer.toString().contains("http.requests"));
+        assertFalse(writer.toString().contains("cache.hits"));
+    }
+
+    @Test
+    public void testStopUnregistersFilter() {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("http.requests");
+        final CompiledMetricFilter filter = CompiledMetricFilter.builder().includePrefix("http.").build();
+        final OpenTsdbReporter first = OpenTsdbReporter.forRegistry(registry)
+                .filter(filter)
+                .withLegacyTimers(false)
+                .build(OpenTsdbTelnet.forWriter(new StringWriter()).create());
+        final OpenTsdbReporter second = OpenTsdbReporter.forRegistry(registry)
+                .filter(filter)
+                .withLegacyTimers(false)
+                .build(OpenTsdbTelnet.forWriter(new StringWriter()).create());
+        first.stop();
+        first.stop();
+        // still listening for the second reporter
+        registry.counter("http.responses");
+        assertEquals(2, filter.getCachedCount());
+
+        second.stop();
+        assertEquals(0, filter.getCachedCount());
+        registry.counter("http.errors");
+        assertEquals(0, filter.getCachedCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSharingAcrossRegistriesIsRejected() {
+        final CompiledMetricFilter filter = CompiledMetricFilter.builder().build();
+        OpenTsdbReporter.forRegistry(new MetricRegistry()).filter(filter)
+                .build(OpenTsdbTelnet.forWriter(new StringWriter()).create());
+        OpenTsdbReporter.forRegistry(new MetricRegistry()).filter(filter)
+                .build(OpenTsdbTelnet.forWriter(new StringWriter()).create());
+    }
+}
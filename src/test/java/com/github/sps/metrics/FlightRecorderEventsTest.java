@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import com.github.sps.metrics.opentsdb.OpenTsdbTelnet;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FlightRecorderEventsTest {
+
+    private static final String[] EVENTS = {
+            "com.github.sps.metrics.Report",
+            "com.github.sps.metrics.ReportPhase",
+            "com.github.sps.metrics.MetricLookup",
+            "com.github.sps.metrics.opentsdb.BatchSend",
+            "com.github.sps.metrics.opentsdb.TelnetWrite",
+    };
+
+    @Test
+    public void testReportEvents() throws Exception {
+        final TaggedMetricRegistry registry = new TaggedMetricRegistry();
+        final StringWriter writer = new StringWriter();
+        final OpenTsdbReporter reporter = OpenTsdbReporter.forRegistry(registry)
+                .build(OpenTsdbTelnet.forWriter(writer).create());
+
+        final List<RecordedEvent> events;
+        final Recording recording = new Recording();
+        try {
+            for (String event : EVENTS) {
+                recording.enable(event).withoutThreshold();
+            }
+            recording.start();
+            registry.taggedCounter("requests", Collections.singletonMap("host", "web01")).inc();
+            registry.getTaggedCounter("requests", Collections.singletonMap("host", "web01"));
+            reporter.report();
+            recording.stop();
+
+            final Path file = Files.createTempFile("metrics", ".jfr");
+            try {
+                recording.dump(file);
+                events = RecordingFile.readAllEvents(file);
+            } finally {
+                Files.delete(file);
+            }
+        } finally {
+            recording.close();
+        }
+
+        final RecordedEvent report = single(events, "com.github.sps.metrics.Report");
+        assertTrue(report.getBoolean("success"));
+        assertEquals(writer.toString().split("\n").length, report.getInt("points"));
+
+        final List<String> phases = new ArrayList<String>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals("com.github.sps.metrics.ReportPhase")) {
+                phases.add(event.getString("phase"));
+            }
+        }
+        assertTrue(phases.containsAll(Arrays.asList("gauges", "snapshot", "send")));
+        assertFalse(phases.contains("rollups"));
+
+        final RecordedEvent batch = single(events, "com.github.sps.metrics.opentsdb.BatchSend");
+        assertEquals("telnet", batch.getString("transport"));
+        assertTrue(batch.getBoolean("success"));
+        assertEquals(writer.toString().length(), batch.getLong("bytes"));
+        assertEquals(writer.toString().length(), single(events, "com.github.sps.metrics.opentsdb.TelnetWrite").getLong("bytes"));
+
+        int lookups = 0;
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals("com.github.sps.metrics.MetricLookup")) {
+                assertTrue(event.getBoolean("found"));
+                lookups++;
+            }
+        }
+        assertEquals(2, lookups);
+    }
+
+    private static RecordedEvent single(List<RecordedEvent> events, String name) {
+        RecordedEvent found = null;
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                assertNull("more than one " + name, found);
+                found = event;
+            }
+        }
+        assertNotNull("no " + name, found);
+        return found;
+    }
+}
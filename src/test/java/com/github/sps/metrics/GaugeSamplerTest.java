@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GaugeSamplerTest {
+
+    private MetricRegistry registry;
+    private AtomicLong depth;
+    private GaugeSampler sampler;
+
+    @Before
+    public void setUp() {
+        registry = new MetricRegistry();
+        depth = new AtomicLong();
+        registry.register("queue.depth", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return depth.get();
+            }
+        });
+        registry.register("queue.name", new Gauge<String>() {
+            @Override
+            public String getValue() {
+                return "orders";
+            }
+        });
+        sampler = new GaugeSampler(registry, MetricFilter.startsWith("queue"), 4);
+    }
+
+    @Test
+    public void testSummary() {
+        for (long value : new long[]{5, 1, 9, 3}) {
+            depth.set(value);
+            sampler.sample();
+        }
+        final Map<String, GaugeSampler.Summary> summaries = sampler.drain();
+        // non numeric gauges are not sampled
+        assertFalse(summaries.containsKey("queue.name"));
+
+        final GaugeSampler.Summary summary = summaries.get("queue.depth");
+        assertEquals(1, summary.getMin(), 0.0);
+        assertEquals(9, summary.getMax(), 0.0);
+        assertEquals(4.5, summary.getAvg(), 0.0);
+        assertEquals(3, summary.getLast(), 0.0);
+        assertEquals(4, summary.getCount());
+    }
+
+    @Test
+    public void testRingOverwritesOldestAndDrainClears() {
+        for (long value = 1; value <= 6; value++) {
+            depth.set(value);
+            sampler.sample();
+        }
+        GaugeSampler.Summary summary = sampler.drain().get("queue.depth");
+        assertEquals(3, summary.getMin(), 0.0);
+        assertEquals(6, summary.getMax(), 0.0);
+        assertEquals(4, summary.getCount());
+
+        depth.set(10);
+        sampler.sample();
+        summary = sampler.drain().get("queue.depth");
+        assertEquals(10, summary.getMin(), 0.0);
+        assertEquals(1, summary.getCount());
+    }
+
+    @Test
+    public void testRemovedGaugesAreForgotten() {
+        sampler.sample();
+        registry.remove("queue.depth");
+        assertTrue(sampler.drain().containsKey("queue.depth"));
+        sampler.sample();
+        assertTrue(sampler.drain().isEmpty());
+    }
+
+    @Test
+    public void testIndexFollowsTheRegistry() {
+        sampler.sample();
+        registry.register("queue.age", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return 42;
+            }
+        });
+        registry.register("other.age", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return 1;
+            }
+        });
+        sampler.sample();
+        final Map<String, GaugeSampler.Summary> summaries = sampler.drain();
+        assertEquals(42, summaries.get("queue.age").getLast(), 0.0);
+        assertFalse(summaries.containsKey("other.age"));
+
+        sampler.stop();
+        registry.remove("queue.age");
+        sampler.sample();
+        assertFalse(sampler.drain().containsKey("queue.age"));
+    }
+
+    @Test
+    public void testSamplesAfterAnEmptyDrainAreKept() {
+        sampler.sample();
+        sampler.drain();
+        assertTrue(sampler.drain().isEmpty());
+
+        depth.set(7);
+        sampler.sample();
+        assertEquals(7, sampler.drain().get("queue.depth").getLast(), 0.0);
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.sps.metrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Snapshot;
+
+public class IntervalReservoirTest {
+
+	@Test
+	public void testSnapshotCoversOneInterval() {
+		IntervalReservoir reservoir = new IntervalReservoir(8);
+		reservoir.update(3);
+		reservoir.update(1);
+		Snapshot peek = reservoir.getSnapshot();
+		assertEquals(2, peek.size());
+
+		IntervalReservoir.IntervalSnapshot first = reservoir.getSnapshotAndReset();
+		assertArrayEquals(new long[]{1, 3}, first.getValues());
+		assertEquals(2, first.getCount());
+
+		reservoir.update(7);
+		IntervalReservoir.IntervalSnapshot second = reservoir.getSnapshotAndReset();
+		assertArrayEquals(new long[]{7}, second.getValues());
+		assertEquals(0, reservoir.getSnapshotAndReset().size());
+	}
+
+	@Test
+	public void testOverflowKeepsSample() {
+		IntervalReservoir reservoir = new IntervalReservoir(4);
+		for (int i = 0; i < 100; i++) {
+			reservoir.update(i);
+		}
+		assertEquals(4, reservoir.size());
+		IntervalReservoir.IntervalSnapshot snapshot = reservoir.getSnapshotAndReset();
+		assertEquals(4, snapshot.size());
+		assertEquals(100, snapshot.getCount());
+	}
+
+	@Test
+	public void testNoUpdateIsLostAcrossSwaps() throws Exception {
+		final IntervalReservoir reservoir = new IntervalReservoir(1 << 20);
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final int threads = 4;
+		final long[] written = new long[threads];
+		List<Thread> writers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			Thread writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (running.get()) {
+						reservoir.update(1);
+						written[id]++;
+					}
+				}
+			});
+			writer.start();
+			writers.add(writer);
+		}
+		long seen = 0;
+		for (int i = 0; i < 50; i++) {
+			Thread.sleep(2);
+			seen += reservoir.getSnapshotAndReset().getCount();
+		}
+		running.set(false);
+		long total = 0;
+		for (int t = 0; t < threads; t++) {
+			writers.get(t).join();
+			total += written[t];
+		}
+		seen += reservoir.getSnapshotAndReset().getCount();
+		assertEquals(total, seen);
+	}
+
+	@Test
+	public void testIntervalCounter() {
+		TaggedMetricRegistry registry = new TaggedMetricRegistry();
+		TaggedIntervalCounter counter = registry.taggedIntervalCounter("requests", null);
+		counter.inc();
+		counter.inc(4);
+		counter.dec();
+		assertEquals(4, counter.getCount());
+		assertEquals(4, counter.getCountAndReset());
+		assertEquals(0, counter.getCount());
+
+		TaggedIntervalHistogram histogram = registry.taggedIntervalHistogram("latency", null);
+		histogram.update(5);
+		assertEquals(1, histogram.getSnapshotAndReset().getCount());
+		assertEquals(1, histogram.getCount());
+	}
+}
@@ -0,0 +1,131 @@
+package com.github.sps.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.Clock;
+
+public class JmxAttributeCacheTest {
+
+	private MBeanServer mBeanServer;
+	private ManualClock clock;
+	private JmxAttributeCache cache;
+	private ObjectName name;
+
+	@Before
+	public void setUp() throws Exception {
+		mBeanServer = mock(MBeanServer.class);
+		clock = new ManualClock();
+		cache = new JmxAttributeCache(mBeanServer, 1, 60, TimeUnit.SECONDS, clock);
+		name = new ObjectName("test:type=Foo");
+	}
+
+	@Test
+	public void testAttributesOfOneMBeanAreFetchedTogether() throws Exception {
+		AttributeList list = new AttributeList();
+		list.add(new Attribute("A", 1));
+		list.add(new Attribute("B", 2));
+		when(mBeanServer.getAttributes(eq(name), any(String[].class))).thenReturn(list);
+
+		TaggedJmxAttributeGauge a = new TaggedJmxAttributeGauge(cache, name, "A", Collections.singletonMap("x", "y"));
+		TaggedJmxAttributeGauge b = new TaggedJmxAttributeGauge(cache, name, "B", null);
+
+		assertEquals(1, a.getValue());
+		assertEquals(2, b.getValue());
+		verify(mBeanServer, times(1)).getAttributes(eq(name), any(String[].class));
+
+		clock.tick += TimeUnit.SECONDS.toNanos(1);
+		assertEquals(1, a.getValue());
+		assertEquals(2, b.getValue());
+		verify(mBeanServer, times(2)).getAttributes(eq(name), any(String[].class));
+	}
+
+	@Test
+	public void testFailingMBeanIsNegativelyCached() throws Exception {
+		when(mBeanServer.getAttributes(eq(name), any(String[].class))).thenThrow(new InstanceNotFoundException());
+		TaggedJmxAttributeGauge a = new TaggedJmxAttributeGauge(cache, name, "A", null);
+
+		assertNull(a.getValue());
+		clock.tick += TimeUnit.SECONDS.toNanos(30);
+		assertNull(a.getValue());
+		verify(mBeanServer, times(1)).getAttributes(eq(name), any(String[].class));
+
+		clock.tick += TimeUnit.SECONDS.toNanos(30);
+		assertNull(a.getValue());
+		verify(mBeanServer, times(2)).getAttributes(eq(name), any(String[].class));
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		TaggedJmxAttributeGauge a = new TaggedJmxAttributeGauge(cache, name, "A", null);
+		cache.remove(name);
+		assertNull(a.getValue());
+		verify(mBeanServer, times(0)).getAttributes(eq(name), any(String[].class));
+	}
+
+	@Test
+	public void testUnregister() throws Exception {
+		TaggedJmxAttributeGauge a1 = new TaggedJmxAttributeGauge(cache, name, "A", null);
+		TaggedJmxAttributeGauge a2 = new TaggedJmxAttributeGauge(cache, name, "A", null);
+		TaggedJmxAttributeGauge b = new TaggedJmxAttributeGauge(cache, name, "B", null);
+
+		a1.unregister();
+		a1.unregister();
+		b.unregister();
+		assertTrue(cache.getObjectNames().contains(name));
+		a2.getValue();
+		verify(mBeanServer).getAttributes(name, new String[]{"A"});
+
+		a2.unregister();
+		assertTrue(cache.getObjectNames().isEmpty());
+	}
+
+	@Test
+	public void testRegistryRemovalUnregisters() throws Exception {
+		TaggedMetricRegistry registry = new TaggedMetricRegistry();
+		registry.register("a", new TaggedJmxAttributeGauge(cache, name, "A", null));
+		assertTrue(cache.getObjectNames().contains(name));
+		registry.remove("a");
+		assertFalse(cache.getObjectNames().contains(name));
+	}
+
+	@Test
+	public void testPlatformMBeanServer() throws Exception {
+		MBeanServer platform = ManagementFactory.getPlatformMBeanServer();
+		assertSame(JmxAttributeCache.forServer(platform), JmxAttributeCache.forServer(platform));
+
+		TaggedJmxAttributeGauge gauge = new TaggedJmxAttributeGauge(new ObjectName("java.lang:type=Runtime"), "Name", null);
+		assertEquals(ManagementFactory.getRuntimeMXBean().getName(), gauge.getValue());
+	}
+
+	private static class ManualClock extends Clock {
+		private long tick = 0;
+
+		@Override
+		public long getTick() {
+			return tick;
+		}
+	}
+}
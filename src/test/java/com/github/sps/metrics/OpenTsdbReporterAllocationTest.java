@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.github.sps.metrics.opentsdb.AllocationMeter;
+import com.github.sps.metrics.opentsdb.OpenTsdb;
+import com.github.sps.metrics.opentsdb.OpenTsdbMetric;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Allocation budget for building a report, from reading the registry to the points handed to the
+ * client, over the same registry as {@code ReporterBenchmark}.
+ */
+public class OpenTsdbReporterAllocationTest {
+
+    private static final int SERIES = 2000;
+
+    /**
+     * Bytes per point, the points themselves and the sorted maps of the registry included.
+     */
+    private static final long REPORT_BUDGET = 600;
+
+    private TaggedMetricRegistry registry;
+    private int points;
+
+    @Before
+    public void setUp() {
+        registry = ReportFixtures.registry("alloc", SERIES, 16, 10);
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        final OpenTsdb opentsdb = new OpenTsdb() {
+            @Override
+            public void send(Set<OpenTsdbMetric> metrics) {
+                points = metrics.size();
+            }
+        };
+        final OpenTsdbReporter reporter = OpenTsdbReporter.forRegistry(registry)
+                .withTags(Collections.singletonMap("host", "alloc01"))
+                .filter(new MetricFilter() {
+                    @Override
+                    public boolean matches(String name, Metric metric) {
+                        return name.startsWith("alloc.");
+                    }
+                })
+                .build(opentsdb);
+
+        final long perReport = new AllocationMeter().bytesPerRun(new AllocationMeter.Task() {
+            @Override
+            public void run() {
+                reporter.report();
+            }
+        }, 20, 10);
+        final long perPoint = perReport / points;
+        assertTrue("a report allocates " + perPoint + " bytes per point", perPoint <= REPORT_BUDGET);
+    }
+}
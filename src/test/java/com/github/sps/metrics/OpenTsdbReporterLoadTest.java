@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import com.github.sps.metrics.opentsdb.FakeOpenTsdbServer;
+import com.github.sps.metrics.opentsdb.OpenTsdb;
+import com.github.sps.metrics.opentsdb.OpenTsdbTelnet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * End to end reports against {@link FakeOpenTsdbServer}, logging points per second and the time
+ * from the start of a report to the last point taken by the server. The number of series defaults
+ * to 5000 and can be raised with {@code -Dloadtest.series=...}.
+ */
+public class OpenTsdbReporterLoadTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenTsdbReporterLoadTest.class);
+    private static final int SERIES = Integer.getInteger("loadtest.series", 5000);
+
+    private static final MetricFilter LOAD_METRICS = new MetricFilter() {
+        @Override
+        public boolean matches(String name, Metric metric) {
+            return name.startsWith("load.");
+        }
+    };
+
+    private FakeOpenTsdbServer server;
+    private TaggedMetricRegistry registry;
+    private int points;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeOpenTsdbServer();
+        registry = ReportFixtures.registry("load", SERIES, 16, 0);
+        // series whose tags hash alike share a counter, each counter is one point
+        points = registry.getCounters(LOAD_METRICS).size();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    private OpenTsdbReporter reporter(OpenTsdb opentsdb, int batchSize) {
+        return OpenTsdbReporter.forRegistry(registry)
+                .withTags(Collections.singletonMap("host", "load01"))
+                .withBatchSize(batchSize)
+                .filter(LOAD_METRICS)
+                .build(opentsdb);
+    }
+
+    /**
+     * Runs one report and waits for all its points to arrive.
+     *
+     * @return the time from the start of the report to the last point taken, in nanoseconds
+     */
+    private long reportAndAwait(OpenTsdbReporter reporter, String transport) throws InterruptedException {
+        server.reset();
+        final long start = System.nanoTime();
+        reporter.report();
+        assertTrue(transport + " points missing", server.awaitPoints(points, 30, TimeUnit.SECONDS));
+        final long elapsed = server.getLastIngestNanos() - start;
+        logger.info("{}: {} points in {} ms, {} points/s", transport, points,
+                TimeUnit.NANOSECONDS.toMillis(elapsed), (long) (points / (elapsed / 1e9)));
+        return elapsed;
+    }
+
+    @Test
+    public void testHttp() throws Exception {
+        final OpenTsdbReporter reporter = reporter(OpenTsdb.forService(server.getHttpUrl()).create(), 500);
+        reportAndAwait(reporter, "http");
+        reportAndAwait(reporter, "http");
+        assertEquals(points, server.getPointCount());
+    }
+
+    @Test
+    public void testHttpGzip() throws Exception {
+        final OpenTsdb opentsdb = OpenTsdb.forService(server.getHttpUrl()).withGzipEnabled(true).create();
+        final OpenTsdbReporter reporter = reporter(opentsdb, 500);
+        reportAndAwait(reporter, "http+gzip");
+        assertEquals(points, server.getPointCount());
+        assertEquals(points, opentsdb.getStats().getPointsSent());
+        assertTrue(opentsdb.getStats().getCompressionRatio() > 2);
+    }
+
+    @Test
+    public void testTelnet() throws Exception {
+        final OpenTsdbReporter reporter = reporter(OpenTsdbTelnet.forService(
+                server.getTelnetAddress().getHostString(), server.getTelnetAddress().getPort()).create(), 0);
+        reportAndAwait(reporter, "telnet");
+        reportAndAwait(reporter, "telnet");
+        assertEquals(points, server.getPointCount());
+    }
+
+    @Test
+    public void testSlowServer() throws Exception {
+        server.withLatency(20, TimeUnit.MILLISECONDS);
+        final int batches = (points + 999) / 1000;
+        final OpenTsdbReporter reporter = reporter(OpenTsdb.forService(server.getHttpUrl()).create(), 1000);
+
+        final long elapsed = reportAndAwait(reporter, "http, 20ms latency");
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(20L * batches));
+    }
+
+    @Test
+    public void testThroughputCap() throws Exception {
+        server.withMaxPointsPerSecond(points * 2);
+        final OpenTsdbReporter reporter = reporter(OpenTsdbTelnet.forService(
+                server.getTelnetAddress().getHostString(), server.getTelnetAddress().getPort()).create(), 0);
+
+        final long elapsed = reportAndAwait(reporter, "telnet, capped");
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(400));
+    }
+
+    @Test
+    public void testRecoversAfterErrors() throws Exception {
+        final OpenTsdb opentsdb = OpenTsdb.forService(server.getHttpUrl()).create();
+        final OpenTsdbReporter reporter = reporter(opentsdb, 1000);
+        server.withErrorRate(1);
+        reporter.report();
+        assertEquals(0, server.getPointCount());
+        assertTrue(server.getErrorCount() > 0);
+        assertEquals(points, opentsdb.getStats().getPointsDropped());
+
+        server.withErrorRate(0);
+        reportAndAwait(reporter, "http, after errors");
+        assertEquals(0, server.getErrorCount());
+    }
+}
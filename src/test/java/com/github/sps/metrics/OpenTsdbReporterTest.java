@@ -17,16 +17,26 @@ package com.github.sps.metrics;
 
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.*;
+import com.github.sps.metrics.opentsdb.ClientStats;
 import com.github.sps.metrics.opentsdb.OpenTsdb;
+import com.github.sps.metrics.opentsdb.OpenTsdbHistogram;
 import com.github.sps.metrics.opentsdb.OpenTsdbMetric;
+import com.github.sps.metrics.opentsdb.Throttle;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -55,12 +65,6 @@ public class OpenTsdbReporterTest {
 
     @Mock
     private Clock clock;
-    
-    @Mock
-    private Timer timer;
-    
-    @Mock
-    Timer.Context context;
 
     private final long timestamp = 1000198;
 
@@ -69,8 +73,8 @@ public class OpenTsdbReporterTest {
     @Before
     public void setUp() throws Exception {
         captor = ArgumentCaptor.forClass(Set.class);
-        when(timer.time()).thenReturn(context);
-        when(registry.timer(anyString())).thenReturn(timer);
+        when(opentsdb.getStats()).thenReturn(new ClientStats());
+        when(opentsdb.getThrottle()).thenReturn(Throttle.unlimited());
         reporter = OpenTsdbReporter.forRegistry(registry)
                 .withClock(clock)
                 .prefixedWith("prefix")
@@ -99,6 +103,292 @@ public class OpenTsdbReporterTest {
         assertEquals((Long) timestamp, metric.getTimestamp());
     }
 
+    /**
+     * Makes sends block until {@code release} opens.
+     */
+    private void blockSends(final CountDownLatch entered, final CountDownLatch release) {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // interrupted by stop() giving up on the send
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        }).when(opentsdb).send(anySet());
+    }
+
+    /**
+     * @return a reporter of a one counter registry whose sends block until {@code release} opens
+     */
+    private OpenTsdbReporter blockingReporter(OpenTsdbReporter.OverlapPolicy policy, int maxBacklog,
+                                              final CountDownLatch entered, final CountDownLatch release) {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("counter").inc();
+        blockSends(entered, release);
+        return OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .withOverlapPolicy(policy, maxBacklog)
+                .build(opentsdb);
+    }
+
+    @Test
+    public void testOverlapSkip() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final OpenTsdbReporter reporter = blockingReporter(OpenTsdbReporter.OverlapPolicy.SKIP, 1, entered, release);
+
+        reporter.report();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        reporter.report();
+        reporter.report();
+        release.countDown();
+        reporter.stop();
+
+        verify(opentsdb, times(1)).send(anySet());
+        assertEquals(2L, reporter.getStats().getOverruns());
+        assertEquals(2L, reporter.getStats().getReportsSkipped());
+    }
+
+    @Test
+    public void testOverlapCoalesce() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final OpenTsdbReporter reporter = blockingReporter(OpenTsdbReporter.OverlapPolicy.COALESCE, 1, entered, release);
+
+        reporter.report();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        reporter.report();
+        reporter.report();
+        release.countDown();
+
+        // the two overrunning cycles are caught up by a single report
+        verify(opentsdb, timeout(5000).times(2)).send(anySet());
+        reporter.stop();
+        verify(opentsdb, times(2)).send(anySet());
+        assertEquals(2L, reporter.getStats().getReportsCoalesced());
+    }
+
+    @Test
+    public void testOverlapIsTrackedPerTier() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("slo.errors").inc();
+        registry.counter("requests").inc();
+        blockSends(entered, release);
+        final OpenTsdbReporter tiered = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .withOverlapPolicy(OpenTsdbReporter.OverlapPolicy.COALESCE, 2)
+                .withTiers(ReportingTier.every(10, TimeUnit.SECONDS).withNameMatching("slo\\..*"))
+                .withLegacyTimers(false)
+                .build(opentsdb);
+
+        tiered.reportTier(0);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        // the default series have nothing in flight and are collected, the tier coalesces
+        tiered.report();
+        tiered.reportTier(0);
+        tiered.reportTier(0);
+        release.countDown();
+
+        verify(opentsdb, timeout(5000).times(3)).send(captor.capture());
+        tiered.stop();
+        final List<Set> sent = captor.getAllValues();
+        assertEquals(Collections.singleton("slo.errors.count"), names(sent.get(0)));
+        assertEquals(Collections.singleton("requests.count"), names(sent.get(1)));
+        // the catch-up reports the tier that overran
+        assertEquals(Collections.singleton("slo.errors.count"), names(sent.get(2)));
+        assertEquals(2L, tiered.getStats().getReportsCoalesced());
+    }
+
+    @Test
+    public void testOverlapQueueDropsOldest() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final OpenTsdbReporter reporter = blockingReporter(OpenTsdbReporter.OverlapPolicy.QUEUE, 1, entered, release);
+
+        reporter.report();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        reporter.report();
+        reporter.report();
+        assertEquals(1, reporter.getStats().getQueueDepth());
+        release.countDown();
+        reporter.stop();
+
+        verify(opentsdb, times(2)).send(anySet());
+        assertEquals(2L, reporter.getStats().getOverruns());
+        assertEquals(1L, reporter.getStats().getReportsDropped());
+        assertEquals(0, reporter.getStats().getQueueDepth());
+    }
+
+    @Test
+    public void testStopCountsAbandonedReports() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("counter").inc();
+        blockSends(entered, release);
+        final OpenTsdbReporter reporter = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .withOverlapPolicy(OpenTsdbReporter.OverlapPolicy.QUEUE, 3)
+                .withDrainTimeout(50, TimeUnit.MILLISECONDS)
+                .withLegacyTimers(false)
+                .build(opentsdb);
+
+        reporter.report();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        reporter.report();
+        reporter.report();
+        assertEquals(2, reporter.getStats().getQueueDepth());
+        reporter.stop();
+        release.countDown();
+
+        verify(opentsdb, times(1)).send(anySet());
+        assertEquals(2L, reporter.getStats().getReportsDropped());
+        assertEquals(0, reporter.getStats().getQueueDepth());
+    }
+
+    private static Set<String> names(Set<OpenTsdbMetric> metrics) {
+        final Set<String> names = new HashSet<String>();
+        for (OpenTsdbMetric metric : metrics) {
+            names.add(metric.getMetric());
+        }
+        return names;
+    }
+
+    @Test
+    public void testTiersReportTheirOwnSeries() {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("slo.errors").inc();
+        registry.counter("requests").inc();
+        final OpenTsdbReporter reporter = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .withTiers(ReportingTier.every(10, TimeUnit.SECONDS).withNameMatching("slo\\..*"))
+                .withLegacyTimers(false)
+                .build(opentsdb);
+        // indexed when registered after the reporter was built as well
+        registry.counter("slo.latency").inc();
+
+        reporter.reportTier(0);
+        verify(opentsdb).send(captor.capture());
+        assertEquals(new HashSet<String>(Arrays.asList("slo.errors.count", "slo.latency.count")), names(captor.getValue()));
+
+        registry.remove("slo.latency");
+        reporter.report();
+        reporter.reportTier(0);
+        verify(opentsdb, times(3)).send(captor.capture());
+        final List<Set> sent = captor.getAllValues();
+        assertEquals(Collections.singleton("requests.count"), names(sent.get(sent.size() - 2)));
+        assertEquals(Collections.singleton("slo.errors.count"), names(sent.get(sent.size() - 1)));
+    }
+
+    @Test
+    public void testStopReportsEachTierOnce() {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("slo.errors").inc();
+        registry.counter("requests").inc();
+        final OpenTsdbReporter reporter = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .withTiers(ReportingTier.every(1, TimeUnit.HOURS).withNameMatching("slo\\..*"))
+                .withLegacyTimers(false)
+                .build(opentsdb);
+        reporter.start(1, TimeUnit.HOURS);
+        reporter.stop();
+        reporter.stop();
+
+        verify(opentsdb, times(2)).send(captor.capture());
+        final Set<Set<String>> sent = new HashSet<Set<String>>();
+        for (Set metrics : captor.getAllValues()) {
+            sent.add(names(metrics));
+        }
+        assertEquals(new HashSet<Set<String>>(Arrays.asList(Collections.singleton("requests.count"),
+                Collections.singleton("slo.errors.count"))), sent);
+    }
+
+    @Test
+    public void testStopRemovesTierListener() {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("slo.errors").inc();
+        final OpenTsdbReporter reporter = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .withTiers(ReportingTier.every(10, TimeUnit.SECONDS).withNameMatching("slo\\..*"))
+                .withLegacyTimers(false)
+                .build(opentsdb);
+        reporter.stop();
+        registry.counter("slo.latency").inc();
+
+        reporter.reportTier(0);
+        verify(opentsdb).send(captor.capture());
+        assertEquals(Collections.singleton("slo.errors.count"), names(captor.getValue()));
+    }
+
+    @Test
+    public void testTierSchedule() {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("slo.errors").inc();
+        registry.counter("requests").inc();
+        final OpenTsdbReporter reporter = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .withTiers(ReportingTier.every(20, TimeUnit.MILLISECONDS).withNameMatching("slo\\..*"))
+                .build(opentsdb);
+        reporter.start(1, TimeUnit.HOURS);
+        try {
+            verify(opentsdb, timeout(5000).atLeast(3)).send(captor.capture());
+        } finally {
+            reporter.stop();
+        }
+        for (Set metrics : captor.getAllValues()) {
+            assertEquals(Collections.singleton("slo.errors.count"), names(metrics));
+        }
+    }
+
+    @Test
+    public void testStatsLeftOutOfReport() {
+        when(gauge.getValue()).thenReturn(1L);
+        final SortedMap<String, Gauge> gauges = this.map("gauge", gauge);
+        for (Map.Entry<String, Metric> stat : reporter.getStats().getMetrics().entrySet()) {
+            gauges.put("reporter." + stat.getKey(), (Gauge) stat.getValue());
+        }
+        reporter.report(gauges, this.<Counter>map(), this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+        verify(opentsdb).send(captor.capture());
+
+        assertEquals(1, captor.getValue().size());
+        assertEquals(1L, reporter.getStats().getReports());
+        assertEquals(1L, reporter.getStats().getLastPoints());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testLegacyTimersFedFromStats() {
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("requests").inc();
+        final OpenTsdbReporter reporter = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .build(opentsdb);
+        reporter.report();
+        reporter.report();
+        assertEquals(2, registry.timer(OpenTsdbReporter.TIME_TO_BUILD_REPORT).getCount());
+        assertEquals(2, registry.timer(OpenTsdbReporter.TIME_TO_SEND_REPORT).getCount());
+
+        final MetricRegistry without = new MetricRegistry();
+        OpenTsdbReporter.forRegistry(without).withLegacyTimers(false).build(opentsdb).report();
+        assertTrue(without.getTimers().isEmpty());
+    }
+
+    @Test
+    public void testClientWithoutStats() {
+        final OpenTsdb client = mock(OpenTsdb.class);
+        OpenTsdbReporter.forRegistry(registry).build(client).report(this.<Gauge>map(), this.<Counter>map(),
+                this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+        verify(client).send(captor.capture());
+        assertTrue(captor.getValue().isEmpty());
+    }
+
     @Test
     public void testReportCounters() {
 
@@ -377,6 +667,202 @@ public class OpenTsdbReporterTest {
         assertEquals(0, metrics.size());
     }
 
+    @Test
+    public void testGaugeEvaluatedOnce() {
+        when(gauge.getValue()).thenReturn(Collections.singleton("x"));
+        reporter.report(this.map("gauge", gauge), this.<Counter>map(), this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+        verify(gauge, times(1)).getValue();
+    }
+
+    @Test
+    public void testFailingGaugeIsSkipped() {
+        when(gauge.getValue()).thenReturn(1L);
+        final SortedMap<String, Gauge> gauges = new TreeMap<String, Gauge>();
+        gauges.put("fast", gauge);
+        gauges.put("failing", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                throw new IllegalStateException();
+            }
+        });
+        reporter.report(gauges, this.<Counter>map(), this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+
+        verify(opentsdb).send(captor.capture());
+        assertEquals(1, captor.getValue().size());
+        assertEquals(1L, reporter.getSkippedGaugeCount());
+    }
+
+    @Test
+    public void testParallelGaugesSkipSlowGauges() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            reporter = OpenTsdbReporter.forRegistry(registry)
+                    .withClock(clock)
+                    .withTags(Collections.singletonMap("foo", "bar"))
+                    .withParallelGauges(executor, 200, TimeUnit.MILLISECONDS)
+                    .build(opentsdb);
+            final Gauge<Long> slow = new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    try {
+                        Thread.sleep(10000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return 2L;
+                }
+            };
+            final Gauge<Long> failing = new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    throw new IllegalStateException();
+                }
+            };
+            when(gauge.getValue()).thenReturn(1L);
+            final SortedMap<String, Gauge> gauges = new TreeMap<String, Gauge>();
+            gauges.put("fast", gauge);
+            gauges.put("slow", slow);
+            gauges.put("failing", failing);
+
+            final long start = System.nanoTime();
+            reporter.report(gauges, this.<Counter>map(), this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+            assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+
+            verify(opentsdb).send(captor.capture());
+            final Set<OpenTsdbMetric> metrics = captor.getValue();
+            assertEquals(1, metrics.size());
+            assertEquals("fast.value", metrics.iterator().next().getMetric());
+            assertEquals(2L, reporter.getSkippedGaugeCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSampledGauges() {
+        final GaugeSampler sampler = mock(GaugeSampler.class);
+        when(sampler.drain()).thenReturn(Collections.singletonMap("gauge", new GaugeSampler.Summary(1, 7, 3, 2, 5)));
+        reporter = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .withTags(Collections.singletonMap("foo", "bar"))
+                .withGaugeSampler(sampler)
+                .build(opentsdb);
+        final Gauge plain = mock(Gauge.class);
+        when(plain.getValue()).thenReturn(4L);
+        final SortedMap<String, Gauge> gauges = new TreeMap<String, Gauge>();
+        gauges.put("gauge", gauge);
+        gauges.put("plain", plain);
+
+        reporter.report(gauges, this.<Counter>map(), this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+
+        verify(gauge, never()).getValue();
+        verify(opentsdb).send(captor.capture());
+        final Map<String, Object> values = new HashMap<String, Object>();
+        for (OpenTsdbMetric metric : (Set<OpenTsdbMetric>) captor.getValue()) {
+            values.put(metric.getMetric(), metric.getValue());
+        }
+        assertEquals(5, values.size());
+        assertEquals(1.0, values.get("gauge.min"));
+        assertEquals(7.0, values.get("gauge.max"));
+        assertEquals(3.0, values.get("gauge.avg"));
+        assertEquals(2.0, values.get("gauge.last"));
+        assertEquals(4L, values.get("plain.value"));
+    }
+
+    @Test
+    public void testSampledGaugeKeepsShapeWithoutSamples() {
+        final GaugeSampler sampler = new GaugeSampler(registry, MetricFilter.startsWith("sampled"), 10);
+        reporter = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .withTags(Collections.singletonMap("foo", "bar"))
+                .withGaugeSampler(sampler)
+                .build(opentsdb);
+        when(gauge.getValue()).thenReturn(4L);
+
+        reporter.report(this.map("sampled", gauge), this.<Counter>map(), this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+
+        verify(opentsdb).send(captor.capture());
+        final Map<String, Object> values = new HashMap<String, Object>();
+        for (OpenTsdbMetric metric : (Set<OpenTsdbMetric>) captor.getValue()) {
+            values.put(metric.getMetric(), metric.getValue());
+        }
+        assertEquals(4, values.size());
+        assertEquals(4.0, values.get("sampled.min"));
+        assertEquals(4.0, values.get("sampled.last"));
+    }
+
+    @Test
+    public void testRollups() {
+        reporter = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .withTags(Collections.singletonMap("foo", "bar"))
+                .withRollups(RollupRule.forMetric("requests.count").without("path").suppressingRaw())
+                .build(opentsdb);
+        final SortedMap<String, Counter> counters = new TreeMap<String, Counter>();
+        for (String path : new String[]{"/a", "/b"}) {
+            final TaggedCounter counter = new TaggedCounter(Collections.singletonMap("path", path));
+            counter.inc(path.length() + 1);
+            counters.put(TaggedMetricRegistry.getTaggedName("requests", counter.getTags()), counter);
+        }
+
+        reporter.report(this.<Gauge>map(), counters, this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+
+        verify(opentsdb).send(captor.capture());
+        final Set<OpenTsdbMetric> metrics = captor.getValue();
+        assertEquals(1, metrics.size());
+        final OpenTsdbMetric total = metrics.iterator().next();
+        assertEquals("requests.count", total.getMetric());
+        assertEquals(6L, total.getValue());
+        assertEquals(Collections.singletonMap("foo", "bar"), total.getTags());
+    }
+
+    @Test
+    public void testIntervalReporting() {
+        reporter = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .withTags(Collections.singletonMap("foo", "bar"))
+                .withIntervalReporting()
+                .build(opentsdb);
+        final TaggedIntervalCounter intervalCounter = new TaggedIntervalCounter(null);
+        final Counter plainCounter = new Counter();
+        final TaggedIntervalHistogram histogram = new TaggedIntervalHistogram(null);
+        final SortedMap<String, Counter> counters = new TreeMap<String, Counter>();
+        counters.put("interval", intervalCounter);
+        counters.put("plain", plainCounter);
+
+        final Meter meter = new Meter();
+        final Timer timer = new Timer();
+
+        intervalCounter.inc(5);
+        plainCounter.inc(5);
+        histogram.update(100);
+        meter.mark(5);
+        timer.update(1, TimeUnit.MILLISECONDS);
+        reporter.report(this.<Gauge>map(), counters, this.map("histogram", (Histogram) histogram), this.map("meter", meter), this.map("timer", timer));
+
+        intervalCounter.inc(2);
+        plainCounter.inc(2);
+        histogram.update(1);
+        histogram.update(3);
+        meter.mark(2);
+        timer.update(1, TimeUnit.MILLISECONDS);
+        timer.update(1, TimeUnit.MILLISECONDS);
+        reporter.report(this.<Gauge>map(), counters, this.map("histogram", (Histogram) histogram), this.map("meter", meter), this.map("timer", timer));
+
+        verify(opentsdb, times(2)).send(captor.capture());
+        final Map<String, Object> values = new HashMap<String, Object>();
+        for (OpenTsdbMetric metric : (Set<OpenTsdbMetric>) captor.getAllValues().get(1)) {
+            values.put(metric.getMetric(), metric.getValue());
+        }
+        assertEquals(2L, values.get("interval.count"));
+        assertEquals(2L, values.get("plain.count"));
+        assertEquals(2L, values.get("histogram.count"));
+        assertEquals(3L, values.get("histogram.max"));
+        assertEquals(1L, values.get("histogram.min"));
+        assertEquals(2L, values.get("meter.count"));
+        assertEquals(2L, values.get("timer.count"));
+    }
+
     @Test
     public void testPerMetricTags() {
 
@@ -477,6 +963,157 @@ public class OpenTsdbReporterTest {
     }
 
 
+    @Test
+    public void testAlignedSchedule() {
+        reporter = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .prefixedWith("prefix")
+                .withTags(Collections.singletonMap("host", "web01"))
+                .withAlignedSchedule(0.5)
+                .build(opentsdb);
+
+        final long periodMs = TimeUnit.SECONDS.toMillis(60);
+        final long offset = reporter.getJitterOffsetMillis(periodMs);
+        assertTrue(offset >= 0 && offset < periodMs / 2);
+
+        // deterministic per host, different between hosts
+        assertEquals(offset, reporter.getJitterOffsetMillis(periodMs));
+        OpenTsdbReporter other = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .prefixedWith("prefix")
+                .withTags(Collections.singletonMap("host", "web02"))
+                .withAlignedSchedule(0.5)
+                .build(opentsdb);
+        assertTrue(offset != other.getJitterOffsetMillis(periodMs));
+
+        // starts at the next boundary plus the offset
+        reporter.start(60, TimeUnit.SECONDS);
+        reporter.stop();
+        final long boundary = 16670L * periodMs;
+        assertEquals(boundary + offset - timestamp * 1000, reporter.getAlignedInitialDelayMillis(timestamp * 1000, periodMs));
+
+        // a report running shortly after boundary + offset is stamped with the boundary
+        when(clock.getTime()).thenReturn(boundary + offset + 1500);
+        when(counter.getCount()).thenReturn(2L);
+        reporter.report(this.<Gauge>map(), this.map("counter", counter), this.<Histogram>map(), this.<Meter>map(), this.<Timer>map());
+        // stop() sent a final, empty report
+        verify(opentsdb, times(2)).send(captor.capture());
+        final Set<OpenTsdbMetric> metrics = captor.getValue();
+        assertEquals((Long) (boundary / 1000), metrics.iterator().next().getTimestamp());
+    }
+
+    @Test
+    public void testAlignedScheduleDoesNotSlip() {
+        final long[] now = {1700000003000L};
+        when(clock.getTime()).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                return now[0];
+            }
+        });
+        final List<Runnable> runs = new ArrayList<Runnable>();
+        final List<Long> delays = new ArrayList<Long>();
+        final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        when(executor.schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS))).thenAnswer(new Answer<ScheduledFuture<?>>() {
+            @Override
+            public ScheduledFuture<?> answer(InvocationOnMock invocation) {
+                runs.add(invocation.<Runnable>getArgument(0));
+                delays.add(invocation.<Long>getArgument(1));
+                return mock(ScheduledFuture.class);
+            }
+        });
+        final List<Long> timestamps = new ArrayList<Long>();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                final Set<OpenTsdbMetric> metrics = invocation.getArgument(0);
+                timestamps.add(metrics.iterator().next().getTimestamp());
+                // each report takes 30% of the period
+                now[0] += 3000;
+                return null;
+            }
+        }).when(opentsdb).send(anySet());
+        final MetricRegistry registry = new MetricRegistry();
+        registry.counter("requests").inc();
+        final OpenTsdbReporter reporter = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .withTags(Collections.singletonMap("host", "web01"))
+                .withAlignedSchedule(0.5)
+                .scheduleOn(executor)
+                .build(opentsdb);
+
+        reporter.start(10, TimeUnit.SECONDS);
+        for (int i = 0; i < 10; i++) {
+            now[0] += delays.get(i);
+            runs.get(i).run();
+        }
+        assertEquals(10, timestamps.size());
+        for (int i = 1; i < timestamps.size(); i++) {
+            assertEquals(timestamps.get(i - 1) + 10, (long) timestamps.get(i));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testNativeHistograms() {
+        reporter = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .prefixedWith("prefix")
+                .withTags(Collections.singletonMap("foo", "bar"))
+                .withNativeHistograms(new double[]{0, 10, 100}, new double[]{0, 1, 10})
+                .build(opentsdb);
+        when(opentsdb.supportsHistograms()).thenReturn(true);
+
+        final Histogram histogram = mock(Histogram.class);
+        // a sample of 3 values standing for 30 observations
+        when(histogram.getCount()).thenReturn(30L);
+        final Snapshot histogramSnapshot = mock(Snapshot.class);
+        when(histogramSnapshot.getValues()).thenReturn(new long[]{1, 20, 30});
+        when(histogram.getSnapshot()).thenReturn(histogramSnapshot);
+
+        final Timer timer = mock(Timer.class);
+        when(timer.getCount()).thenReturn(2L);
+        final Snapshot timerSnapshot = mock(Snapshot.class);
+        // nanoseconds, reported in milliseconds
+        when(timerSnapshot.getValues()).thenReturn(new long[]{500000, 5000000});
+        when(timer.getSnapshot()).thenReturn(timerSnapshot);
+
+        reporter.report(this.<Gauge>map(), this.<Counter>map(), this.map("histogram", histogram), this.<Meter>map(), this.map("timer", timer));
+
+        verify(opentsdb).send(captor.capture());
+        final Set<OpenTsdbMetric> metrics = captor.getValue();
+        // histogram count, timer count and rates
+        assertEquals(6, metrics.size());
+
+        final ArgumentCaptor<Set> histogramCaptor = ArgumentCaptor.forClass(Set.class);
+        verify(opentsdb).sendHistograms(histogramCaptor.capture());
+        final Map<String, OpenTsdbHistogram> histograms = new HashMap<String, OpenTsdbHistogram>();
+        for (OpenTsdbHistogram h : (Set<OpenTsdbHistogram>) histogramCaptor.getValue()) {
+            histograms.put(h.getMetric(), h);
+            assertEquals((Long) timestamp, h.getTimestamp());
+            assertEquals("bar", h.getTags().get("foo"));
+        }
+        assertEquals(Arrays.asList(10L, 20L), Arrays.asList(histograms.get("prefix.histogram").getBuckets().values().toArray()));
+        assertEquals(Arrays.asList(1L, 1L), Arrays.asList(histograms.get("prefix.timer").getBuckets().values().toArray()));
+    }
+
+    @Test
+    public void testNativeHistogramsFallBackWhenUnsupported() {
+        reporter = OpenTsdbReporter.forRegistry(registry)
+                .withClock(clock)
+                .withTags(Collections.singletonMap("foo", "bar"))
+                .withNativeHistograms(new double[]{0, 10}, new double[]{0, 10})
+                .build(opentsdb);
+
+        final Histogram histogram = mock(Histogram.class);
+        when(histogram.getSnapshot()).thenReturn(mock(Snapshot.class));
+        reporter.report(this.<Gauge>map(), this.<Counter>map(), this.map("histogram", histogram), this.<Meter>map(), this.<Timer>map());
+
+        verify(opentsdb).send(captor.capture());
+        assertEquals(11, captor.getValue().size());
+        verify(opentsdb, never()).sendHistograms(anySet());
+    }
+
     private <T> SortedMap<String, T> map() {
         return new TreeMap<String, T>();
     }
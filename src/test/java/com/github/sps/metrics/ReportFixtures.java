@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import com.github.sps.metrics.opentsdb.OpenTsdbMetric;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registries and points shared by the load and allocation tests and the JMH benchmarks, so they
+ * all measure the same shape of data.
+ */
+public final class ReportFixtures {
+
+    private ReportFixtures() {
+    }
+
+    /**
+     * @param prefix     the first segment of the metric names
+     * @param series     the number of series, each with a {@code shard} and a {@code series} tag
+     * @param shards     the number of distinct {@code shard} tag values
+     * @param timerEvery one series in {@code timerEvery} is a compact timer {@code prefix.latency},
+     *                   the others are counters {@code prefix.requests}; {@code 0} for counters only
+     * @return a registry holding the series
+     */
+    public static TaggedMetricRegistry registry(String prefix, int series, int shards, int timerEvery) {
+        final TaggedMetricRegistry registry = new TaggedMetricRegistry();
+        for (int i = 0; i < series; i++) {
+            final Map<String, String> tags = new HashMap<String, String>();
+            tags.put("shard", Integer.toString(i % shards));
+            tags.put("series", Integer.toString(i));
+            if (timerEvery > 0 && i % timerEvery == 0) {
+                registry.taggedCompactTimer(prefix + ".latency", tags).update(i % 1000, TimeUnit.MILLISECONDS);
+            } else {
+                registry.taggedCounter(prefix + ".requests", tags).inc(i);
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * @param prefix the first segment of the metric names, which end in one of ten suffixes
+     * @param points the number of points, half with long and half with double values
+     * @return the points, tagged with 16 hosts and one {@code series} value per point
+     */
+    public static Set<OpenTsdbMetric> points(String prefix, int points) {
+        final Set<OpenTsdbMetric> metrics = new HashSet<OpenTsdbMetric>();
+        for (int i = 0; i < points; i++) {
+            final Map<String, String> tags = new HashMap<String, String>();
+            tags.put("host", "web" + (i % 16));
+            tags.put("series", Integer.toString(i));
+            final OpenTsdbMetric.Builder builder = OpenTsdbMetric.named(prefix + ".metric." + (i % 10))
+                    .withTimestamp(1700000000L)
+                    .withTags(tags);
+            metrics.add(i % 2 == 0 ? builder.withValue((long) i).build() : builder.withValue(i / 7.0).build());
+        }
+        return metrics;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricFilter;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReportingTierTest {
+
+    private final TaggedMetricRegistry registry = new TaggedMetricRegistry();
+
+    @Test
+    public void testNameRule() {
+        final ReportingTier tier = ReportingTier.every(10, TimeUnit.SECONDS).withNameMatching("slo\\..*");
+        assertEquals(10000, tier.getPeriodMillis());
+        assertTrue(tier.matches("slo.latency", new Counter()));
+        assertFalse(tier.matches("http.slo.latency", new Counter()));
+
+        final TaggedCounter tagged = registry.taggedCounter("slo.errors", Collections.singletonMap("host", "web01"));
+        assertTrue(tier.matches(TaggedMetricRegistry.getTaggedName("slo.errors", tagged.getTags()), tagged));
+    }
+
+    @Test
+    public void testTagRule() {
+        final ReportingTier tier = ReportingTier.every(10, TimeUnit.SECONDS).withTag("slo", "true");
+        final TaggedCounter slo = registry.taggedCounter("requests", Collections.singletonMap("slo", "true"));
+        final TaggedCounter other = registry.taggedCounter("requests", Collections.singletonMap("slo", "false"));
+        assertTrue(tier.matches("requests", slo));
+        assertFalse(tier.matches("requests", other));
+        assertFalse(tier.matches("requests", new Counter()));
+    }
+
+    @Test
+    public void testRulesCombine() {
+        final ReportingTier tier = ReportingTier.every(10, TimeUnit.SECONDS)
+                .withNameMatching("requests")
+                .withFilter(new MetricFilter() {
+                    @Override
+                    public boolean matches(String name, Metric metric) {
+                        return metric instanceof Counter;
+                    }
+                });
+        assertTrue(tier.matches("requests", new Counter()));
+        assertFalse(tier.matches("requests", new Meter()));
+        assertFalse(ReportingTier.every(1, TimeUnit.SECONDS).matches("requests", new Counter()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPeriodMustBePositive() {
+        ReportingTier.every(0, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics;
+
+import com.github.sps.metrics.opentsdb.OpenTsdbMetric;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RollupsTest {
+
+    @Test
+    public void testSumWithoutTag() {
+        final Set<OpenTsdbMetric> metrics = new HashSet<OpenTsdbMetric>();
+        metrics.add(point("http.requests.count", 3L, "host", "a", "path", "/x"));
+        metrics.add(point("http.requests.count", 4L, "host", "a", "path", "/y"));
+        metrics.add(point("http.requests.count", 5L, "host", "b", "path", "/x"));
+        metrics.add(point("other", 1L, "host", "a", "path", "/x"));
+
+        final Rollups rollups = new Rollups(Arrays.asList(
+                RollupRule.forMetric("http.requests.count").without("path").named("http.requests.total")));
+        final Set<OpenTsdbMetric> result = rollups.apply(metrics);
+
+        assertEquals(6, result.size());
+        assertTrue(result.containsAll(metrics));
+        assertTrue(result.contains(point("http.requests.total", 7L, "host", "a")));
+        assertTrue(result.contains(point("http.requests.total", 5L, "host", "b")));
+    }
+
+    @Test
+    public void testSuppressRawAndAggregations() {
+        final Set<OpenTsdbMetric> metrics = new HashSet<OpenTsdbMetric>();
+        metrics.add(point("latency.p99", 2.0, "host", "a"));
+        metrics.add(point("latency.p99", 6.0, "host", "b"));
+
+        final Rollups rollups = new Rollups(Arrays.asList(
+                RollupRule.forMetric("latency.p99").without("host").aggregatedBy(RollupRule.Aggregation.MAX).suppressingRaw(),
+                RollupRule.forMetric("latency.p99").without("host").aggregatedBy(RollupRule.Aggregation.AVG).named("latency.p99.avg"),
+                RollupRule.forMetric("latency.p99").without("host").aggregatedBy(RollupRule.Aggregation.COUNT).named("latency.p99.hosts")));
+        final Set<OpenTsdbMetric> result = rollups.apply(metrics);
+
+        assertEquals(3, result.size());
+        assertTrue(result.contains(point("latency.p99", 6.0)));
+        assertTrue(result.contains(point("latency.p99.avg", 4.0)));
+        assertTrue(result.contains(point("latency.p99.hosts", 2L)));
+    }
+
+    @Test
+    public void testAggregatesStartOverEachReport() {
+        final Rollups rollups = new Rollups(Arrays.asList(
+                RollupRule.forMetric("http.requests.count").without("path").named("http.requests.total").suppressingRaw()));
+        final Set<OpenTsdbMetric> first = new HashSet<OpenTsdbMetric>();
+        first.add(point("http.requests.count", 3L, "host", "a", "path", "/x"));
+        first.add(point("http.requests.count", 4L, "host", "b", "path", "/x"));
+        assertEquals(2, rollups.apply(first).size());
+
+        final Set<OpenTsdbMetric> second = new HashSet<OpenTsdbMetric>();
+        second.add(point("http.requests.count", 1L, "host", "a", "path", "/x"));
+        second.add(point("http.requests.count", 2L, "host", "a", "path", "/y"));
+        final Set<OpenTsdbMetric> result = rollups.apply(second);
+        assertEquals(1, result.size());
+        assertTrue(result.contains(point("http.requests.total", 3L, "host", "a")));
+
+        assertTrue(rollups.apply(new HashSet<OpenTsdbMetric>()).isEmpty());
+    }
+
+    @Test
+    public void testDroppingAllTags() {
+        final Set<OpenTsdbMetric> metrics = new HashSet<OpenTsdbMetric>();
+        metrics.add(point("queue.depth", 3L, "queue", "a"));
+        metrics.add(point("queue.depth", 4L, "queue", "b"));
+
+        final Rollups rollups = new Rollups(Arrays.asList(
+                RollupRule.forMetric("queue.depth").without("queue").named("queue.depth.total")));
+        assertTrue(rollups.apply(metrics).contains(point("queue.depth.total", 7L)));
+    }
+
+    private static OpenTsdbMetric point(String name, Object value, String... tags) {
+        final Map<String, String> tagMap = new HashMap<String, String>();
+        for (int i = 0; i < tags.length; i += 2) {
+            tagMap.put(tags[i], tags[i + 1]);
+        }
+        return OpenTsdbMetric.named(name).withTimestamp(100L).withValue(value).withTags(tagMap).build();
+    }
+}
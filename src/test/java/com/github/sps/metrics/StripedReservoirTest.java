@@ -0,0 +1,148 @@
+package com.github.sps.metrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Snapshot;
+
+public class StripedReservoirTest {
+
+	@Test
+	public void testKeepsLatestValuesPerThread() {
+		StripedReservoir reservoir = new StripedReservoir(4);
+		for (long i = 1; i <= 6; i++) {
+			reservoir.update(i);
+		}
+		assertEquals(4, reservoir.size());
+		assertArrayEquals(new long[]{3, 4, 5, 6}, reservoir.getSnapshot().getValues());
+	}
+
+	@Test
+	public void testMergesThreads() throws Exception {
+		final StripedReservoir reservoir = new StripedReservoir(16);
+		reservoir.update(1);
+		Thread other = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				reservoir.update(100);
+				reservoir.update(200);
+			}
+		});
+		other.start();
+		other.join();
+
+		Snapshot snapshot = reservoir.getSnapshot();
+		assertArrayEquals(new long[]{1, 100, 200}, snapshot.getValues());
+		// the buffer of the finished thread is dropped after one snapshot
+		assertArrayEquals(new long[]{1}, reservoir.getSnapshot().getValues());
+	}
+
+	@Test
+	public void testValuesExpireWithTheirWindow() {
+		ManualClock clock = new ManualClock();
+		StripedReservoir reservoir = new StripedReservoir(16, 1, TimeUnit.SECONDS, clock);
+		reservoir.update(1);
+		reservoir.update(2);
+
+		clock.tick += TimeUnit.SECONDS.toNanos(1);
+		// the previous window is still included
+		assertArrayEquals(new long[]{1, 2}, reservoir.getSnapshot().getValues());
+		// recording in a new window clears the ring
+		reservoir.update(3);
+		assertArrayEquals(new long[]{3}, reservoir.getSnapshot().getValues());
+
+		clock.tick += TimeUnit.SECONDS.toNanos(2);
+		assertEquals(0, reservoir.getSnapshot().size());
+		// the released ring is replaced on the next update
+		reservoir.update(4);
+		assertArrayEquals(new long[]{4}, reservoir.getSnapshot().getValues());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCapacityMustBePowerOfTwo() {
+		new StripedReservoir(100);
+	}
+
+	@Test
+	public void testStripedTimer() {
+		TaggedMetricRegistry registry = new TaggedMetricRegistry();
+		TaggedStripedTimer timer = registry.taggedStripedTimer("latency", Collections.singletonMap("endpoint", "/search"));
+		assertSame(timer, registry.taggedStripedTimer("latency", Collections.singletonMap("endpoint", "/search")));
+
+		timer.record(TimeUnit.MILLISECONDS.toNanos(5));
+		timer.record(TimeUnit.MILLISECONDS.toNanos(7));
+		timer.record(-1);
+		assertEquals(2, timer.getCount());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(7), timer.getSnapshot().getMax());
+	}
+
+	@Test
+	public void testCountIncludesReleasedBuffers() throws Exception {
+		ManualClock clock = new ManualClock();
+		final StripedReservoir reservoir = new StripedReservoir(2, 1, TimeUnit.SECONDS, clock);
+		for (long i = 0; i < 5; i++) {
+			reservoir.update(i);
+		}
+		Thread other = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				reservoir.update(100);
+			}
+		});
+		other.start();
+		other.join();
+		assertEquals(6, reservoir.getCount());
+
+		// the finished thread's buffer goes, then this thread's idle one
+		reservoir.getSnapshot();
+		clock.tick += TimeUnit.SECONDS.toNanos(3);
+		assertEquals(0, reservoir.getSnapshot().size());
+		assertEquals(6, reservoir.getCount());
+		reservoir.update(7);
+		assertEquals(7, reservoir.getCount());
+	}
+
+	@Test
+	public void testStripedTimerRates() {
+		ManualClock clock = new ManualClock();
+		StripedReservoir reservoir = new StripedReservoir(16, 1, TimeUnit.MINUTES, clock);
+		TaggedStripedTimer timer = new TaggedStripedTimer(reservoir, clock, Collections.<String, String>emptyMap());
+		for (int i = 0; i < 10; i++) {
+			timer.update(Duration.ofMillis(i));
+		}
+		clock.tick += TimeUnit.SECONDS.toNanos(5);
+		assertEquals(10, timer.getCount());
+		assertEquals(2.0, timer.getMeanRate(), 0.001);
+		assertEquals(2.0, timer.getOneMinuteRate(), 0.001);
+		assertEquals(10, timer.getSnapshot().size());
+	}
+
+	@Test
+	public void testStripedHistogram() {
+		TaggedMetricRegistry registry = new TaggedMetricRegistry();
+		TaggedStripedHistogram histogram = registry.taggedStripedHistogram("size", Collections.singletonMap("endpoint", "/search"));
+		assertSame(histogram, registry.taggedStripedHistogram("size", Collections.singletonMap("endpoint", "/search")));
+
+		histogram.update(3);
+		histogram.update(9);
+		assertEquals(2, histogram.getCount());
+		assertEquals(9, histogram.getSnapshot().getMax());
+	}
+
+	private static class ManualClock extends Clock {
+		private long tick = 0;
+
+		@Override
+		public long getTick() {
+			return tick;
+		}
+	}
+}
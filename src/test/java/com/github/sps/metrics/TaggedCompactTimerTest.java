@@ -0,0 +1,148 @@
+package com.github.sps.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+public class TaggedCompactTimerTest {
+
+	private static class ManualClock extends Clock {
+		private long tick = 0;
+
+		@Override
+		public long getTick() {
+			return tick;
+		}
+	}
+
+	@Test
+	public void testBuckets() {
+		assertEquals(0, TaggedCompactTimer.bucket(0));
+		assertEquals(0, TaggedCompactTimer.bucket(1023));
+		assertEquals(1, TaggedCompactTimer.bucket(1024));
+		assertEquals(2, TaggedCompactTimer.bucket(1280));
+		assertEquals(5, TaggedCompactTimer.bucket(2048));
+		assertEquals(TaggedCompactTimer.BUCKETS - 1, TaggedCompactTimer.bucket(Long.MAX_VALUE));
+		for (int i = 1; i < TaggedCompactTimer.BUCKETS; i++) {
+			assertEquals(i, TaggedCompactTimer.bucket(TaggedCompactTimer.lowerBound(i)));
+			assertEquals(i - 1, TaggedCompactTimer.bucket(TaggedCompactTimer.lowerBound(i) - 1));
+		}
+	}
+
+	@Test
+	public void testSnapshot() {
+		TaggedCompactTimer timer = new TaggedCompactTimer(Collections.singletonMap("a", "b"));
+		for (int i = 1; i <= 100; i++) {
+			timer.update(i, TimeUnit.MILLISECONDS);
+		}
+		timer.update(-1, TimeUnit.MILLISECONDS);
+		assertEquals(100, timer.getCount());
+
+		Snapshot snapshot = timer.getSnapshot();
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(1), snapshot.getMin());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(100), snapshot.getMax());
+		assertEquals(TimeUnit.MICROSECONDS.toNanos(50500), snapshot.getMean(), 1);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(50), snapshot.getMedian(), TimeUnit.MILLISECONDS.toNanos(50) * 0.125);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(99), snapshot.get99thPercentile(), TimeUnit.MILLISECONDS.toNanos(99) * 0.125);
+		assertEquals(100, snapshot.getValues().length);
+		assertTrue(snapshot.getStdDev() > 0);
+	}
+
+	@Test
+	public void testUpdateDuration() {
+		TaggedCompactTimer timer = new TaggedCompactTimer(Collections.singletonMap("a", "b"));
+		timer.update(Duration.ofMillis(5));
+		assertEquals(1, timer.getCount());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(5), timer.getSnapshot().getMax());
+	}
+
+	@Test
+	public void testTimeAndRates() throws Exception {
+		ManualClock clock = new ManualClock();
+		TaggedCompactTimer timer = new TaggedCompactTimer(clock, null);
+		Timer.Context context = timer.time();
+		clock.tick += TimeUnit.MILLISECONDS.toNanos(3);
+		context.stop();
+		timer.time(new Runnable() {
+			@Override
+			public void run() {
+			}
+		});
+		assertEquals(2, timer.getCount());
+
+		clock.tick = TimeUnit.SECONDS.toNanos(5);
+		assertEquals(0.4, timer.getMeanRate(), 0.001);
+		assertEquals(0.4, timer.getOneMinuteRate(), 0.001);
+		assertEquals(0.4, timer.getFifteenMinuteRate(), 0.001);
+
+		clock.tick += TimeUnit.MINUTES.toNanos(1);
+		assertTrue(timer.getOneMinuteRate() < 0.4 * 0.4);
+		assertTrue(timer.getFifteenMinuteRate() > timer.getOneMinuteRate());
+	}
+
+	@Test
+	public void testRegistry() {
+		TaggedMetricRegistry registry = new TaggedMetricRegistry();
+		Map<String, String> tags = Collections.singletonMap("endpoint", "/search");
+		TaggedCompactTimer timer = registry.taggedCompactTimer("latency", tags);
+		assertEquals(timer, registry.getTaggedTimer("latency", tags));
+	}
+
+	/**
+	 * Measures the bytes allocated to create and fill timers, which for the compact timer is its
+	 * footprint since recording does not allocate.
+	 */
+	@Test
+	public void testFootprint() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+		final int series = 1000;
+		final Map<String, String> tags = Collections.singletonMap("a", "b");
+
+		List<Timer> compact = new ArrayList<Timer>(series);
+		long start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		for (int i = 0; i < series; i++) {
+			compact.add(new TaggedCompactTimer(tags));
+		}
+		long compactBytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+		fill(compact);
+		long compactFilledBytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+
+		List<Timer> regular = new ArrayList<Timer>(series);
+		start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		for (int i = 0; i < series; i++) {
+			regular.add(new TaggedTimer(tags));
+		}
+		fill(regular);
+		long regularBytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+
+		assertTrue("compact timer takes " + compactBytes / series + " bytes", compactBytes / series < 1300);
+		// recording allocates nothing
+		assertTrue(compactFilledBytes - compactBytes < series * 16L);
+		assertTrue("regular timer takes " + regularBytes / series + " bytes", regularBytes > 10 * compactFilledBytes);
+	}
+
+	private static void fill(List<Timer> timers) {
+		for (Timer timer : timers) {
+			for (int i = 0; i < 1028; i++) {
+				timer.update(i * 1000L, TimeUnit.NANOSECONDS);
+			}
+		}
+	}
+}
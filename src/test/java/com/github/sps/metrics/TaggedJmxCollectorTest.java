@@ -0,0 +1,145 @@
+package com.github.sps.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.Clock;
+
+public class TaggedJmxCollectorTest {
+
+	public interface QueueMBean {
+		long getSize();
+
+		String getState();
+	}
+
+	public static class Queue implements QueueMBean {
+		private final long size;
+
+		public Queue(long size) {
+			this.size = size;
+		}
+
+		@Override
+		public long getSize() {
+			return size;
+		}
+
+		@Override
+		public String getState() {
+			return "running";
+		}
+	}
+
+	private MBeanServer mBeanServer;
+	private TaggedMetricRegistry registry;
+	private TaggedJmxCollector collector;
+
+	@Before
+	public void setUp() throws Exception {
+		mBeanServer = MBeanServerFactory.newMBeanServer();
+		registry = new TaggedMetricRegistry();
+		JmxAttributeCache cache = new JmxAttributeCache(mBeanServer, 0, 0, TimeUnit.SECONDS, Clock.defaultClock());
+		collector = new TaggedJmxCollector(registry, cache)
+				.addPattern(new ObjectName("broker:type=Queue,name=*"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		collector.stop();
+	}
+
+	@Test
+	public void testExistingAndNewMBeans() throws Exception {
+		mBeanServer.registerMBean(new Queue(3), new ObjectName("broker:type=Queue,name=orders"));
+		mBeanServer.registerMBean(new Queue(5), new ObjectName("broker:type=Topic,name=orders"));
+		collector.start();
+
+		TaggedMetric orders = registry.getTaggedMetric("broker.Size", tags("orders"));
+		assertNotNull(orders);
+		assertEquals(tags("orders"), orders.getTags());
+		assertEquals(3L, ((TaggedJmxAttributeGauge) orders).getValue());
+		// non numeric attributes are not collected
+		assertNull(registry.getTaggedMetric("broker.State", null));
+
+		mBeanServer.registerMBean(new Queue(7), new ObjectName("broker:type=Queue,name=\"pay ments\""));
+		TaggedMetric payments = registry.getTaggedMetric("broker.Size", tags("pay-ments"));
+		assertNotNull(payments);
+		assertEquals(7L, ((TaggedJmxAttributeGauge) payments).getValue());
+		assertEquals(2, collector.getObjectNames().size());
+
+		mBeanServer.unregisterMBean(new ObjectName("broker:type=Queue,name=orders"));
+		assertNull(registry.getTaggedMetric("broker.Size", tags("orders")));
+		assertEquals(1, collector.getObjectNames().size());
+	}
+
+	@Test
+	public void testExplicitAttributes() throws Exception {
+		collector.addPattern(new ObjectName("broker:type=Topic,*"), "State");
+		collector.start();
+		mBeanServer.registerMBean(new Queue(5), new ObjectName("broker:type=Topic,name=events"));
+
+		Map<String, String> topicTags = new HashMap<String, String>();
+		topicTags.put("type", "Topic");
+		topicTags.put("name", "events");
+		TaggedMetric state = registry.getTaggedMetric("broker.State", topicTags);
+		assertEquals("running", ((TaggedJmxAttributeGauge) state).getValue());
+		assertNull(registry.getTaggedMetric("broker.Size", topicTags));
+	}
+
+	@Test
+	public void testStopRemovesGauges() throws Exception {
+		mBeanServer.registerMBean(new Queue(3), new ObjectName("broker:type=Queue,name=orders"));
+		collector.start();
+		collector.stop();
+		assertNull(registry.getTaggedMetric("broker.Size", tags("orders")));
+
+		mBeanServer.registerMBean(new Queue(7), new ObjectName("broker:type=Queue,name=payments"));
+		assertTrue(collector.getObjectNames().isEmpty());
+	}
+
+	@Test
+	public void testPatternAddedAfterStartMergesAttributes() throws Exception {
+		mBeanServer.registerMBean(new Queue(3), new ObjectName("broker:type=Queue,name=orders"));
+		collector.start();
+		collector.addPattern(new ObjectName("broker:type=Queue,*"), "State");
+
+		TaggedMetric state = registry.getTaggedMetric("broker.State", tags("orders"));
+		assertNotNull(state);
+		assertEquals("running", ((TaggedJmxAttributeGauge) state).getValue());
+		assertNotNull(registry.getTaggedMetric("broker.Size", tags("orders")));
+	}
+
+	@Test
+	public void testOnlyOwnGaugesAreRemoved() throws Exception {
+		ObjectName orders = new ObjectName("broker:type=Queue,name=orders");
+		mBeanServer.registerMBean(new Queue(3), orders);
+		TaggedMetric other = registry.getOrRegisterTaggedMetric("broker.Size",
+				new TaggedJmxAttributeGauge(mBeanServer, orders, "Size", tags("orders")));
+		collector.start();
+		collector.stop();
+		assertSame(other, registry.getTaggedMetric("broker.Size", tags("orders")));
+	}
+
+	private static Map<String, String> tags(String name) {
+		Map<String, String> tags = new HashMap<String, String>();
+		tags.put("type", "Queue");
+		tags.put("name", name);
+		return tags;
+	}
+}
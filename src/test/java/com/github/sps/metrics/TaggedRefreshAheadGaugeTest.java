@@ -0,0 +1,122 @@
+package com.github.sps.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+
+public class TaggedRefreshAheadGaugeTest {
+
+	private ScheduledExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newScheduledThreadPool(2);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testValueIsLoadedInBackground() throws Exception {
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch loaded = new CountDownLatch(3);
+		TaggedRefreshAheadGauge<Integer> gauge = new TaggedRefreshAheadGauge<Integer>(executor, 10, 1000, TimeUnit.MILLISECONDS) {
+			@Override
+			protected Integer loadValue() {
+				loaded.countDown();
+				return loads.incrementAndGet();
+			}
+
+			@Override
+			public Map<String, String> getTags() {
+				return Collections.singletonMap("a", "b");
+			}
+		};
+		assertEquals(-1L, gauge.getStalenessNanos());
+		gauge.start();
+		assertTrue(loaded.await(5, TimeUnit.SECONDS));
+		gauge.stop();
+
+		assertTrue(gauge.getValue() >= 2);
+		assertTrue(gauge.getStalenessNanos() >= 0);
+		assertEquals(0L, ((Counter) gauge.getStats().getMetrics().get("load-failures")).getCount());
+	}
+
+	@Test
+	public void testSlowLoadTimesOutAndKeepsValue() throws Exception {
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch timedOut = new CountDownLatch(1);
+		TaggedRefreshAheadGauge<Integer> gauge = new TaggedRefreshAheadGauge<Integer>(executor, 20, 50, TimeUnit.MILLISECONDS) {
+			@Override
+			protected Integer loadValue() throws Exception {
+				if (loads.incrementAndGet() > 1) {
+					try {
+						Thread.sleep(10000);
+					} finally {
+						timedOut.countDown();
+					}
+				}
+				return 42;
+			}
+
+			@Override
+			public Map<String, String> getTags() {
+				return null;
+			}
+		};
+		gauge.start();
+		assertTrue(timedOut.await(5, TimeUnit.SECONDS));
+		Map<String, Metric> stats = gauge.getStats().getMetrics();
+		// the timeout is counted right after the load is interrupted
+		for (int i = 0; i < 500 && ((Counter) stats.get("load-timeouts")).getCount() == 0; i++) {
+			Thread.sleep(10);
+		}
+		gauge.stop();
+
+		assertEquals(Integer.valueOf(42), gauge.getValue());
+		assertTrue(((Counter) stats.get("load-timeouts")).getCount() >= 1);
+		assertTrue((Long) ((Gauge<?>) stats.get("staleness-ms")).getValue() >= 0);
+	}
+
+	@Test
+	public void testFailuresAreCounted() throws Exception {
+		final CountDownLatch failed = new CountDownLatch(2);
+		TaggedRefreshAheadGauge<Integer> gauge = new TaggedRefreshAheadGauge<Integer>(executor, 10, 1000, TimeUnit.MILLISECONDS) {
+			@Override
+			protected Integer loadValue() throws Exception {
+				failed.countDown();
+				throw new IllegalStateException("no connection");
+			}
+
+			@Override
+			public Map<String, String> getTags() {
+				return null;
+			}
+		};
+		// the first read starts refreshing and returns at once
+		assertNull(gauge.getValue());
+		assertTrue(failed.await(5, TimeUnit.SECONDS));
+		gauge.stop();
+
+		assertNull(gauge.getValue());
+		assertTrue(((Counter) gauge.getStats().getMetrics().get("load-failures")).getCount() >= 1);
+	}
+}
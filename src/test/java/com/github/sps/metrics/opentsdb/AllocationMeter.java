@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the bytes allocated by the current thread, for allocation budget tests. Tests using it
+ * are skipped on JVMs which can't count allocations per thread.
+ */
+public class AllocationMeter {
+
+    /**
+     * Work measured by {@link #bytesPerRun}.
+     */
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    private final com.sun.management.ThreadMXBean threads;
+
+    public AllocationMeter() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+    }
+
+    public long getAllocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Runs {@code task} {@code warmups} times, then returns the bytes allocated per run over
+     * {@code runs} more.
+     */
+    public long bytesPerRun(Task task, int warmups, int runs) throws Exception {
+        for (int i = 0; i < warmups; i++) {
+            task.run();
+        }
+        final long start = getAllocatedBytes();
+        for (int i = 0; i < runs; i++) {
+            task.run();
+        }
+        return (getAllocatedBytes() - start) / runs;
+    }
+}
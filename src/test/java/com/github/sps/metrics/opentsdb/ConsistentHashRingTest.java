@@ -0,0 +1,105 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ConsistentHashRingTest {
+
+    private static final int KEYS = 20000;
+
+    @Test
+    public void testEmpty() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<String>();
+        assertTrue(ring.isEmpty());
+        assertNull(ring.get(42L));
+    }
+
+    @Test
+    public void testEvenDistribution() {
+        ConsistentHashRing<String> ring = ring("a", "b", "c", "d");
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < KEYS; i++) {
+            String node = ring.get(ConsistentHashRing.hash("series." + i));
+            Integer count = counts.get(node);
+            counts.put(node, count == null ? 1 : count + 1);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values()) {
+            // within 25% of a perfect split
+            assertTrue("uneven split " + counts, Math.abs(count - KEYS / 4) < KEYS / 16);
+        }
+    }
+
+    @Test
+    public void testMinimalRemapOnAdd() {
+        ConsistentHashRing<String> ring = ring("a", "b", "c");
+        Map<Integer, String> before = assignments(ring);
+
+        ring.add("d", "d");
+        Map<Integer, String> after = assignments(ring);
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (!before.get(i).equals(after.get(i))) {
+                // keys only ever move to the new node
+                assertEquals("d", after.get(i));
+                moved++;
+            }
+        }
+        assertTrue("moved " + moved, moved > KEYS / 8 && moved < KEYS * 3 / 8);
+    }
+
+    @Test
+    public void testMinimalRemapOnRemove() {
+        ConsistentHashRing<String> ring = ring("a", "b", "c", "d");
+        Map<Integer, String> before = assignments(ring);
+
+        assertEquals("b", ring.remove("b"));
+        assertNull(ring.remove("b"));
+        Map<Integer, String> after = assignments(ring);
+
+        for (int i = 0; i < KEYS; i++) {
+            if (!"b".equals(before.get(i))) {
+                assertEquals(before.get(i), after.get(i));
+            }
+        }
+        assertEquals(3, ring.getMembers().size());
+    }
+
+    private static ConsistentHashRing<String> ring(String... ids) {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<String>();
+        for (String id : ids) {
+            ring.add(id, id);
+        }
+        return ring;
+    }
+
+    private static Map<Integer, String> assignments(ConsistentHashRing<String> ring) {
+        Map<Integer, String> assignments = new HashMap<Integer, String>();
+        for (int i = 0; i < KEYS; i++) {
+            assignments.put(i, ring.get(ConsistentHashRing.hash("series." + i)));
+        }
+        return assignments;
+    }
+}
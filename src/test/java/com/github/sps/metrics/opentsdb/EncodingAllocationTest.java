@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import com.github.sps.metrics.ReportFixtures;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Writer;
+import java.util.Set;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Allocation budgets of the telnet and JSON encoders in steady state, for the points encoded by
+ * {@code EncodingBenchmark}.
+ */
+public class EncodingAllocationTest {
+
+    private static final int POINTS = 2000;
+
+    /**
+     * Bytes per point for the telnet put lines, chunked writes included.
+     */
+    private static final long TELNET_BUDGET = 160;
+
+    /**
+     * Bytes per point for the JSON body, which is a byte array sized to the whole batch.
+     */
+    private static final long JSON_BUDGET = 320;
+
+    private Set<OpenTsdbMetric> metrics;
+
+    @Before
+    public void setUp() {
+        metrics = ReportFixtures.points("alloc", POINTS);
+    }
+
+    @Test
+    public void testTelnet() throws Exception {
+        final Writer writer = Writer.nullWriter();
+        final OpenTsdbTelnet telnet = OpenTsdbTelnet.forWriter(writer).create();
+        final long perPoint = new AllocationMeter().bytesPerRun(new AllocationMeter.Task() {
+            @Override
+            public void run() throws Exception {
+                telnet.write(metrics, writer);
+            }
+        }, 50, 20) / POINTS;
+        assertTrue("telnet allocates " + perPoint + " bytes per point", perPoint <= TELNET_BUDGET);
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        final long perPoint = new AllocationMeter().bytesPerRun(new AllocationMeter.Task() {
+            @Override
+            public void run() throws Exception {
+                OpenTsdb.toJson(metrics);
+            }
+        }, 50, 20) / POINTS;
+        assertTrue("JSON encoding allocates " + perPoint + " bytes per point", perPoint <= JSON_BUDGET);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import com.codahale.metrics.Clock;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EndpointPoolTest {
+
+    private final List<String> calls = new ArrayList<String>();
+    private final ManualClock clock = new ManualClock();
+
+    @Before
+    public void setUp() {
+        calls.clear();
+    }
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        EndpointPool<String> pool = new EndpointPool<String>(Arrays.asList("a", "b", "c"),
+                EndpointPool.Balancing.ROUND_ROBIN);
+        for (int i = 0; i < 6; i++) {
+            pool.execute(record());
+        }
+        assertEquals(Arrays.asList("a", "b", "c", "a", "b", "c"), calls);
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        EndpointPool<String> pool = new EndpointPool<String>(Arrays.asList("a", "b", "c"),
+                EndpointPool.Balancing.ROUND_ROBIN);
+        pool.execute(record("a"));
+        assertEquals(Arrays.asList("a", "b"), calls);
+    }
+
+    @Test
+    public void testAllFail() {
+        EndpointPool<String> pool = new EndpointPool<String>(Arrays.asList("a", "b"),
+                EndpointPool.Balancing.ROUND_ROBIN);
+        try {
+            pool.execute(new EndpointPool.Call<String>() {
+                @Override
+                public void call(String endpoint) throws Exception {
+                    calls.add(endpoint);
+                    throw new IOException(endpoint);
+                }
+            });
+            fail("expected the last failure to be rethrown");
+        } catch (Exception e) {
+            assertEquals("b", e.getMessage());
+        }
+        assertEquals(Arrays.asList("a", "b"), calls);
+    }
+
+    @Test
+    public void testEjectionAndReprobe() throws Exception {
+        EndpointPool<String> pool = new EndpointPool<String>(Arrays.asList("a", "b"),
+                EndpointPool.Balancing.ROUND_ROBIN, 2, 10, TimeUnit.SECONDS, clock);
+
+        pool.execute(record("a"));
+        pool.execute(record("a"));
+        pool.execute(record("a"));
+        assertEquals(1, pool.getAvailableCount());
+
+        // while ejected, "a" receives nothing
+        calls.clear();
+        for (int i = 0; i < 4; i++) {
+            pool.execute(record());
+        }
+        assertEquals(Arrays.asList("b", "b", "b", "b"), calls);
+
+        // after the ejection time "a" is probed and restored on success
+        clock.tick += TimeUnit.SECONDS.toNanos(11);
+        assertEquals(2, pool.getAvailableCount());
+        calls.clear();
+        pool.execute(record());
+        pool.execute(record());
+        assertTrue(calls.contains("a"));
+        assertEquals(2, pool.getAvailableCount());
+    }
+
+    @Test
+    public void testFailedProbeEjectsAgain() throws Exception {
+        EndpointPool<String> pool = new EndpointPool<String>(Arrays.asList("a", "b"),
+                EndpointPool.Balancing.ROUND_ROBIN, 1, 10, TimeUnit.SECONDS, clock);
+
+        pool.execute(record("a"));
+        assertEquals(1, pool.getAvailableCount());
+
+        clock.tick += TimeUnit.SECONDS.toNanos(11);
+        assertEquals(2, pool.getAvailableCount());
+        pool.execute(record("a"));
+        pool.execute(record("a"));
+        assertEquals(1, pool.getAvailableCount());
+    }
+
+    @Test
+    public void testSingleProbeAfterEjection() throws Exception {
+        final EndpointPool<String> pool = new EndpointPool<String>(Arrays.asList("a", "b"),
+                EndpointPool.Balancing.ROUND_ROBIN, 1, 10, TimeUnit.SECONDS, clock);
+        pool.execute(record("a"));
+
+        clock.tick += TimeUnit.SECONDS.toNanos(11);
+        calls.clear();
+        // requests made while the probe to "a" is in flight stay on "b"
+        pool.execute(new EndpointPool.Call<String>() {
+            @Override
+            public void call(String probed) throws Exception {
+                calls.add(probed);
+                for (int i = 0; i < 3; i++) {
+                    pool.execute(record());
+                }
+            }
+        });
+        assertEquals(Arrays.asList("a", "b", "b", "b"), calls);
+        assertEquals(2, pool.getAvailableCount());
+    }
+
+    @Test
+    public void testAllEjectedStillTried() throws Exception {
+        EndpointPool<String> pool = new EndpointPool<String>(Arrays.asList("a", "b"),
+                EndpointPool.Balancing.ROUND_ROBIN, 1, 10, TimeUnit.SECONDS, clock);
+        try {
+            pool.execute(record("a", "b"));
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(0, pool.getAvailableCount());
+
+        calls.clear();
+        pool.execute(record());
+        assertEquals(1, calls.size());
+    }
+
+    @Test
+    public void testLeastOutstanding() throws Exception {
+        final EndpointPool<String> pool = new EndpointPool<String>(Arrays.asList("a", "b", "c"),
+                EndpointPool.Balancing.LEAST_OUTSTANDING);
+        // while a request to one endpoint is in flight, nested requests go to the idle ones
+        pool.execute(new EndpointPool.Call<String>() {
+            @Override
+            public void call(final String outer) throws Exception {
+                calls.add(outer);
+                pool.execute(new EndpointPool.Call<String>() {
+                    @Override
+                    public void call(String inner) throws Exception {
+                        calls.add(inner);
+                        pool.execute(record());
+                    }
+                });
+            }
+        });
+        assertEquals(3, calls.size());
+        assertEquals(3, new HashSet<String>(calls).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmpty() {
+        new EndpointPool<String>(Collections.<String>emptyList(), EndpointPool.Balancing.ROUND_ROBIN);
+    }
+
+    private EndpointPool.Call<String> record(final String... failing) {
+        final List<String> failures = Arrays.asList(failing);
+        return new EndpointPool.Call<String>() {
+            @Override
+            public void call(String endpoint) throws Exception {
+                calls.add(endpoint);
+                if (failures.contains(endpoint)) {
+                    throw new IOException(endpoint + " is down");
+                }
+            }
+        };
+    }
+
+    private static class ManualClock extends Clock {
+        private long tick = 1;
+
+        @Override
+        public long getTick() {
+            return tick;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An in-process stand-in for a TSD, taking points on {@code /api/put} (JSON, optionally gzipped)
+ * and as telnet {@code put} lines, and counting them. It can be made slow, flaky or capped:
+ *
+ * <ul>
+ * <li>latency: each HTTP request, and each telnet connection, is held for a fixed time first</li>
+ * <li>error rate: the share of HTTP requests answered with a 500, and of telnet connections
+ * closed without reading</li>
+ * <li>throughput cap: points are taken no faster than a given rate, slowing the senders down</li>
+ * </ul>
+ */
+public class FakeOpenTsdbServer implements Closeable {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final HttpServer httpServer;
+    private final ServerSocket telnetServer;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final AtomicLong points = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile long lastIngestNanos;
+
+    private volatile long latencyNanos;
+    private volatile double errorRate;
+    private volatile double maxPointsPerSecond;
+    private long nextFreeNanos;
+
+    /**
+     * Starts the HTTP and telnet listeners on ephemeral ports of the loopback address.
+     *
+     * @throws IOException if a port can't be bound
+     */
+    public FakeOpenTsdbServer() throws IOException {
+        final InetAddress loopback = InetAddress.getLoopbackAddress();
+        httpServer = HttpServer.create(new InetSocketAddress(loopback, 0), 0);
+        httpServer.createContext("/api/put", new PutHandler());
+        httpServer.setExecutor(executor);
+        httpServer.start();
+
+        telnetServer = new ServerSocket(0, 50, loopback);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptTelnet();
+            }
+        });
+    }
+
+    public FakeOpenTsdbServer withLatency(long latency, TimeUnit unit) {
+        this.latencyNanos = unit.toNanos(latency);
+        return this;
+    }
+
+    /**
+     * @param errorRate the share of requests and connections to fail, between 0 and 1
+     * @return {@code this}
+     */
+    public FakeOpenTsdbServer withErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    /**
+     * @param maxPointsPerSecond the most points taken per second, {@code 0} for no limit
+     * @return {@code this}
+     */
+    public FakeOpenTsdbServer withMaxPointsPerSecond(double maxPointsPerSecond) {
+        this.maxPointsPerSecond = maxPointsPerSecond;
+        return this;
+    }
+
+    /**
+     * @return the base URL for {@link OpenTsdb#forService(String)}
+     */
+    public String getHttpUrl() {
+        return "http://" + httpServer.getAddress().getHostString() + ":" + httpServer.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @return the address for {@link OpenTsdbTelnet#forService(String, int)}
+     */
+    public InetSocketAddress getTelnetAddress() {
+        return new InetSocketAddress(telnetServer.getInetAddress(), telnetServer.getLocalPort());
+    }
+
+    /**
+     * @return the points taken over both protocols
+     */
+    public long getPointCount() {
+        return points.get();
+    }
+
+    /**
+     * @return the HTTP requests and telnet connections received
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the HTTP requests and telnet connections failed on purpose
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the last point was taken
+     */
+    public long getLastIngestNanos() {
+        return lastIngestNanos;
+    }
+
+    /**
+     * @return {@code true} if {@code count} points were taken before the timeout
+     */
+    public boolean awaitPoints(long count, long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (points.get() < count) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    public void reset() {
+        points.set(0);
+        requests.set(0);
+        errors.set(0);
+        lastIngestNanos = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpServer.stop(0);
+        telnetServer.close();
+        executor.shutdownNow();
+    }
+
+    private boolean shouldFail() {
+        return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+    }
+
+    private void delay() throws InterruptedException {
+        final long latency = latencyNanos;
+        if (latency > 0) {
+            TimeUnit.NANOSECONDS.sleep(latency);
+        }
+    }
+
+    /**
+     * Takes {@code count} points, waiting as long as the throughput cap requires.
+     */
+    private void ingest(long count) throws InterruptedException {
+        final double cap = maxPointsPerSecond;
+        if (cap > 0) {
+            final long wait;
+            synchronized (this) {
+                final long now = System.nanoTime();
+                nextFreeNanos = Math.max(nextFreeNanos, now) + (long) (count * TimeUnit.SECONDS.toNanos(1) / cap);
+                wait = nextFreeNanos - now;
+            }
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+        points.addAndGet(count);
+        lastIngestNanos = System.nanoTime();
+    }
+
+    private class PutHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            try {
+                InputStream body = exchange.getRequestBody();
+                if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    body = new GZIPInputStream(body);
+                }
+                final JsonNode json = mapper.readTree(body);
+                delay();
+                if (shouldFail()) {
+                    errors.incrementAndGet();
+                    exchange.sendResponseHeaders(500, -1);
+                    return;
+                }
+                ingest(json.isArray() ? json.size() : 1);
+                exchange.sendResponseHeaders(204, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.sendResponseHeaders(503, -1);
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private void acceptTelnet() {
+        while (!telnetServer.isClosed()) {
+            final Socket socket;
+            try {
+                socket = telnetServer.accept();
+            } catch (IOException e) {
+                return;
+            }
+            requests.incrementAndGet();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    readTelnet(socket);
+                }
+            });
+        }
+    }
+
+    private void readTelnet(Socket socket) {
+        try {
+            delay();
+            if (shouldFail()) {
+                errors.incrementAndGet();
+                return;
+            }
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("put ")) {
+                    ingest(1);
+                }
+            }
+        } catch (IOException e) {
+            // the sender went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
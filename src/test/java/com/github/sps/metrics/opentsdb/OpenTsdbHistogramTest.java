@@ -0,0 +1,111 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class OpenTsdbHistogramTest {
+
+    @Test
+    public void testBucketing() {
+        OpenTsdbHistogram histogram = OpenTsdbHistogram.named("latency")
+                .withValues(new double[]{1, 2, 4, 8}, new double[]{0.5, 1, 1.5, 2, 3, 7.9, 8, 100})
+                .build();
+
+        assertArrayEquals(new long[]{2, 2, 1}, histogram.getCounts());
+        assertEquals(1, histogram.getUnderflow());
+        assertEquals(2, histogram.getOverflow());
+        assertEquals(Long.valueOf(2), histogram.getBuckets().get("1.0,2.0"));
+        assertEquals(Long.valueOf(1), histogram.getBuckets().get("4.0,8.0"));
+    }
+
+    @Test
+    public void testBucketingScalesToCount() {
+        OpenTsdbHistogram histogram = OpenTsdbHistogram.named("latency")
+                .withValues(new double[]{1, 2, 4, 8}, new double[]{0.5, 1, 1.5, 2, 3, 7.9, 8, 100}, 80)
+                .build();
+        assertArrayEquals(new long[]{20, 20, 10}, histogram.getCounts());
+        assertEquals(10, histogram.getUnderflow());
+        assertEquals(20, histogram.getOverflow());
+
+        OpenTsdbHistogram rounded = OpenTsdbHistogram.named("latency")
+                .withValues(new double[]{0, 1, 2, 3}, new double[]{0.5, 1.5, 2.5}, 10)
+                .build();
+        long total = rounded.getUnderflow() + rounded.getOverflow();
+        for (long count : rounded.getCounts()) {
+            assertTrue(count >= 3 && count <= 4);
+            total += count;
+        }
+        assertEquals(10, total);
+    }
+
+    @Test
+    public void testEncodedTags() {
+        OpenTsdbHistogram histogram = OpenTsdbHistogram.named(OpenTsdbMetric.encodeTagsInName("latency", "foo=bar"))
+                .withTimestamp(123L)
+                .build();
+        assertEquals("latency", histogram.getMetric());
+        assertEquals("bar", histogram.getTags().get("foo"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchedBuckets() {
+        OpenTsdbHistogram.named("latency").withBuckets(new double[]{1, 2}, new long[]{1, 2}, 0, 0);
+    }
+
+    @Test
+    public void testExponentialBounds() {
+        assertArrayEquals(new double[]{1, 2, 4, 8}, OpenTsdbHistogram.exponentialBounds(1, 2, 4), 0.0);
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        OpenTsdbHistogram histogram = OpenTsdbHistogram.named("latency")
+                .withTimestamp(123L)
+                .withValues(new double[]{0, 1.75, 3.5}, new double[]{1, 2, 3, 5})
+                .build();
+
+        JsonNode json = new ObjectMapper().readTree(new ObjectMapper().writeValueAsBytes(histogram));
+        assertEquals("latency", json.get("metric").asText());
+        assertEquals(123, json.get("timestamp").asLong());
+        assertEquals(1, json.get("buckets").get("0.0,1.75").asLong());
+        assertEquals(2, json.get("buckets").get("1.75,3.5").asLong());
+        assertEquals(1, json.get("overflow").asLong());
+        assertEquals(0, json.get("underflow").asLong());
+        assertNotNull(json.get("tags"));
+        assertFalse(json.has("bounds"));
+        assertFalse(json.has("counts"));
+    }
+
+    @Test
+    public void testEquals() {
+        OpenTsdbHistogram h1 = OpenTsdbHistogram.named("latency").withValues(new double[]{1, 2}, new double[]{1}).build();
+        OpenTsdbHistogram h2 = OpenTsdbHistogram.named("latency").withValues(new double[]{1, 2}, new double[]{1.5}).build();
+        OpenTsdbHistogram h3 = OpenTsdbHistogram.named("latency").withValues(new double[]{1, 2}, new double[]{3}).build();
+        assertTrue(h1.equals(h2));
+        assertEquals(h1.hashCode(), h2.hashCode());
+        assertFalse(h1.equals(h3));
+        assertNotNull(h1.toString());
+    }
+}
@@ -15,9 +15,11 @@
  */
 package com.github.sps.metrics.opentsdb;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Test;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -136,4 +138,64 @@ public class OpenTsdbMetricTest {
     public void testFixEncodedTagsInNameAfterPrefixWithBadFormat() {
         OpenTsdbMetric.fixEncodedTagsInNameAfterPrefix("str TAG(something=val");
     }
+
+    @Test
+    public void testPrimitiveValues() {
+        OpenTsdbMetric longMetric = OpenTsdbMetric.named("m").withValue(42L).build();
+        assertEquals(OpenTsdbMetric.ValueType.LONG, longMetric.getValueType());
+        assertEquals(42L, longMetric.getLongValue());
+        assertEquals(42L, longMetric.getValue());
+
+        OpenTsdbMetric doubleMetric = OpenTsdbMetric.named("m").withValue(0.1).build();
+        assertEquals(OpenTsdbMetric.ValueType.DOUBLE, doubleMetric.getValueType());
+        assertEquals(0.1, doubleMetric.getDoubleValue(), 0);
+        assertEquals(0.1, doubleMetric.getValue());
+
+        // boxed numbers land in the primitive slots
+        assertEquals(longMetric, OpenTsdbMetric.named("m").withValue((Object) Integer.valueOf(42)).build());
+        assertEquals(longMetric.hashCode(), OpenTsdbMetric.named("m").withValue((Object) 42L).build().hashCode());
+        assertEquals(doubleMetric, OpenTsdbMetric.named("m").withValue((Object) 0.1).build());
+        assertFalse(longMetric.equals(OpenTsdbMetric.named("m").withValue(42.0).build()));
+
+        // a replaced value leaves nothing behind that equals or hashCode could see
+        OpenTsdbMetric replaced = OpenTsdbMetric.named("m").withValue(0.5).withValue(42L).build();
+        assertEquals(longMetric, replaced);
+        assertEquals(longMetric.hashCode(), replaced.hashCode());
+
+        OpenTsdbMetric objectMetric = OpenTsdbMetric.named("m").withValue("x").build();
+        assertEquals(OpenTsdbMetric.ValueType.OBJECT, objectMetric.getValueType());
+        assertEquals("x", objectMetric.getValue());
+    }
+
+    @Test
+    public void testTelnetStringDoubles() {
+        OpenTsdbMetric o1 = OpenTsdbMetric.named("gauge")
+                .withValue(2.0E-5)
+                .withTimestamp(123L)
+                .withTags(Collections.singletonMap("foo", "bar"))
+                .build();
+        assertEquals("put gauge 123 2.0E-5 foo=bar\n", o1.toTelnetPutString());
+
+        OpenTsdbMetric o2 = OpenTsdbMetric.named("gauge").withValue(0.1 + 0.2).withTimestamp(123L).build();
+        assertEquals("put gauge 123 0.30000000000000004 \n", o2.toTelnetPutString());
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        final Map<String, String> tags = new HashMap<String, String>();
+        tags.put("host", "web01");
+        tags.put("dc", "lga");
+
+        assertEquals("{\"metric\":\"sys.cpu.nice\",\"timestamp\":1346846400,\"value\":18,\"tags\":{\"dc\":\"lga\",\"host\":\"web01\"}}",
+                mapper.writeValueAsString(OpenTsdbMetric.named("sys.cpu.nice")
+                        .withTimestamp(1346846400L)
+                        .withValue(18L)
+                        .withTags(tags)
+                        .build()));
+        assertEquals("{\"metric\":\"m\",\"timestamp\":null,\"value\":1.5,\"tags\":{}}",
+                mapper.writeValueAsString(OpenTsdbMetric.named("m").withValue(1.5).build()));
+        assertEquals("{\"metric\":\"m\",\"timestamp\":1,\"value\":\"x\",\"tags\":{}}",
+                mapper.writeValueAsString(OpenTsdbMetric.named("m").withTimestamp(1L).withValue("x").build()));
+    }
 }
@@ -22,15 +22,22 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.Mockito.*;
 
@@ -64,6 +71,8 @@ public class OpenTsdbTelnetTest {
 
 		String telnetString = writer.toString();
 		assertEquals("put counter 123 1 foo=bar\n", telnetString);
+		assertEquals(1, openTsdb.getStats().getPointsSent());
+		assertEquals(telnetString.length(), openTsdb.getStats().getBytesSent());
 
 	}
 
@@ -93,6 +102,28 @@ public class OpenTsdbTelnetTest {
 		}
 	}
 
+	@Test
+	public void testSendThrottled() {
+		openTsdb = OpenTsdbTelnet.forWriter(writer).withRateLimit(1000000, 0).create();
+		Set<OpenTsdbMetric> metrics = new HashSet<OpenTsdbMetric>();
+		for (int i = 0; i < 250; i++) {
+			metrics.add(OpenTsdbMetric.named(OpenTsdbMetric.encodeTagsInName("counter", "foo=bar" + i))
+					.withValue(1L)
+					.withTimestamp(Long.valueOf(123))
+					.build());
+		}
+		openTsdb.send(metrics);
+
+		assertEquals(250, writer.toString().split("\n").length);
+		assertEquals(writer.toString().length(), openTsdb.getStats().getBytesSent());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testHistogramsUnsupported() {
+		assertFalse(openTsdb.supportsHistograms());
+		openTsdb.sendHistograms(Collections.singleton(OpenTsdbHistogram.named("foo").build()));
+	}
+
 	@Test
 	public void testSendEmpty() {
 		openTsdb = OpenTsdbTelnet.forWriter(mockWriter).create();
@@ -107,6 +138,44 @@ public class OpenTsdbTelnetTest {
 
 		assertNotNull(OpenTsdbTelnet.forWriter(new StringWriter())
 				.create());
+
+		assertNotNull(OpenTsdbTelnet.forServices(Arrays.asList(new InetSocketAddress("localhost", 123),
+				new InetSocketAddress("localhost", 124)))
+				.withLoadBalancing(EndpointPool.Balancing.LEAST_OUTSTANDING)
+				.withEjection(2, 10, TimeUnit.SECONDS)
+				.withRateLimit(1000, 100000)
+				.withSmoothing(60, TimeUnit.SECONDS, 0.5)
+				.create());
+	}
+
+	@Test
+	public void testFailoverToNextServer() throws IOException {
+		final ServerSocket server = new ServerSocket(0);
+		try {
+			// nothing listens on the first address, so the batch goes to the second
+			final ServerSocket closed = new ServerSocket(0);
+			final int closedPort = closed.getLocalPort();
+			closed.close();
+
+			openTsdb = OpenTsdbTelnet.forServices(Arrays.asList(new InetSocketAddress("localhost", closedPort),
+					new InetSocketAddress("localhost", server.getLocalPort())))
+					.create();
+			OpenTsdbMetric o1 = OpenTsdbMetric.named(OpenTsdbMetric.encodeTagsInName("counter", "foo=bar"))
+					.withValue(1L)
+					.withTimestamp(123L)
+					.build();
+			openTsdb.send(o1);
+
+			final Socket socket = server.accept();
+			try {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+				assertEquals("put counter 123 1 foo=bar", reader.readLine());
+			} finally {
+				socket.close();
+			}
+		} finally {
+			server.close();
+		}
 	}
 
 	@Test
@@ -122,6 +191,7 @@ public class OpenTsdbTelnetTest {
 				.build();
 		openTsdb.send(o1);
 		verify(mockWriter).close();
+		assertEquals(1, openTsdb.getStats().getPointsDropped());
 	}
 
 	@Test
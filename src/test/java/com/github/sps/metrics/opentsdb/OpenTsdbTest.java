@@ -15,14 +15,17 @@
  */
 package com.github.sps.metrics.opentsdb;
 
+import com.codahale.metrics.Clock;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import jakarta.ws.rs.ProcessingException;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.client.Invocation;
@@ -30,7 +33,10 @@ import jakarta.ws.rs.client.WebTarget;
 import jakarta.ws.rs.core.Response;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 /**
@@ -78,6 +84,12 @@ public class OpenTsdbTest {
         }
         openTsdb.send(metrics);
         verify(mockBuilder, times(3)).post((Entity<?>) any());
+
+        final ClientStats stats = openTsdb.getStats();
+        assertEquals(21, stats.getPointsSent());
+        assertEquals(3, stats.getBatchesSent());
+        assertTrue(stats.getBytesSent() > 0);
+        assertEquals(stats.getBytesSent(), stats.getWireBytesSent());
     }
 
     @Test
@@ -89,6 +101,108 @@ public class OpenTsdbTest {
                 .create());
     }
 
+    @Test
+    public void testFailoverToNextEndpoint() {
+        final WebTarget downResource = mock(WebTarget.class);
+        final Invocation.Builder downBuilder = mock(Invocation.Builder.class);
+        when(downResource.path("/api/put")).thenReturn(downResource);
+        when(downResource.request()).thenReturn(downBuilder);
+        when(downBuilder.post((Entity<?>) any())).thenThrow(new ProcessingException("connection refused"));
+
+        when(apiResource.path("/api/put")).thenReturn(apiResource);
+        when(apiResource.request()).thenReturn(mockBuilder);
+        when(mockBuilder.post((Entity<?>) any())).thenReturn(mock(Response.class));
+
+        openTsdb = OpenTsdb.create(new EndpointPool<WebTarget>(Arrays.asList(downResource, apiResource),
+                EndpointPool.Balancing.ROUND_ROBIN));
+        openTsdb.send(OpenTsdbMetric.named("foo").build());
+        openTsdb.send(OpenTsdbMetric.named("foo").build());
+
+        verify(downBuilder, times(1)).post((Entity<?>) any());
+        verify(mockBuilder, times(2)).post((Entity<?>) any());
+    }
+
+    @Test
+    public void testFailoverOnServerError() {
+        final WebTarget errorResource = mock(WebTarget.class);
+        final Invocation.Builder errorBuilder = mock(Invocation.Builder.class);
+        final Response errorResponse = mock(Response.class);
+        when(errorResponse.getStatus()).thenReturn(503);
+        when(errorResource.path("/api/put")).thenReturn(errorResource);
+        when(errorResource.request()).thenReturn(errorBuilder);
+        when(errorBuilder.post((Entity<?>) any())).thenReturn(errorResponse);
+
+        when(apiResource.path("/api/put")).thenReturn(apiResource);
+        when(apiResource.request()).thenReturn(mockBuilder);
+        when(mockBuilder.post((Entity<?>) any())).thenReturn(mock(Response.class));
+
+        openTsdb = OpenTsdb.create(new EndpointPool<WebTarget>(Arrays.asList(errorResource, apiResource),
+                EndpointPool.Balancing.LEAST_OUTSTANDING));
+        openTsdb.send(OpenTsdbMetric.named("foo").build());
+
+        verify(errorBuilder).post((Entity<?>) any());
+        verify(errorResponse).close();
+        verify(mockBuilder).post((Entity<?>) any());
+    }
+
+    @Test
+    public void testClientErrorIsDroppedWithoutFailover() {
+        final WebTarget otherResource = mock(WebTarget.class);
+        final Response badRequest = mock(Response.class);
+        when(badRequest.getStatus()).thenReturn(400);
+        when(apiResource.path("/api/put")).thenReturn(apiResource);
+        when(apiResource.request()).thenReturn(mockBuilder);
+        when(mockBuilder.post((Entity<?>) any())).thenReturn(badRequest);
+
+        openTsdb = OpenTsdb.create(new EndpointPool<WebTarget>(Arrays.asList(apiResource, otherResource),
+                EndpointPool.Balancing.ROUND_ROBIN));
+        openTsdb.send(OpenTsdbMetric.named("foo").build());
+
+        verify(badRequest).close();
+        verifyNoInteractions(otherResource);
+        assertEquals(0, openTsdb.getStats().getPointsSent());
+        assertEquals(1, openTsdb.getStats().getPointsDropped());
+        assertEquals(1, openTsdb.getStats().getBatchesFailed());
+    }
+
+    @Test
+    public void testSendHistograms() {
+        when(apiResource.path("/api/histogram")).thenReturn(apiResource);
+        when(apiResource.request()).thenReturn(mockBuilder);
+        when(mockBuilder.post((Entity<?>) any())).thenReturn(mock(Response.class));
+
+        assertTrue(openTsdb.supportsHistograms());
+        openTsdb.sendHistograms(Collections.singleton(OpenTsdbHistogram.named("foo").build()));
+        verify(apiResource).path("/api/histogram");
+        verify(mockBuilder).post((Entity<?>) any());
+    }
+
+    @Test
+    public void testThrottledSendIsChunked() {
+        when(apiResource.path("/api/put")).thenReturn(apiResource);
+        when(apiResource.request()).thenReturn(mockBuilder);
+        when(mockBuilder.post((Entity<?>) any())).thenReturn(mock(Response.class));
+
+        openTsdb.setBatchSizeLimit(0);
+        openTsdb.setThrottle(new Throttle(1000000, 0, 0, TimeUnit.SECONDS, Clock.defaultClock()));
+        Set<OpenTsdbMetric> metrics = new HashSet<OpenTsdbMetric>();
+        for (int i = 0; i < Throttle.DEFAULT_CHUNK_SIZE * 2; i++) {
+            metrics.add(OpenTsdbMetric.named("foo" + i).build());
+        }
+        openTsdb.send(metrics);
+        verify(mockBuilder, times(2)).post((Entity<?>) any());
+    }
+
+    @Test
+    public void testBuilderWithMultipleServices() {
+        assertNotNull(OpenTsdb.forServices("http://tsd1/", "http://tsd2/")
+                .withLoadBalancing(EndpointPool.Balancing.LEAST_OUTSTANDING)
+                .withEjection(2, 10, TimeUnit.SECONDS)
+                .withRateLimit(1000, 100000)
+                .withSmoothing(60, TimeUnit.SECONDS, 0.5)
+                .create());
+    }
+
     @Test
     public void testSendWithExceptionFromRequestSwallowed() {
         when(apiResource.path("/api/put")).thenReturn(apiResource);
@@ -96,6 +210,15 @@ public class OpenTsdbTest {
         when(mockBuilder.post((Entity<?>) any())).thenThrow(new ProcessingException("Exception from underlying jersey client"));
         openTsdb.send(OpenTsdbMetric.named("foo").build());
         verify(mockBuilder).post((Entity<?>) any());
+        assertEquals(1, openTsdb.getStats().getBatchesFailed());
+        assertEquals(1, openTsdb.getStats().getPointsDropped());
+        assertEquals(0, openTsdb.getStats().getPointsSent());
+    }
+
+    @Test
+    public void testStatsGaugesAreStable() {
+        assertSame(openTsdb.getStats().getMetrics().get("points-sent"), openTsdb.getStats().getMetrics().get("points-sent"));
+        assertSame(openTsdb.getThrottle().getMetrics(), openTsdb.getThrottle().getMetrics());
     }
 
 }
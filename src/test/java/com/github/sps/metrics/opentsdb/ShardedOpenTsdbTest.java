@@ -0,0 +1,187 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import com.codahale.metrics.Clock;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ShardedOpenTsdbTest {
+
+    @Mock
+    private OpenTsdb node1;
+
+    @Mock
+    private OpenTsdb node2;
+
+    private ShardedOpenTsdb openTsdb;
+
+    @Before
+    public void setUp() {
+        Map<String, OpenTsdb> nodes = new LinkedHashMap<String, OpenTsdb>();
+        nodes.put("tsd1", node1);
+        nodes.put("tsd2", node2);
+        openTsdb = ShardedOpenTsdb.forNodes(nodes).withVirtualNodes(64).create();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSeriesAlwaysGoToSameNode() {
+        Set<OpenTsdbMetric> metrics = points(100, 1L);
+        openTsdb.send(metrics);
+        openTsdb.send(points(100, 2L));
+
+        ArgumentCaptor<Set> captor1 = ArgumentCaptor.forClass(Set.class);
+        ArgumentCaptor<Set> captor2 = ArgumentCaptor.forClass(Set.class);
+        verify(node1, times(2)).send(captor1.capture());
+        verify(node2, times(2)).send(captor2.capture());
+
+        assertEquals(series(captor1.getAllValues().get(0)), series(captor1.getAllValues().get(1)));
+        assertEquals(series(captor2.getAllValues().get(0)), series(captor2.getAllValues().get(1)));
+        assertEquals(100, captor1.getAllValues().get(0).size() + captor2.getAllValues().get(0).size());
+    }
+
+    @Test
+    public void testSeriesHashIgnoresTagOrderAndValue() {
+        Map<String, String> tags1 = new LinkedHashMap<String, String>();
+        tags1.put("host", "a");
+        tags1.put("dc", "b");
+        Map<String, String> tags2 = new LinkedHashMap<String, String>();
+        tags2.put("dc", "b");
+        tags2.put("host", "a");
+
+        OpenTsdbMetric m1 = OpenTsdbMetric.named("foo").withTags(tags1).withValue(1L).withTimestamp(1L).build();
+        OpenTsdbMetric m2 = OpenTsdbMetric.named("foo").withTags(tags2).withValue(2L).withTimestamp(2L).build();
+        assertEquals(ShardedOpenTsdb.seriesHash(m1), ShardedOpenTsdb.seriesHash(m2));
+
+        tags2.put("host", "c");
+        OpenTsdbMetric m3 = OpenTsdbMetric.named("foo").withTags(tags2).build();
+        assertTrue(ShardedOpenTsdb.seriesHash(m1) != ShardedOpenTsdb.seriesHash(m3));
+    }
+
+    @Test
+    public void testMembershipChange() {
+        openTsdb.removeNode("tsd2");
+        assertEquals(1, openTsdb.getNodes().size());
+        openTsdb.send(points(10, 1L));
+        verify(node1).send(anySet());
+        verify(node2, never()).send(anySet());
+
+        OpenTsdb node3 = mock(OpenTsdb.class);
+        openTsdb.addNode("tsd3", node3);
+        verify(node3).setBatchSizeLimit(OpenTsdb.DEFAULT_BATCH_SIZE_LIMIT);
+    }
+
+    @Test
+    public void testBatchSizePropagates() {
+        openTsdb.setBatchSizeLimit(5);
+        verify(node1).setBatchSizeLimit(5);
+        verify(node2).setBatchSizeLimit(5);
+    }
+
+    @Test
+    public void testBatchSizeLimitIsTheShardedClients() {
+        openTsdb.setBatchSizeLimit(5);
+        assertEquals(5, openTsdb.getBatchSizeLimit());
+
+        OpenTsdb node3 = mock(OpenTsdb.class);
+        openTsdb.addNode("tsd3", node3);
+        verify(node3).setBatchSizeLimit(5);
+    }
+
+    @Test
+    public void testThrottlePropagates() {
+        Throttle throttle = new Throttle(100, 0, 0, TimeUnit.NANOSECONDS, Clock.defaultClock());
+        openTsdb.setThrottle(throttle);
+        assertSame(throttle, openTsdb.getThrottle());
+        verify(node1).setThrottle(throttle);
+        verify(node2).setThrottle(throttle);
+
+        OpenTsdb node3 = mock(OpenTsdb.class);
+        openTsdb.addNode("tsd3", node3);
+        verify(node3).setThrottle(throttle);
+    }
+
+    @Test
+    public void testStatsSumUpNodes() {
+        OpenTsdb node3 = OpenTsdb.forService("http://tsd3/").create();
+        OpenTsdb node4 = OpenTsdb.forService("http://tsd4/").create();
+        openTsdb.addNode("tsd3", node3);
+        openTsdb.addNode("tsd4", node4);
+
+        node3.getStats().recordBatch(3, 30, 30, 1);
+        node4.getStats().recordBatch(4, 40, 40, 1);
+        node4.getStats().recordDropped(2);
+        assertEquals(3, node3.getStats().getPointsSent());
+        assertEquals(4, node4.getStats().getPointsSent());
+        assertEquals(7, openTsdb.getStats().getPointsSent());
+        assertEquals(2, openTsdb.getStats().getPointsDropped());
+
+        assertSame(node4, openTsdb.removeNode("tsd4"));
+        node4.getStats().recordBatch(4, 40, 40, 1);
+        assertEquals(7, openTsdb.getStats().getPointsSent());
+        assertEquals(8, node4.getStats().getPointsSent());
+    }
+
+    @Test
+    public void testSendEmpty() {
+        openTsdb.send(new HashSet<OpenTsdbMetric>());
+        verify(node1, never()).send(anySet());
+        verify(node2, never()).send(anySet());
+    }
+
+    @Test
+    public void testBuilder() {
+        assertNotNull(ShardedOpenTsdb.forServiceUrls("http://tsd1/", "http://tsd2/").create());
+        assertNotNull(ShardedOpenTsdb.forNodes(new HashMap<String, OpenTsdb>()).create());
+    }
+
+    private static Set<OpenTsdbMetric> points(int count, long timestamp) {
+        Set<OpenTsdbMetric> metrics = new HashSet<OpenTsdbMetric>();
+        for (int i = 0; i < count; i++) {
+            Map<String, String> tags = new HashMap<String, String>();
+            tags.put("id", String.valueOf(i));
+            metrics.add(OpenTsdbMetric.named("series").withTags(tags).withValue(timestamp).withTimestamp(timestamp).build());
+        }
+        return metrics;
+    }
+
+    private static Set<Map<String, String>> series(Set<OpenTsdbMetric> metrics) {
+        Set<Map<String, String>> series = new HashSet<Map<String, String>>();
+        for (OpenTsdbMetric metric : metrics) {
+            series.add(metric.getTags());
+        }
+        return series;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TagCodecTest {
+
+    @Test
+    public void testSanitizeMatchesRegex() {
+        final String[] names = {"", "foo.bar", "foo_*&^", "a b\tc", "host:8080", "café", "x😀y", "/a/b-c_d.e"};
+        for (String name : names) {
+            assertEquals(name, name.replaceAll("[^a-zA-Z0-9\\-\\_\\.\\/]", "-"), TagCodec.sanitize(name));
+        }
+    }
+
+    @Test
+    public void testSanitizeReturnsValidNames() {
+        final String name = new String("already.valid-name_1/x");
+        assertSame(name, TagCodec.sanitize(name));
+    }
+
+    @Test
+    public void testDecodeTags() {
+        final Map<String, String> expected = new HashMap<String, String>();
+        expected.put("host", "web01");
+        expected.put("dc", "lga");
+        assertEquals(expected, TagCodec.decodeTags("host=web01 dc=lga"));
+        assertEquals(expected, TagCodec.decodeTags("  host=web01\t dc lga "));
+        assertTrue(TagCodec.decodeTags("").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeTagsMissingValue() {
+        TagCodec.decodeTags("host=web01 dc");
+    }
+
+    @Test
+    public void testNameRoundTrip() {
+        final Map<String, String> tags = new HashMap<String, String>();
+        tags.put("host", "web 01");
+        final String encoded = TagCodec.encodeName("requests:count", tags);
+        assertEquals("TAG(host=web-01)requests-count", encoded);
+
+        final TagCodec.DecodedName decoded = TagCodec.decodeName(encoded);
+        assertEquals("requests-count", decoded.getMetric());
+        assertEquals("web-01", decoded.getTags().get("host"));
+        assertSame(decoded, TagCodec.decodeName(encoded));
+    }
+
+    @Test
+    public void testDecodePrefixedName() {
+        final TagCodec.DecodedName decoded = TagCodec.decodeName("TAG(a=1)prefix.name.count");
+        assertEquals("prefix.name.count", decoded.getMetric());
+        assertEquals("1", decoded.getTags().get("a"));
+        assertSame(TagSet.EMPTY, TagCodec.decodeName("plain").getTags());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeUnclosedName() {
+        TagCodec.decodeName("TAG(a=1 name");
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TagSetTest {
+
+    private static Map<String, String> tags(String... keyValues) {
+        final Map<String, String> tags = new HashMap<String, String>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            tags.put(keyValues[i], keyValues[i + 1]);
+        }
+        return tags;
+    }
+
+    @Test
+    public void testMapContract() {
+        final Map<String, String> map = tags("host", "web01", "dc", "lga", "app", "api");
+        final TagSet tagSet = TagSet.of(map);
+
+        assertEquals(3, tagSet.size());
+        assertEquals("lga", tagSet.get("dc"));
+        assertNull(tagSet.get("missing"));
+        assertNull(tagSet.get(42));
+        assertTrue(tagSet.containsKey("host"));
+        assertEquals(map, tagSet);
+        assertEquals(tagSet, map);
+        assertEquals(map.hashCode(), tagSet.hashCode());
+        assertEquals(Arrays.asList("app", "dc", "host"), new ArrayList<String>(tagSet.keySet()));
+    }
+
+    @Test
+    public void testInterned() {
+        final TagSet a = TagSet.of(tags("host", "web01", "dc", "lga"));
+        final TagSet b = TagSet.of(tags("dc", "lga", "host", "web01"));
+        assertSame(a, b);
+        assertSame(a, TagSet.of(a));
+        assertSame(TagSet.EMPTY, TagSet.of(null));
+        assertSame(TagSet.EMPTY, TagSet.of(Collections.<String, String>emptyMap()));
+    }
+
+    @Test
+    public void testUnusedTagSetsAreCollected() throws InterruptedException {
+        final WeakReference<TagSet> reference = new WeakReference<TagSet>(TagSet.of(tags("series", "removed")));
+        for (int i = 0; i < 20 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(reference.get());
+        assertEquals("removed", TagSet.of(tags("series", "removed")).get("series"));
+    }
+
+    @Test
+    public void testWith() {
+        final TagSet base = TagSet.of(tags("host", "web01", "dc", "lga"));
+        final TagSet merged = base.with(tags("dc", "sjc", "path", "/a"));
+
+        assertEquals(tags("host", "web01", "dc", "sjc", "path", "/a"), merged);
+        assertSame(base, base.with(null));
+        assertSame(base, TagSet.EMPTY.with(base));
+        assertSame(merged, base.with(tags("path", "/a", "dc", "sjc")));
+    }
+
+    @Test
+    public void testWithout() {
+        final TagSet base = TagSet.of(tags("host", "web01", "dc", "lga", "path", "/a"));
+
+        assertSame(TagSet.of(tags("dc", "lga")), base.without(new HashSet<String>(Arrays.asList("host", "path"))));
+        assertSame(base, base.without(Collections.singleton("app")));
+        assertSame(TagSet.EMPTY, base.without(base.keySet()));
+    }
+
+    @Test
+    public void testEncoded() {
+        final TagSet tagSet = TagSet.of(tags("b", "x y", "a", "1"));
+        assertEquals("a=1 b=x-y", tagSet.getEncoded());
+        assertSame(tagSet.getEncoded(), tagSet.getEncoded());
+        assertEquals("", TagSet.EMPTY.getEncoded());
+        assertEquals("a=1 b=x-y", OpenTsdbMetric.formatTags(tagSet));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullValue() {
+        TagSet.of(tags("a", null));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        TagSet.of(tags("a", "1")).put("b", "2");
+    }
+
+    @Test
+    public void testMetricsShareTagSet() {
+        final List<OpenTsdbMetric> metrics = new ArrayList<OpenTsdbMetric>();
+        for (int i = 0; i < 3; i++) {
+            metrics.add(OpenTsdbMetric.named("m" + i).withTags(tags("host", "web01")).build());
+        }
+        assertSame(metrics.get(0).getTagSet(), metrics.get(2).getTagSet());
+    }
+}
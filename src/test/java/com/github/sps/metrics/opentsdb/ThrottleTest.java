@@ -0,0 +1,123 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.sps.metrics.opentsdb;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Gauge;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ThrottleTest {
+
+    private final ManualClock clock = new ManualClock();
+
+    @Test
+    public void testUnlimited() {
+        Throttle throttle = Throttle.unlimited();
+        assertTrue(throttle.isUnlimited());
+        Throttle.Pacer pacer = throttle.start(1000000);
+        pacer.acquire(1000000, 100000000);
+        assertEquals(0, throttle.getTotalDelayNanos());
+    }
+
+    @Test
+    public void testPointsPerSecond() {
+        Throttle throttle = new ManualThrottle(100, 0, 0);
+        assertFalse(throttle.isUnlimited());
+
+        // 1000 points at 100/s with a one second burst allowance take nine seconds
+        Throttle.Pacer pacer = throttle.start(1000);
+        for (int i = 0; i < 100; i++) {
+            pacer.acquire(10, 0);
+        }
+        assertEquals(TimeUnit.SECONDS.toNanos(9), clock.tick, TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(clock.tick, throttle.getTotalDelayNanos(), TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Test
+    public void testBytesPerSecond() {
+        Throttle throttle = new ManualThrottle(0, 1000, 0);
+        Throttle.Pacer pacer = throttle.start(10);
+        for (int i = 0; i < 10; i++) {
+            pacer.acquire(1, 500);
+        }
+        assertEquals(TimeUnit.SECONDS.toNanos(4), clock.tick, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Test
+    public void testIdleTimeRefillsBucket() {
+        Throttle throttle = new ManualThrottle(100, 0, 0);
+        throttle.start(100).acquire(100, 0);
+        assertEquals(0, throttle.getLastSendDelayNanos());
+
+        clock.tick += TimeUnit.SECONDS.toNanos(5);
+        throttle.start(100).acquire(100, 0);
+        assertEquals(0, throttle.getLastSendDelayNanos());
+    }
+
+    @Test
+    public void testSmoothing() {
+        Throttle throttle = new ManualThrottle(0, 0, 10);
+
+        // 10 chunks spread over ten seconds: the last starts after nine
+        Throttle.Pacer pacer = throttle.start(100);
+        long[] starts = new long[10];
+        for (int i = 0; i < 10; i++) {
+            pacer.acquire(10, 0);
+            starts[i] = clock.tick;
+        }
+        for (int i = 0; i < 10; i++) {
+            assertEquals(TimeUnit.SECONDS.toNanos(i), starts[i]);
+        }
+        assertEquals(TimeUnit.SECONDS.toNanos(9), throttle.getLastSendDelayNanos());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGauges() {
+        Throttle throttle = new ManualThrottle(0, 0, 10);
+        Throttle.Pacer pacer = throttle.start(2);
+        pacer.acquire(1, 0);
+        pacer.acquire(1, 0);
+        assertEquals(5000L, ((Gauge<Long>) throttle.getMetrics().get("throttle-delay-total-ms")).getValue().longValue());
+        assertEquals(5000L, ((Gauge<Long>) throttle.getMetrics().get("throttle-delay-last-send-ms")).getValue().longValue());
+    }
+
+    private class ManualThrottle extends Throttle {
+        private ManualThrottle(double pointsPerSecond, double bytesPerSecond, long smoothingSeconds) {
+            super(pointsPerSecond, bytesPerSecond, smoothingSeconds, TimeUnit.SECONDS, clock);
+        }
+
+        @Override
+        protected void sleep(long nanos) {
+            clock.tick += nanos;
+        }
+    }
+
+    private static class ManualClock extends Clock {
+        private long tick = 0;
+
+        @Override
+        public long getTick() {
+            return tick;
+        }
+    }
+}